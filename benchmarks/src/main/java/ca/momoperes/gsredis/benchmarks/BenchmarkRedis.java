@@ -0,0 +1,73 @@
+package ca.momoperes.gsredis.benchmarks;
+
+import ca.momoperes.gsredis.config.*;
+import ca.momoperes.gsredis.io.RedisChunkIoService;
+import ca.momoperes.gsredis.io.SectionStore;
+import ca.momoperes.gsredis.metrics.RedisMetrics;
+import ca.momoperes.gsredis.redis.RedisConnections;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.logging.Logger;
+
+/**
+ * The redis server of an I/O benchmark: {@code embedded} starts a {@link RespServer},
+ * {@code host:port} uses a running redis-server (e.g. {@code redis-server --save "" --appendonly no}).
+ * Benchmarks only write keys under the {@code gsredis-benchmark} namespace of the database.
+ */
+public class BenchmarkRedis implements AutoCloseable {
+    public static final String NAMESPACE = "gsredis-benchmark";
+
+    private final RespServer server;
+    private final RedisConnections connections;
+    private final int databaseIndex;
+
+    public BenchmarkRedis(String address, int databaseIndex) throws IOException {
+        this(address, databaseIndex, 0);
+    }
+
+    /**
+     * @param asyncConnections non-blocking connections for chunk I/O, 0 to borrow pooled connections
+     */
+    public BenchmarkRedis(String address, int databaseIndex, int asyncConnections) throws IOException {
+        String host;
+        int port;
+        if (address.equals("embedded")) {
+            server = new RespServer();
+            host = "127.0.0.1";
+            port = server.getPort();
+        } else {
+            server = null;
+            host = address.substring(0, address.lastIndexOf(':'));
+            port = Integer.parseInt(address.substring(address.lastIndexOf(':') + 1));
+        }
+        RedisPoolConfiguration pool = new RedisPoolConfiguration(16, 16, 1, 2000, 2000, 2000, 60000, false,
+                asyncConnections);
+        connections = new RedisConnections(host, port, null, databaseIndex, pool, new RedisMetrics());
+        this.databaseIndex = databaseIndex;
+    }
+
+    public RedisConnections getConnections() {
+        return connections;
+    }
+
+    /**
+     * A chunk service writing through, without deduplication, caching or invalidations.
+     */
+    public RedisChunkIoService chunkService(String worldName, ChunkFormat format, CompressionCodec compression) {
+        RedisChunkServiceConfiguration config = new RedisChunkServiceConfiguration(databaseIndex, false, false, format,
+                new RedisCompressionConfiguration(compression, 1, null), false, false,
+                new RedisWriteBehindConfiguration(false, 0, 0, 0, RedisWriteBehindConfiguration.FullPolicy.BLOCK, 0),
+                new RedisSnapshotConfiguration(false, new File("snapshots")));
+        return new RedisChunkIoService(NAMESPACE, worldName, connections, config, new SectionStore(0), null, null,
+                null, null, null, null, new RedisMetrics(), Logger.getLogger(worldName));
+    }
+
+    @Override
+    public void close() throws IOException {
+        connections.close();
+        if (server != null) {
+            server.close();
+        }
+    }
+}
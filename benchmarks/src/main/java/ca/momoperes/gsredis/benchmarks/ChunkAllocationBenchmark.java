@@ -0,0 +1,80 @@
+package ca.momoperes.gsredis.benchmarks;
+
+import ca.momoperes.gsredis.codec.ChunkData;
+import ca.momoperes.gsredis.codec.LegacyChunkCodec;
+import ca.momoperes.gsredis.config.ChunkFormat;
+import ca.momoperes.gsredis.config.CompressionCodec;
+import ca.momoperes.gsredis.io.RedisChunkIoService;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bytes allocated per chunk read and write, to be run with the GC profiler and read from {@code gc.alloc.rate.norm}:
+ * {@code -prof gc -p redis=127.0.0.1:6379}. The profiler counts the allocations of every thread, so against the
+ * embedded server its own allocations are included too.
+ * <p>
+ * Chunks are stored without compression, so the numbers are those of the keys, the codecs and the client.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(1)
+public class ChunkAllocationBenchmark {
+    private static final int SIZE = 16;
+
+    @Param("embedded")
+    public String redis;
+
+    @Param("15")
+    public int database;
+
+    @Param({"BLOB", "REGION", "LEGACY"})
+    public ChunkFormat format;
+
+    private BenchmarkRedis server;
+    private RedisChunkIoService service;
+    private final LegacyChunkCodec legacyCodec = new LegacyChunkCodec();
+    private final ChunkData[] chunks = new ChunkData[SIZE * SIZE];
+    private int next;
+
+    @Setup
+    public void setUp() throws IOException {
+        server = new BenchmarkRedis(redis, database);
+        service = server.chunkService("allocation-" + format, format, CompressionCodec.NONE);
+        for (int i = 0; i < chunks.length; i++) {
+            chunks[i] = Chunks.terrain(i % SIZE, i / SIZE);
+            service.writeData(chunks[i]);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        server.close();
+    }
+
+    private int next() {
+        next = (next + 1) % chunks.length;
+        return next;
+    }
+
+    @Benchmark
+    public ChunkData read() throws IOException {
+        int i = next();
+        return service.readData(i % SIZE, i / SIZE);
+    }
+
+    @Benchmark
+    public void write() throws IOException {
+        service.writeData(chunks[next()]);
+    }
+
+    @Benchmark
+    public byte[][] encodeLegacySections() {
+        return legacyCodec.encodeSections(chunks[next()]);
+    }
+}
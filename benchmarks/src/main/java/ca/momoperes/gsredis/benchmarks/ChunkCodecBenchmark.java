@@ -0,0 +1,91 @@
+package ca.momoperes.gsredis.benchmarks;
+
+import ca.momoperes.gsredis.codec.*;
+import ca.momoperes.gsredis.metrics.CompressionMetrics;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+
+/**
+ * Encoding and decoding of chunk blobs, as done by {@code RedisChunkIoService} for the blob and region layouts.
+ * The metadata benchmarks encode chunks without sections, i.e. only the height map and biome conversion.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+public class ChunkCodecBenchmark {
+    @Param({"NONE", "LZ4", "DEFLATE"})
+    public String compression;
+
+    @Param({"terrain", "flat"})
+    public String kind;
+
+    private ChunkCodec codec;
+    private ChunkData chunk;
+    private ChunkData metadata;
+    private byte[] encoded;
+    private byte[] encodedMetadata;
+    private ChunkCodec.SectionSink sink;
+
+    @Setup
+    public void setUp() throws IOException {
+        SectionCompression sectionCompression;
+        switch (compression) {
+            case "LZ4":
+                sectionCompression = new Lz4SectionCompression();
+                break;
+            case "DEFLATE":
+                sectionCompression = new DeflateSectionCompression(Deflater.DEFAULT_COMPRESSION, null);
+                break;
+            default:
+                sectionCompression = null;
+                break;
+        }
+        codec = new ChunkCodec(sectionCompression, null, new CompressionMetrics());
+        chunk = Chunks.create(kind, 3, -7);
+        metadata = new ChunkData(3, -7, new SectionData[16], chunk.isPopulated(), chunk.getBiomes(), chunk.getHeightMap());
+        encoded = codec.encode(chunk);
+        encodedMetadata = codec.encode(metadata);
+        // hashes every section like a deduplicating write that already stored them
+        sink = new ChunkCodec.SectionSink() {
+            @Override
+            public boolean needsEntry(String hash) {
+                return false;
+            }
+
+            @Override
+            public void accept(String hash, byte[] entry) {
+            }
+        };
+    }
+
+    @Benchmark
+    public byte[] encode() {
+        return codec.encode(chunk);
+    }
+
+    @Benchmark
+    public ChunkData decode() throws IOException {
+        return codec.decode(3, -7, encoded);
+    }
+
+    @Benchmark
+    public byte[] encodeReferences() {
+        return codec.encode(chunk, sink);
+    }
+
+    @Benchmark
+    public byte[] encodeMetadata() {
+        return codec.encode(metadata);
+    }
+
+    @Benchmark
+    public ChunkData decodeMetadata() throws IOException {
+        return codec.decode(3, -7, encodedMetadata);
+    }
+}
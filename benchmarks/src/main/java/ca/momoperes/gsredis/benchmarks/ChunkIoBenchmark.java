@@ -0,0 +1,100 @@
+package ca.momoperes.gsredis.benchmarks;
+
+import ca.momoperes.gsredis.codec.ChunkData;
+import ca.momoperes.gsredis.config.ChunkFormat;
+import ca.momoperes.gsredis.config.CompressionCodec;
+import ca.momoperes.gsredis.io.RedisChunkIoService;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Chunk reads and writes through {@link RedisChunkIoService}, from the chunk data to redis and back.
+ * The world is a 32x32 area of generated chunks, written once before measuring and read in order.
+ * Run against a local redis-server with {@code -p redis=127.0.0.1:6379}.
+ * With {@code asyncConnections}, chunks go through the non-blocking client, and {@code readConcurrently}
+ * has {@value #CONCURRENT_READS} reads in flight at once, as during a chunk-load storm.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 10, time = 2)
+@Fork(2)
+public class ChunkIoBenchmark {
+    private static final int SIZE = 32;
+    private static final int CONCURRENT_READS = 64;
+
+    @Param("embedded")
+    public String redis;
+
+    @Param("15")
+    public int database;
+
+    @Param({"BLOB", "REGION", "LEGACY"})
+    public ChunkFormat format;
+
+    @Param({"NONE", "LZ4"})
+    public CompressionCodec compression;
+
+    @Param({"0", "2"})
+    public int asyncConnections;
+
+    private BenchmarkRedis server;
+    private RedisChunkIoService service;
+    private final ChunkData[] chunks = new ChunkData[SIZE * SIZE];
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        private int next;
+
+        private int next() {
+            next = (next + 1) % (SIZE * SIZE);
+            return next;
+        }
+    }
+
+    @Setup
+    public void setUp() throws IOException {
+        server = new BenchmarkRedis(redis, database, asyncConnections);
+        service = server.chunkService("io-" + format + "-" + compression, format, compression);
+        for (int i = 0; i < chunks.length; i++) {
+            chunks[i] = Chunks.terrain(i % SIZE, i / SIZE);
+            service.writeData(chunks[i]);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        server.close();
+    }
+
+    @Benchmark
+    public ChunkData read(Cursor cursor) throws IOException {
+        int i = cursor.next();
+        return service.readData(i % SIZE, i / SIZE);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CONCURRENT_READS)
+    public void readConcurrently(Cursor cursor, Blackhole blackhole) {
+        List<CompletableFuture<ChunkData>> reads = new ArrayList<>(CONCURRENT_READS);
+        for (int read = 0; read < CONCURRENT_READS; read++) {
+            int i = cursor.next();
+            reads.add(service.readDataAsync(i % SIZE, i / SIZE));
+        }
+        for (CompletableFuture<ChunkData> read : reads) {
+            blackhole.consume(read.join());
+        }
+    }
+
+    @Benchmark
+    public void write(Cursor cursor) throws IOException {
+        service.writeData(chunks[cursor.next()]);
+    }
+}
@@ -0,0 +1,126 @@
+package ca.momoperes.gsredis.benchmarks;
+
+import ca.momoperes.gsredis.codec.ChunkData;
+import ca.momoperes.gsredis.codec.SectionData;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Generates the chunks benchmarks work on. Chunks only depend on their coordinates, so every run
+ * encodes, stores and decodes the same data.
+ */
+public final class Chunks {
+    private static final int SECTION_COUNT = 16;
+    private static final char AIR = 0;
+    private static final char STONE = 1 << 4;
+    private static final char GRASS = 2 << 4;
+    private static final char DIRT = 3 << 4;
+    private static final char BEDROCK = 7 << 4;
+    private static final char WATER = 9 << 4;
+    private static final char IRON_ORE = 15 << 4;
+    private static final char COAL_ORE = 16 << 4;
+    private static final char GRANITE = STONE | 1;
+    private static final int SEA_LEVEL = 62;
+
+    private Chunks() {
+    }
+
+    /**
+     * A generated-looking chunk: bedrock, stone with ores and granite, dirt and grass around height 64,
+     * water below sea level, and a few biomes.
+     */
+    public static ChunkData terrain(int x, int z) {
+        Random random = new Random(x * 341873128712L + z * 132897987541L);
+        int[] heightMap = new int[256];
+        int base = 56 + random.nextInt(16);
+        for (int i = 0; i < heightMap.length; i++) {
+            int columnX = i & 15;
+            int columnZ = i >> 4;
+            heightMap[i] = base + (int) (4 * Math.sin((x * 16 + columnX) / 9.0) + 3 * Math.cos((z * 16 + columnZ) / 7.0));
+        }
+
+        SectionData[] sections = new SectionData[SECTION_COUNT];
+        for (int sectionY = 0; sectionY < SECTION_COUNT; sectionY++) {
+            int bottom = sectionY << 4;
+            if (bottom > SEA_LEVEL && bottom > max(heightMap)) {
+                break;
+            }
+            char[] types = new char[SectionData.BLOCK_COUNT];
+            byte[] skyLight = new byte[SectionData.NIBBLE_COUNT];
+            for (int i = 0; i < types.length; i++) {
+                int y = bottom + (i >> 8);
+                int height = heightMap[i & 0xFF];
+                char type;
+                if (y == 0) {
+                    type = BEDROCK;
+                } else if (y < height - 3) {
+                    int roll = random.nextInt(100);
+                    type = roll == 0 ? IRON_ORE : roll < 3 ? COAL_ORE : roll < 8 ? GRANITE : STONE;
+                } else if (y < height) {
+                    type = DIRT;
+                } else if (y == height) {
+                    type = height < SEA_LEVEL ? DIRT : GRASS;
+                } else {
+                    type = y <= SEA_LEVEL ? WATER : AIR;
+                }
+                types[i] = type;
+                if (type == AIR) {
+                    skyLight[i >> 1] |= 0x0F << ((i & 1) << 2);
+                }
+            }
+            sections[sectionY] = new SectionData(types, new byte[SectionData.NIBBLE_COUNT], skyLight);
+        }
+
+        byte[] biomes = new byte[256];
+        Arrays.fill(biomes, (byte) 1);
+        if (random.nextBoolean()) {
+            // a biome border crossing the chunk
+            for (int i = 0; i < biomes.length; i++) {
+                if ((i & 15) + (i >> 4) > 15) {
+                    biomes[i] = 4;
+                }
+            }
+        }
+        return new ChunkData(x, z, sections, true, biomes, heightMap);
+    }
+
+    /**
+     * A superflat chunk: one section of bedrock, dirt and grass, a uniform biome and height map.
+     */
+    public static ChunkData flat(int x, int z) {
+        char[] types = new char[SectionData.BLOCK_COUNT];
+        byte[] skyLight = new byte[SectionData.NIBBLE_COUNT];
+        for (int i = 0; i < types.length; i++) {
+            int y = i >> 8;
+            types[i] = y == 0 ? BEDROCK : y < 3 ? DIRT : y == 3 ? GRASS : AIR;
+        }
+        Arrays.fill(skyLight, 4 * 256 / 2, skyLight.length, (byte) 0xFF);
+        SectionData[] sections = new SectionData[SECTION_COUNT];
+        sections[0] = new SectionData(types, new byte[SectionData.NIBBLE_COUNT], skyLight);
+        byte[] biomes = new byte[256];
+        Arrays.fill(biomes, (byte) 1);
+        int[] heightMap = new int[256];
+        Arrays.fill(heightMap, 4);
+        return new ChunkData(x, z, sections, true, biomes, heightMap);
+    }
+
+    public static ChunkData create(String kind, int x, int z) {
+        switch (kind) {
+            case "terrain":
+                return terrain(x, z);
+            case "flat":
+                return flat(x, z);
+            default:
+                throw new IllegalArgumentException("Unknown chunk kind " + kind);
+        }
+    }
+
+    private static int max(int[] values) {
+        int max = Integer.MIN_VALUE;
+        for (int value : values) {
+            max = Math.max(max, value);
+        }
+        return max;
+    }
+}
@@ -0,0 +1,69 @@
+package ca.momoperes.gsredis.benchmarks;
+
+import ca.momoperes.gsredis.codec.ChunkData;
+import ca.momoperes.gsredis.codec.LegacyChunkCodec;
+import ca.momoperes.gsredis.codec.SectionData;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding and decoding of the legacy layout: section blobs, and the height map and biome fields.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+public class LegacyChunkCodecBenchmark {
+    @Param({"terrain", "flat"})
+    public String kind;
+
+    private final LegacyChunkCodec codec = new LegacyChunkCodec();
+    private ChunkData chunk;
+    private List<byte[]> sections;
+    private byte[] populated;
+    private byte[] heightMap;
+    private SectionData section;
+
+    @Setup
+    public void setUp() throws IOException {
+        chunk = Chunks.create(kind, 3, -7);
+        sections = Arrays.asList(codec.encodeSections(chunk));
+        populated = new byte[]{1};
+        heightMap = codec.encodeHeightMap(chunk.getHeightMap());
+        section = chunk.getSections()[0];
+    }
+
+    @Benchmark
+    public byte[][] encodeSections() throws IOException {
+        return codec.encodeSections(chunk);
+    }
+
+    @Benchmark
+    public ChunkData decode() throws IOException {
+        return codec.decode(3, -7, sections, populated, chunk.getBiomes(), heightMap);
+    }
+
+    @Benchmark
+    public byte[] encodeHeightMap() {
+        return codec.encodeHeightMap(chunk.getHeightMap());
+    }
+
+    @Benchmark
+    public ChunkData decodeMetadata() throws IOException {
+        return codec.decode(3, -7, sections.subList(0, 0), populated, chunk.getBiomes(), heightMap);
+    }
+
+    /**
+     * The conversion to a Glowstone section done when a chunk is applied to a {@code GlowChunk}, and back.
+     */
+    @Benchmark
+    public SectionData sectionConversion() {
+        return SectionData.fromSection(section.toSection());
+    }
+}
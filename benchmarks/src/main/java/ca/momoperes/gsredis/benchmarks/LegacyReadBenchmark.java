@@ -0,0 +1,93 @@
+package ca.momoperes.gsredis.benchmarks;
+
+import ca.momoperes.gsredis.codec.ChunkData;
+import ca.momoperes.gsredis.codec.LegacyChunkCodec;
+import ca.momoperes.gsredis.config.ChunkFormat;
+import ca.momoperes.gsredis.config.CompressionCodec;
+import ca.momoperes.gsredis.io.RedisChunkIoService;
+import org.openjdk.jmh.annotations.*;
+import redis.clients.jedis.Jedis;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-chunk read latency of the legacy layout: the single pipelined round-trip of the chunk service,
+ * against the original read path with one round-trip per command (EXISTS, LRANGE, then HEXISTS and HGET
+ * for each field). Compare both against a redis-server, e.g. {@code -p redis=127.0.0.1:6379}:
+ * the embedded server answers over loopback, which hides most of the round-trip cost.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 10, time = 2)
+@Fork(2)
+public class LegacyReadBenchmark {
+    private static final int SIZE = 32;
+    private static final String WORLD = "legacy-read";
+    private static final byte[][] FIELDS = {"TerrainPopulated".getBytes(), "Biomes".getBytes(), "HeightMap".getBytes()};
+
+    @Param("embedded")
+    public String redis;
+
+    @Param("15")
+    public int database;
+
+    private BenchmarkRedis server;
+    private RedisChunkIoService service;
+    private final LegacyChunkCodec codec = new LegacyChunkCodec();
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        private int next;
+
+        private int next() {
+            next = (next + 1) % (SIZE * SIZE);
+            return next;
+        }
+    }
+
+    @Setup
+    public void setUp() throws IOException {
+        server = new BenchmarkRedis(redis, database);
+        service = server.chunkService(WORLD, ChunkFormat.LEGACY, CompressionCodec.NONE);
+        for (int i = 0; i < SIZE * SIZE; i++) {
+            service.writeData(Chunks.terrain(i % SIZE, i / SIZE));
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        server.close();
+    }
+
+    @Benchmark
+    public ChunkData pipelined(Cursor cursor) throws IOException {
+        int i = cursor.next();
+        return service.readData(i % SIZE, i / SIZE);
+    }
+
+    @Benchmark
+    public ChunkData unpipelined(Cursor cursor) throws IOException {
+        int i = cursor.next();
+        int x = i % SIZE;
+        int z = i / SIZE;
+        byte[] key = (BenchmarkRedis.NAMESPACE + ":worlds:" + WORLD + ":chunks:" + x + "_" + z).getBytes();
+        byte[] sectionsKey = (BenchmarkRedis.NAMESPACE + ":worlds:" + WORLD + ":chunks:" + x + "_" + z + ":sections").getBytes();
+        try (Jedis redis = server.getConnections().getResource(database)) {
+            if (!redis.exists(sectionsKey)) {
+                return null;
+            }
+            List<byte[]> sections = redis.lrange(sectionsKey, 0, 15);
+            byte[][] values = new byte[FIELDS.length][];
+            for (int field = 0; field < FIELDS.length; field++) {
+                if (redis.hexists(key, FIELDS[field])) {
+                    values[field] = redis.hget(key, FIELDS[field]);
+                }
+            }
+            return codec.decode(x, z, sections, values[0], values[1], values[2]);
+        }
+    }
+}
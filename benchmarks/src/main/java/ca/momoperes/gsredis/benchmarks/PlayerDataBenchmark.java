@@ -0,0 +1,89 @@
+package ca.momoperes.gsredis.benchmarks;
+
+import ca.momoperes.gsredis.io.RedisPlayerDataService;
+import net.glowstone.util.nbt.CompoundTag;
+import net.glowstone.util.nbt.TagType;
+import org.bukkit.Location;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decoding of a player's stored data, as done by the player reader once it was fetched: the NBT blob
+ * of a player with a full inventory, and the position strings of players saved before it.
+ * Worlds are not resolved, that needs a running server.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+public class PlayerDataBenchmark {
+    private final Map<String, String> legacyData = new HashMap<>();
+    private CompoundTag tag;
+    private byte[] blob;
+
+    @Setup
+    public void setUp() throws IOException {
+        legacyData.put("Pos", "-1283.5417612418532;71.0;904.2291740876021;-172.35;12.6");
+        legacyData.put("BedSpawnPos", "world;-1290.0;68.0;911.0");
+        legacyData.put("FirstPlayed", "1520000000000");
+        legacyData.put("LastPlayed", "1528000000000");
+        legacyData.put("LastKnownName", "Notch");
+
+        tag = new CompoundTag();
+        tag.putList("Pos", TagType.DOUBLE, Arrays.asList(-1283.5417612418532, 71.0, 904.2291740876021));
+        tag.putList("Rotation", TagType.FLOAT, Arrays.asList(-172.35f, 12.6f));
+        tag.putInt("SpawnX", -1290);
+        tag.putInt("SpawnY", 68);
+        tag.putInt("SpawnZ", 911);
+        tag.putString("SpawnWorld", "world");
+        List<CompoundTag> inventory = new ArrayList<>();
+        for (int slot = 0; slot < 36; slot++) {
+            CompoundTag item = new CompoundTag();
+            item.putByte("Slot", slot);
+            item.putString("id", "minecraft:stone");
+            item.putByte("Count", 64);
+            item.putShort("Damage", 0);
+            inventory.add(item);
+        }
+        tag.putCompoundList("Inventory", inventory);
+        CompoundTag bukkit = new CompoundTag();
+        bukkit.putLong("firstPlayed", 1520000000000L);
+        bukkit.putLong("lastPlayed", 1528000000000L);
+        bukkit.putString("lastKnownName", "Notch");
+        tag.putCompound("bukkit", bukkit);
+        blob = RedisPlayerDataService.encodeTag(tag);
+    }
+
+    @Benchmark
+    public CompoundTag decodeBlob() throws IOException {
+        return RedisPlayerDataService.decodeTag(blob);
+    }
+
+    @Benchmark
+    public byte[] encodeBlob() throws IOException {
+        return RedisPlayerDataService.encodeTag(tag);
+    }
+
+    @Benchmark
+    public void parseLegacy(Blackhole blackhole) {
+        Location location = RedisPlayerDataService.parseLocation(null, legacyData.get("Pos").split(";"), 0);
+        String[] bed = legacyData.get("BedSpawnPos").split(";");
+        Location bedSpawnLocation = RedisPlayerDataService.parseLocation(null, bed, 1);
+        blackhole.consume(location);
+        blackhole.consume(bed[0]);
+        blackhole.consume(bedSpawnLocation);
+        blackhole.consume(Long.parseLong(legacyData.get("FirstPlayed")));
+        blackhole.consume(Long.parseLong(legacyData.get("LastPlayed")));
+        blackhole.consume(legacyData.get("LastKnownName"));
+    }
+}
@@ -0,0 +1,321 @@
+package ca.momoperes.gsredis.benchmarks;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * An in-process stand-in for redis, speaking enough RESP for the chunk read and write paths without
+ * deduplication or invalidation: strings, hashes, lists, MULTI/EXEC and PUBLISH (to nobody).
+ * <p>
+ * It answers over loopback TCP like a local redis-server, so benchmarks against it include the client's
+ * encoding, the pipelining and the socket round-trips, but not redis' own performance.
+ */
+public class RespServer implements AutoCloseable {
+    private static final Object OK = new Object();
+    private static final Object QUEUED = new Object();
+
+    private final ServerSocket socket;
+    private final List<Map<ByteBuffer, Object>> databases = new ArrayList<>();
+    private final Set<Socket> clients = Collections.synchronizedSet(new HashSet<>());
+
+    public RespServer() throws IOException {
+        this.socket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        for (int i = 0; i < 16; i++) {
+            databases.add(new HashMap<>());
+        }
+        Thread acceptor = new Thread(this::accept, "resp-server");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    public int getPort() {
+        return socket.getLocalPort();
+    }
+
+    private void accept() {
+        while (!socket.isClosed()) {
+            try {
+                Socket client = socket.accept();
+                client.setTcpNoDelay(true);
+                clients.add(client);
+                Thread thread = new Thread(() -> serve(client), "resp-client");
+                thread.setDaemon(true);
+                thread.start();
+            } catch (IOException e) {
+                return;
+            }
+        }
+    }
+
+    private void serve(Socket client) {
+        try (Socket closing = client;
+             InputStream in = new BufferedInputStream(client.getInputStream(), 65536);
+             OutputStream out = new BufferedOutputStream(client.getOutputStream(), 65536)) {
+            int database = 0;
+            List<byte[][]> transaction = null;
+            while (true) {
+                byte[][] command = readCommand(in);
+                if (command == null) {
+                    return;
+                }
+                String name = new String(command[0], StandardCharsets.US_ASCII).toUpperCase(Locale.ROOT);
+                Object reply;
+                if (name.equals("QUIT")) {
+                    writeReply(out, OK);
+                    out.flush();
+                    return;
+                } else if (name.equals("SELECT")) {
+                    database = Integer.parseInt(string(command[1]));
+                    reply = OK;
+                } else if (name.equals("MULTI")) {
+                    transaction = new ArrayList<>();
+                    reply = OK;
+                } else if (name.equals("EXEC")) {
+                    List<Object> replies = new ArrayList<>();
+                    synchronized (databases) {
+                        for (byte[][] queued : transaction) {
+                            replies.add(execute(databases.get(database), queued));
+                        }
+                    }
+                    transaction = null;
+                    reply = replies;
+                } else if (name.equals("DISCARD")) {
+                    transaction = null;
+                    reply = OK;
+                } else if (transaction != null) {
+                    transaction.add(command);
+                    reply = QUEUED;
+                } else {
+                    synchronized (databases) {
+                        reply = execute(databases.get(database), command);
+                    }
+                }
+                writeReply(out, reply);
+                if (in.available() == 0) {
+                    // the rest of the pipeline has not arrived yet
+                    out.flush();
+                }
+            }
+        } catch (SocketException | EOFException e) {
+            // the client went away
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            clients.remove(client);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Object execute(Map<ByteBuffer, Object> data, byte[][] command) {
+        String name = new String(command[0], StandardCharsets.US_ASCII).toUpperCase(Locale.ROOT);
+        ByteBuffer key = command.length > 1 ? ByteBuffer.wrap(command[1]) : null;
+        Object value = key == null ? null : data.get(key);
+        switch (name) {
+            case "PING":
+                return "PONG";
+            case "AUTH":
+                return OK;
+            case "FLUSHDB":
+                data.clear();
+                return OK;
+            case "PUBLISH":
+                return 0L;
+            case "GET":
+                return value instanceof byte[] ? value : null;
+            case "SET":
+                // NX is honoured, expirations are not
+                for (int i = 3; i < command.length; i++) {
+                    if (string(command[i]).equalsIgnoreCase("NX") && data.containsKey(key)) {
+                        return null;
+                    }
+                }
+                data.put(key, command[2]);
+                return OK;
+            case "EXISTS":
+            case "DEL": {
+                long count = 0;
+                for (int i = 1; i < command.length; i++) {
+                    ByteBuffer other = ByteBuffer.wrap(command[i]);
+                    if (name.equals("DEL") ? data.remove(other) != null : data.containsKey(other)) {
+                        count++;
+                    }
+                }
+                return count;
+            }
+            case "HGET":
+                return value == null ? null : ((Map<ByteBuffer, byte[]>) value).get(ByteBuffer.wrap(command[2]));
+            case "HEXISTS":
+                return value != null && ((Map<ByteBuffer, byte[]>) value).containsKey(ByteBuffer.wrap(command[2])) ? 1L : 0L;
+            case "HMGET": {
+                List<Object> values = new ArrayList<>();
+                for (int i = 2; i < command.length; i++) {
+                    values.add(value == null ? null : ((Map<ByteBuffer, byte[]>) value).get(ByteBuffer.wrap(command[i])));
+                }
+                return values;
+            }
+            case "HGETALL": {
+                List<Object> values = new ArrayList<>();
+                if (value != null) {
+                    for (Map.Entry<ByteBuffer, byte[]> entry : ((Map<ByteBuffer, byte[]>) value).entrySet()) {
+                        values.add(entry.getKey().array());
+                        values.add(entry.getValue());
+                    }
+                }
+                return values;
+            }
+            case "HSET":
+            case "HMSET": {
+                Map<ByteBuffer, byte[]> hash = (Map<ByteBuffer, byte[]>) data.computeIfAbsent(key, k -> new HashMap<>());
+                long added = 0;
+                for (int i = 2; i + 1 < command.length; i += 2) {
+                    if (hash.put(ByteBuffer.wrap(command[i]), command[i + 1]) == null) {
+                        added++;
+                    }
+                }
+                return name.equals("HSET") ? (Object) added : OK;
+            }
+            case "HDEL": {
+                long removed = 0;
+                if (value != null) {
+                    Map<ByteBuffer, byte[]> hash = (Map<ByteBuffer, byte[]>) value;
+                    for (int i = 2; i < command.length; i++) {
+                        if (hash.remove(ByteBuffer.wrap(command[i])) != null) {
+                            removed++;
+                        }
+                    }
+                    if (hash.isEmpty()) {
+                        data.remove(key);
+                    }
+                }
+                return removed;
+            }
+            case "HINCRBY": {
+                Map<ByteBuffer, byte[]> hash = (Map<ByteBuffer, byte[]>) data.computeIfAbsent(key, k -> new HashMap<>());
+                byte[] current = hash.get(ByteBuffer.wrap(command[2]));
+                long incremented = (current == null ? 0 : Long.parseLong(string(current))) + Long.parseLong(string(command[3]));
+                hash.put(ByteBuffer.wrap(command[2]), Long.toString(incremented).getBytes(StandardCharsets.US_ASCII));
+                return incremented;
+            }
+            case "RPUSH": {
+                List<byte[]> list = (List<byte[]>) data.computeIfAbsent(key, k -> new ArrayList<>());
+                list.addAll(Arrays.asList(command).subList(2, command.length));
+                return (long) list.size();
+            }
+            case "LSET": {
+                if (value == null) {
+                    return new IOException("ERR no such key");
+                }
+                ((List<byte[]>) value).set(Integer.parseInt(string(command[2])), command[3]);
+                return OK;
+            }
+            case "LRANGE": {
+                List<byte[]> list = value == null ? Collections.emptyList() : (List<byte[]>) value;
+                int start = index(Integer.parseInt(string(command[2])), list.size());
+                int stop = Math.min(index(Integer.parseInt(string(command[3])), list.size()), list.size() - 1);
+                return start > stop ? Collections.emptyList() : new ArrayList<Object>(list.subList(start, stop + 1));
+            }
+            default:
+                return new IOException("ERR unknown command '" + name + "'");
+        }
+    }
+
+    private static int index(int index, int size) {
+        return Math.max(index < 0 ? size + index : index, 0);
+    }
+
+    private static String string(byte[] bytes) {
+        return new String(bytes, StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * @return the arguments of the next command, or null once the client disconnected
+     */
+    private static byte[][] readCommand(InputStream in) throws IOException {
+        int type = in.read();
+        if (type == -1) {
+            return null;
+        }
+        if (type != '*') {
+            throw new IOException("Expected an array, got '" + (char) type + "'");
+        }
+        byte[][] arguments = new byte[(int) readNumber(in)][];
+        for (int i = 0; i < arguments.length; i++) {
+            if (in.read() != '$') {
+                throw new IOException("Expected a bulk string");
+            }
+            byte[] argument = new byte[(int) readNumber(in)];
+            int read = 0;
+            while (read < argument.length) {
+                int count = in.read(argument, read, argument.length - read);
+                if (count == -1) {
+                    throw new EOFException();
+                }
+                read += count;
+            }
+            in.read();
+            in.read();
+            arguments[i] = argument;
+        }
+        return arguments;
+    }
+
+    private static long readNumber(InputStream in) throws IOException {
+        long value = 0;
+        boolean negative = false;
+        int b;
+        while ((b = in.read()) != '\r') {
+            if (b == -1) {
+                throw new EOFException();
+            }
+            if (b == '-') {
+                negative = true;
+            } else {
+                value = value * 10 + (b - '0');
+            }
+        }
+        in.read();
+        return negative ? -value : value;
+    }
+
+    private static void writeReply(OutputStream out, Object reply) throws IOException {
+        if (reply == OK || reply == QUEUED) {
+            out.write((reply == OK ? "+OK\r\n" : "+QUEUED\r\n").getBytes(StandardCharsets.US_ASCII));
+        } else if (reply instanceof String) {
+            out.write(("+" + reply + "\r\n").getBytes(StandardCharsets.US_ASCII));
+        } else if (reply instanceof IOException) {
+            out.write(("-" + ((IOException) reply).getMessage() + "\r\n").getBytes(StandardCharsets.US_ASCII));
+        } else if (reply instanceof Long) {
+            out.write((":" + reply + "\r\n").getBytes(StandardCharsets.US_ASCII));
+        } else if (reply == null) {
+            out.write("$-1\r\n".getBytes(StandardCharsets.US_ASCII));
+        } else if (reply instanceof byte[]) {
+            byte[] bytes = (byte[]) reply;
+            out.write(("$" + bytes.length + "\r\n").getBytes(StandardCharsets.US_ASCII));
+            out.write(bytes);
+            out.write('\r');
+            out.write('\n');
+        } else {
+            List<?> replies = (List<?>) reply;
+            out.write(("*" + replies.size() + "\r\n").getBytes(StandardCharsets.US_ASCII));
+            for (Object element : replies) {
+                writeReply(out, element);
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+        synchronized (clients) {
+            for (Socket client : clients) {
+                client.close();
+            }
+        }
+    }
+}
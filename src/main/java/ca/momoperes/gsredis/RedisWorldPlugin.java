@@ -1,21 +1,80 @@
 package ca.momoperes.gsredis;
 
+import ca.momoperes.gsredis.cache.ChunkCache;
+import ca.momoperes.gsredis.cache.ChunkInvalidationBus;
+import ca.momoperes.gsredis.codec.ChunkData;
+import ca.momoperes.gsredis.config.ChunkFormat;
+import ca.momoperes.gsredis.config.CompressionCodec;
+import ca.momoperes.gsredis.config.RedisCacheConfiguration;
 import ca.momoperes.gsredis.config.RedisChunkServiceConfiguration;
+import ca.momoperes.gsredis.config.RedisCompressionConfiguration;
+import ca.momoperes.gsredis.config.RedisGenerationConfiguration;
+import ca.momoperes.gsredis.config.RedisJournalConfiguration;
+import ca.momoperes.gsredis.config.RedisLeaseConfiguration;
+import ca.momoperes.gsredis.config.RedisMode;
 import ca.momoperes.gsredis.config.RedisPlayerDataServiceConfiguration;
 import ca.momoperes.gsredis.config.RedisPluginConfiguration;
+import ca.momoperes.gsredis.config.RedisPoolConfiguration;
+import ca.momoperes.gsredis.config.RedisPrefetchConfiguration;
+import ca.momoperes.gsredis.config.RedisReplicaConfiguration;
+import ca.momoperes.gsredis.config.RedisSnapshotConfiguration;
+import ca.momoperes.gsredis.config.RedisWriteBehindConfiguration;
+import ca.momoperes.gsredis.io.ChunkPrefetcher;
+import ca.momoperes.gsredis.io.ChunkPregenerator;
+import ca.momoperes.gsredis.io.RedisChunkIoService;
+import ca.momoperes.gsredis.io.RedisPlayerDataService;
 import ca.momoperes.gsredis.io.RedisWorldStorageProvider;
+import ca.momoperes.gsredis.io.SectionStore;
+import ca.momoperes.gsredis.io.WorldKeyspace;
+import ca.momoperes.gsredis.metrics.OperationMetrics;
+import ca.momoperes.gsredis.metrics.RedisMetrics;
+import ca.momoperes.gsredis.redis.ClusterRedisRouter;
+import ca.momoperes.gsredis.redis.RedisConnections;
+import ca.momoperes.gsredis.redis.RedisRouter;
+import ca.momoperes.gsredis.redis.ReplicaRedisRouter;
+import ca.momoperes.gsredis.redis.ShardedRedisRouter;
 import net.glowstone.GlowServer;
+import net.glowstone.chunk.GlowChunk;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.command.Command;
+import org.bukkit.command.CommandSender;
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.configuration.MemoryConfiguration;
 import org.bukkit.configuration.file.FileConfiguration;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.AsyncPlayerPreLoginEvent;
+import org.bukkit.event.world.ChunkLoadEvent;
+import org.bukkit.event.world.ChunkUnloadEvent;
 import org.bukkit.plugin.java.JavaPlugin;
-import redis.clients.jedis.JedisPool;
-import redis.clients.jedis.JedisPoolConfig;
+import redis.clients.jedis.HostAndPort;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Level;
 
-public class RedisWorldPlugin extends JavaPlugin {
+public class RedisWorldPlugin extends JavaPlugin implements Listener {
 
-    private static JedisPool pool;
+    private RedisRouter router;
     private RedisPluginConfiguration config;
+    private ChunkCache chunkCache;
+    private ChunkInvalidationBus invalidationBus;
+    private ChunkPrefetcher prefetcher;
+    private ChunkPregenerator pregenerator;
+    private final RedisMetrics metrics = new RedisMetrics();
+    private final List<RedisWorldStorageProvider> providers = new CopyOnWriteArrayList<>();
+    private volatile boolean disabled;
 
     @Override
     public void onLoad() {
@@ -31,19 +90,312 @@ public class RedisWorldPlugin extends JavaPlugin {
             return;
         }
 
-        pool = new JedisPool(new JedisPoolConfig(),
-                config.getHost(), config.getPort(), 2000, config.getPassword(), config.getDefaultDatabaseIndex());
+        metrics.register(getLogger());
+        router = createRouter();
 
+        SectionStore sectionStore = new SectionStore(config.getSectionCacheSize());
+        if (config.getPrefetch().isEnabled() && !config.getChunkCache().isEnabled()) {
+            getLogger().info("Enabling the chunk cache, prefetched chunks are staged in it.");
+            config.getChunkCache().setEnabled(true);
+        }
+        if (config.getChunkCache().isEnabled()) {
+            chunkCache = new ChunkCache(config.getChunkCache().getMaxBytes());
+            invalidationBus = new ChunkInvalidationBus(config.getNamespace(), router, chunkCache, getLogger());
+            invalidationBus.start();
+        }
         GlowServer server = (GlowServer) getServer();
-        server.setStorageProvider(worldName -> new RedisWorldStorageProvider(worldName, pool, config));
+        server.setStorageProvider(worldName -> {
+            RedisWorldStorageProvider provider = new RedisWorldStorageProvider(worldName, router, config, sectionStore,
+                    chunkCache, invalidationBus, metrics, getLogger());
+            provider.setUnloadListener(this::unloaded);
+            providers.add(provider);
+            return provider;
+        });
         getLogger().info("Redis world provider has been enabled.");
     }
 
+    @Override
+    public void onEnable() {
+        metrics.setServerThread(Thread.currentThread());
+        if (router != null) {
+            getServer().getPluginManager().registerEvents(this, this);
+        }
+        if (router != null && config.getPrefetch().isEnabled()) {
+            prefetcher = new ChunkPrefetcher(getServer(), config.getPrefetch(), providers, getLogger());
+            int interval = config.getPrefetch().getIntervalTicks();
+            getServer().getScheduler().runTaskTimer(this, prefetcher, interval, interval);
+        }
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPreLogin(AsyncPlayerPreLoginEvent event) {
+        if (event.getLoginResult() != AsyncPlayerPreLoginEvent.Result.ALLOWED || getServer().getWorlds().isEmpty()) {
+            return;
+        }
+        // players are read from the server's first world
+        String worldName = getServer().getWorlds().get(0).getName();
+        for (RedisWorldStorageProvider provider : providers) {
+            RedisPlayerDataService playerDataService = provider.getPlayerDataService();
+            if (provider.getWorldName().equals(worldName) && playerDataService != null) {
+                try {
+                    playerDataService.prefetch(event.getUniqueId());
+                } catch (RuntimeException e) {
+                    getLogger().log(Level.WARNING, "Could not prefetch the data of " + event.getName()
+                            + ", it is read when joining", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes a chunk this server claimed as soon as it is generated, so other servers waiting for it do not wait
+     * until it is unloaded.
+     */
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onChunkLoad(ChunkLoadEvent event) {
+        if (!event.isNewChunk()) {
+            return;
+        }
+        RedisWorldStorageProvider provider = provider(event.getWorld().getName());
+        RedisChunkIoService chunkIoService = provider == null ? null : provider.getChunkIoService();
+        if (chunkIoService == null || !chunkIoService.isClaimed(event.getChunk().getX(), event.getChunk().getZ())) {
+            return;
+        }
+        // encoded here, the chunk is only accessed on the server thread
+        ChunkData data = ChunkData.fromChunk((GlowChunk) event.getChunk());
+        try {
+            chunkIoService.writeGenerated(data, task -> getServer().getScheduler().runTaskAsynchronously(this, task));
+        } catch (IOException e) {
+            // the claim expires, and the chunk is written when it is saved
+            getLogger().log(Level.WARNING, "Could not write generated chunk " + data.getX() + "," + data.getZ()
+                    + " of '" + chunkIoService.getWorldName() + "'", e);
+        }
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onChunkUnload(ChunkUnloadEvent event) {
+        RedisWorldStorageProvider provider = provider(event.getWorld().getName());
+        if (provider != null && provider.getChunkIoService() != null) {
+            provider.getChunkIoService().chunkUnloaded(event.getChunk().getX(), event.getChunk().getZ());
+        }
+    }
+
+    /**
+     * The storage of a loaded world, or null if it is not stored in redis.
+     */
+    private RedisWorldStorageProvider provider(String worldName) {
+        for (RedisWorldStorageProvider provider : providers) {
+            if (provider.getWorldName().equals(worldName)) {
+                return provider;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public boolean onCommand(CommandSender sender, Command command, String label, String[] args) {
+        if (args.length > 0 && args[0].equalsIgnoreCase("pregenerate")) {
+            return pregenerate(sender, args);
+        }
+        if (args.length > 0 && args[0].equalsIgnoreCase("drop")) {
+            return drop(sender, args);
+        }
+        if (args.length == 0 || !args[0].equalsIgnoreCase("stats")) {
+            return false;
+        }
+        if (args.length > 1 && args[1].equalsIgnoreCase("reset")) {
+            metrics.reset();
+            sender.sendMessage("gsredis statistics were reset.");
+            return true;
+        }
+        sender.sendMessage("gsredis operations (latency percentiles are within 6%):");
+        for (OperationMetrics operation : metrics.getOperations()) {
+            if (operation.getCount() > 0 || operation.getErrors() > 0) {
+                sender.sendMessage("  " + operation);
+            }
+        }
+        if (chunkCache != null) {
+            sender.sendMessage("Chunk cache: " + chunkCache);
+        }
+        for (RedisWorldStorageProvider provider : providers) {
+            if (provider.getChunkIoService() != null) {
+                sender.sendMessage("Chunk compression for '" + provider.getWorldName() + "': "
+                        + provider.getChunkIoService().getCompressionMetrics());
+            }
+        }
+        return true;
+    }
+
+    /**
+     * {@code pregenerate <world> <radius> [<chunk x> <chunk z>]}, around the world's spawn by default, or
+     * {@code pregenerate stop}.
+     */
+    private boolean pregenerate(CommandSender sender, String[] args) {
+        if (!sender.hasPermission("gsredis.pregenerate")) {
+            sender.sendMessage("You are not allowed to pre-generate chunks.");
+            return true;
+        }
+        if (args.length == 2 && args[1].equalsIgnoreCase("stop")) {
+            if (pregenerator != null) {
+                pregenerator.stop();
+                sender.sendMessage("Pre-generation stopped: " + pregenerator);
+            }
+            return true;
+        }
+        if (args.length != 3 && args.length != 5) {
+            return false;
+        }
+        if (pregenerator != null && !pregenerator.isDone()) {
+            sender.sendMessage("Already pre-generating: " + pregenerator);
+            return true;
+        }
+        World world = getServer().getWorld(args[1]);
+        RedisWorldStorageProvider provider = provider(args[1]);
+        if (world == null || provider == null || provider.getChunkIoService() == null) {
+            sender.sendMessage("'" + args[1] + "' is not a world stored in redis.");
+            return true;
+        }
+        int radius;
+        int centerX;
+        int centerZ;
+        try {
+            radius = Integer.parseInt(args[2]);
+            if (args.length == 5) {
+                centerX = Integer.parseInt(args[3]);
+                centerZ = Integer.parseInt(args[4]);
+            } else {
+                Location spawn = world.getSpawnLocation();
+                centerX = spawn.getBlockX() >> 4;
+                centerZ = spawn.getBlockZ() >> 4;
+            }
+        } catch (NumberFormatException e) {
+            return false;
+        }
+        pregenerator = new ChunkPregenerator(world, provider.getChunkIoService(), centerX, centerZ, radius,
+                config.getGeneration(), getLogger());
+        pregenerator.start(this);
+        sender.sendMessage("Pre-generating the chunks of '" + world.getName() + "' within " + radius
+                + " chunks of " + centerX + "," + centerZ + ", see the server log for progress.");
+        return true;
+    }
+
+    /**
+     * {@code drop <world>}, deletes the keys of an unloaded instance of a template.
+     */
+    private boolean drop(CommandSender sender, String[] args) {
+        if (!sender.hasPermission("gsredis.drop")) {
+            sender.sendMessage("You are not allowed to drop worlds.");
+            return true;
+        }
+        if (args.length != 2) {
+            return false;
+        }
+        String worldName = args[1];
+        if (router == null || config.getTemplate(worldName) == null) {
+            sender.sendMessage("'" + worldName + "' is not an instance of a template, only instances can be dropped.");
+            return true;
+        }
+        if (getServer().getWorld(worldName) != null) {
+            sender.sendMessage("'" + worldName + "' is loaded, unload it before dropping it.");
+            return true;
+        }
+        for (RedisWorldStorageProvider provider : providers) {
+            if (provider.getWorldName().equals(worldName)) {
+                if (provider.getJournal() != null) {
+                    provider.getJournal().discard();
+                }
+                if (provider.getLeases() != null) {
+                    provider.getLeases().close();
+                }
+                providers.remove(provider);
+            }
+        }
+        // writes left in the journal by the unloaded world would be replayed into the next instance of that name
+        File journal = RedisWorldStorageProvider.journalFile(config, worldName);
+        if (journal.exists() && !journal.delete()) {
+            getLogger().warning("Could not delete " + journal + ", its writes are replayed if '" + worldName
+                    + "' is created again");
+        }
+        getServer().getScheduler().runTaskAsynchronously(this, () -> {
+            try {
+                long deleted = new WorldKeyspace(config.getNamespace(), worldName, router).delete(Arrays.asList(
+                        config.getChunkService(worldName).getDatabaseIndex(), config.getPlayerData().getDatabaseIndex()));
+                if (chunkCache != null) {
+                    chunkCache.invalidateWorld(worldName);
+                    invalidationBus.publishWorld(worldName);
+                }
+                sender.sendMessage("Dropped '" + worldName + "', " + deleted + " keys were deleted.");
+            } catch (RuntimeException e) {
+                getLogger().log(Level.WARNING, "Could not drop '" + worldName + "'", e);
+                sender.sendMessage("Could not drop '" + worldName + "', see the server log.");
+            }
+        });
+        return true;
+    }
+
+    private RedisRouter createRouter() {
+        if (config.getMode() == RedisMode.STANDALONE) {
+            RedisConnections primary = new RedisConnections(config.getHost(), config.getPort(), config.getPassword(),
+                    config.getDefaultDatabaseIndex(), config.getPool(), metrics);
+            if (config.getReplicas().getEndpoints().isEmpty()) {
+                return primary;
+            }
+            List<RedisConnections> replicas = new ArrayList<>();
+            for (HostAndPort replica : parseNodes(config.getReplicas().getEndpoints())) {
+                replicas.add(new RedisConnections(replica.getHost(), replica.getPort(), config.getPassword(),
+                        config.getDefaultDatabaseIndex(), config.getPool(), metrics));
+            }
+            return new ReplicaRedisRouter(primary, replicas, config.getReplicas().getReadYourWritesMillis(),
+                    config.getReplicas().getProbeIntervalMillis(), getLogger());
+        }
+        if (!config.getReplicas().getEndpoints().isEmpty()) {
+            getLogger().warning("Replicas are only supported in standalone mode, reading from the primaries.");
+        }
+        List<RedisChunkServiceConfiguration> chunkServices = new ArrayList<>(config.getWorldChunkServices().values());
+        chunkServices.add(config.getChunkService());
+        for (RedisChunkServiceConfiguration chunkService : chunkServices) {
+            if (chunkService.isDeduplicate()) {
+                // section keys are shared by every chunk, the write script would span nodes
+                getLogger().warning("Section deduplication is not supported in " + config.getMode().name().toLowerCase()
+                        + " mode, disabling it.");
+                chunkService.setDeduplicate(false);
+            }
+        }
+        Set<HostAndPort> nodes = parseNodes(config.getNodes());
+        if (nodes.isEmpty()) {
+            nodes.add(new HostAndPort(config.getHost(), config.getPort()));
+        }
+        if (config.getMode() == RedisMode.CLUSTER) {
+            if (config.getDefaultDatabaseIndex() != 0 || config.getPlayerData().getDatabaseIndex() != 0
+                    || chunkServices.stream().anyMatch(chunkService -> chunkService.getDatabaseIndex() != 0)) {
+                getLogger().warning("Redis Cluster only has database 0, database indexes are ignored.");
+            }
+            return new ClusterRedisRouter(nodes, config.getPassword(), config.getPool(), metrics);
+        }
+        List<RedisConnections> shards = new ArrayList<>(nodes.size());
+        for (HostAndPort node : nodes) {
+            shards.add(new RedisConnections(node.getHost(), node.getPort(), config.getPassword(),
+                    config.getDefaultDatabaseIndex(), config.getPool(), metrics));
+        }
+        return new ShardedRedisRouter(shards);
+    }
+
+    private static Set<HostAndPort> parseNodes(List<String> endpoints) {
+        Set<HostAndPort> nodes = new LinkedHashSet<>();
+        for (String endpoint : endpoints) {
+            String[] hostAndPort = endpoint.split(":");
+            nodes.add(new HostAndPort(hostAndPort[0], hostAndPort.length > 1 ? Integer.parseInt(hostAndPort[1]) : 6379));
+        }
+        return nodes;
+    }
+
     private RedisPluginConfiguration readConfiguration(FileConfiguration config) {
         // basic config
         String namespace = config.getString("namespace", "gsredis_server_X");
+        RedisMode mode = RedisMode.valueOf(config.getString("mode", "standalone").toUpperCase());
         String host = config.getString("host", "localhost");
         int port = config.getInt("port", 6379);
+        List<String> nodes = config.getStringList("nodes");
         int defaultDatabaseIndex = config.getInt("defaultDatabaseIndex", 0);
         boolean usePassword = config.getBoolean("usePassword", false);
         String password = (config.contains("password") && usePassword)
@@ -51,9 +403,14 @@ public class RedisWorldPlugin extends JavaPlugin {
                 : null;
 
         // chunk service
-        int chunkServiceDatabaseIndex = config.getInt("chunkService.databaseIndex", defaultDatabaseIndex);
-        boolean chunkServiceReadOnly = config.getBoolean("chunkService.readOnly", false);
-        RedisChunkServiceConfiguration chunkServiceConfig = new RedisChunkServiceConfiguration(chunkServiceDatabaseIndex, chunkServiceReadOnly);
+        RedisChunkServiceConfiguration chunkServiceConfig = readChunkServiceConfiguration(
+                section(config, "chunkService"), defaultDatabaseIndex, null);
+        Map<String, RedisChunkServiceConfiguration> worldChunkServices = new HashMap<>();
+        ConfigurationSection worlds = section(config, "chunkService.worlds");
+        for (String worldName : worlds.getKeys(false)) {
+            worldChunkServices.put(worldName, readChunkServiceConfiguration(
+                    section(worlds, worldName), defaultDatabaseIndex, chunkServiceConfig));
+        }
 
         // player data service
         int playerDataServiceDatabaseIndex = config.getInt("playerDataService.databaseIndex", defaultDatabaseIndex);
@@ -62,19 +419,172 @@ public class RedisWorldPlugin extends JavaPlugin {
 
         return new RedisPluginConfiguration(
                 namespace,
+                mode,
                 host,
                 port,
+                nodes,
+                new RedisReplicaConfiguration(
+                        config.getStringList("replicas.endpoints"),
+                        config.getLong("replicas.readYourWritesMillis", 5000),
+                        config.getLong("replicas.probeIntervalSeconds", 5) * 1000),
                 defaultDatabaseIndex,
                 password,
+                new RedisPoolConfiguration(
+                        config.getInt("pool.maxTotal", 16),
+                        config.getInt("pool.maxIdle", 8),
+                        config.getInt("pool.minIdle", 1),
+                        config.getLong("pool.maxWaitMillis", 5000),
+                        config.getInt("pool.connectTimeoutMillis", 2000),
+                        config.getInt("pool.readTimeoutMillis", 2000),
+                        config.getLong("pool.idleTimeoutSeconds", 60) * 1000,
+                        config.getBoolean("pool.testWhileIdle", true),
+                        config.getInt("pool.asyncConnections", 0)),
                 chunkServiceConfig,
-                playerDataConfiguration
+                worldChunkServices,
+                playerDataConfiguration,
+                config.getInt("chunkService.deduplication.cacheSize", 4096),
+                new RedisCacheConfiguration(
+                        config.getBoolean("chunkService.cache.enabled", false),
+                        config.getLong("chunkService.cache.maxSizeMb", 128) * 1024 * 1024),
+                new RedisPrefetchConfiguration(
+                        config.getBoolean("chunkService.prefetch.enabled", false),
+                        config.getInt("chunkService.prefetch.radius", 2),
+                        config.getDouble("chunkService.prefetch.lookAheadSeconds", 2),
+                        config.getInt("chunkService.prefetch.maxInFlight", 256),
+                        config.getInt("chunkService.prefetch.batchSize", 32),
+                        Math.max(1, config.getInt("chunkService.prefetch.intervalTicks", 5))),
+                new RedisJournalConfiguration(
+                        config.getBoolean("journal.enabled", false),
+                        new File(getDataFolder(), config.getString("journal.directory", "journal")),
+                        config.getLong("journal.maxSizeMb", 256) * 1024 * 1024,
+                        config.getLong("journal.slowWriteMillis", 500),
+                        Math.max(1, config.getInt("journal.failureThreshold", 3)),
+                        config.getLong("journal.retryIntervalSeconds", 5) * 1000),
+                new RedisLeaseConfiguration(
+                        config.getBoolean("leases.enabled", false),
+                        Math.max(3, config.getLong("leases.ttlSeconds", 30)) * 1000,
+                        config.getLong("leases.idleReleaseSeconds", 300) * 1000),
+                new RedisGenerationConfiguration(
+                        config.getBoolean("generation.claims", false),
+                        config.getLong("generation.claimTtlSeconds", 30) * 1000,
+                        config.getLong("generation.waitMillis", 3000),
+                        Math.max(1, config.getInt("generation.pregenerate.threads", 4)),
+                        Math.max(1, config.getInt("generation.pregenerate.chunksPerTick", 4))),
+                readTemplates(section(config, "templates"))
         );
     }
 
+    /**
+     * Reads a chunk service section. Values missing from a per-world section fall back to {@code defaults}.
+     */
+    private RedisChunkServiceConfiguration readChunkServiceConfiguration(ConfigurationSection config, int defaultDatabaseIndex,
+                                                                        RedisChunkServiceConfiguration defaults) {
+        int databaseIndex = config.getInt("databaseIndex", defaults == null ? defaultDatabaseIndex : defaults.getDatabaseIndex());
+        boolean readOnly = config.getBoolean("readOnly", defaults != null && defaults.isReadOnly());
+        boolean atomicWrites = config.getBoolean("atomicWrites", defaults == null || defaults.isAtomicWrites());
+        ChunkFormat format = ChunkFormat.valueOf(config.getString("format",
+                defaults == null ? "blob" : defaults.getFormat().name()).toUpperCase());
+
+        RedisCompressionConfiguration defaultCompression = defaults == null ? null : defaults.getCompression();
+        CompressionCodec codec = CompressionCodec.valueOf(config.getString("compression.codec",
+                defaultCompression == null ? "lz4" : defaultCompression.getCodec().name()).toUpperCase());
+        int level = config.getInt("compression.level", defaultCompression == null ? 6 : defaultCompression.getLevel());
+        File dictionaryFile = defaultCompression == null ? null : defaultCompression.getDictionaryFile();
+        String dictionary = config.getString("compression.dictionary", "");
+        if (!dictionary.isEmpty()) {
+            dictionaryFile = new File(getDataFolder(), dictionary);
+        }
+        RedisCompressionConfiguration compression = new RedisCompressionConfiguration(codec, level, dictionaryFile);
+        boolean deduplicate = config.getBoolean("deduplication.enabled", defaults != null && defaults.isDeduplicate());
+
+        RedisWriteBehindConfiguration defaultWriteBehind = defaults == null ? null : defaults.getWriteBehind();
+        String whenFull = config.getString("writeBehind.whenFull",
+                defaultWriteBehind == null ? "block" : defaultWriteBehind.getWhenFull().name());
+        RedisWriteBehindConfiguration writeBehind = new RedisWriteBehindConfiguration(
+                config.getBoolean("writeBehind.enabled", defaultWriteBehind != null && defaultWriteBehind.isEnabled()),
+                config.getInt("writeBehind.queueSize", defaultWriteBehind == null ? 4096 : defaultWriteBehind.getQueueSize()),
+                config.getInt("writeBehind.batchSize", defaultWriteBehind == null ? 64 : defaultWriteBehind.getBatchSize()),
+                config.getInt("writeBehind.flushThreads", defaultWriteBehind == null ? 2 : defaultWriteBehind.getFlushThreads()),
+                whenFull.replace("_", "").equalsIgnoreCase("writeThrough")
+                        ? RedisWriteBehindConfiguration.FullPolicy.WRITE_THROUGH
+                        : RedisWriteBehindConfiguration.FullPolicy.BLOCK,
+                config.getInt("writeBehind.drainTimeoutSeconds",
+                        defaultWriteBehind == null ? 60 : defaultWriteBehind.getDrainTimeoutSeconds()));
+
+        boolean deltaWrites = config.getBoolean("deltaWrites", defaults == null || defaults.isDeltaWrites());
+
+        RedisSnapshotConfiguration defaultSnapshot = defaults == null ? null : defaults.getSnapshot();
+        File snapshotDirectory = defaultSnapshot == null
+                ? new File(getDataFolder(), "snapshots")
+                : defaultSnapshot.getDirectory();
+        if (config.contains("snapshot.directory")) {
+            snapshotDirectory = new File(getDataFolder(), config.getString("snapshot.directory"));
+        }
+        RedisSnapshotConfiguration snapshot = new RedisSnapshotConfiguration(
+                config.getBoolean("snapshot.enabled", defaultSnapshot != null && defaultSnapshot.isEnabled()),
+                snapshotDirectory);
+
+        return new RedisChunkServiceConfiguration(databaseIndex, readOnly, atomicWrites, format, compression, deduplicate,
+                deltaWrites, writeBehind, snapshot);
+    }
+
+    /**
+     * Reads the template of each world name pattern, in the order they are listed.
+     */
+    private static Map<String, String> readTemplates(ConfigurationSection config) {
+        Map<String, String> templates = new LinkedHashMap<>();
+        for (String pattern : config.getKeys(false)) {
+            templates.put(pattern, config.getString(pattern));
+        }
+        return templates;
+    }
+
+    private static ConfigurationSection section(ConfigurationSection config, String path) {
+        ConfigurationSection section = config.getConfigurationSection(path);
+        return section == null ? new MemoryConfiguration() : section;
+    }
+
+    /**
+     * A world was unloaded and its chunks saved. Once the plugin is disabled, the connections are closed after
+     * the last world.
+     */
+    private void unloaded(RedisWorldStorageProvider provider) {
+        providers.remove(provider);
+        if (provider.getChunkIoService() != null) {
+            getLogger().info("Chunk compression for '" + provider.getWorldName() + "': "
+                    + provider.getChunkIoService().getCompressionMetrics());
+        }
+        if (disabled && providers.isEmpty()) {
+            router.close();
+        }
+    }
+
+    /**
+     * Glowstone disables plugins before saving the players and unloading the worlds on shutdown: the worlds
+     * release their journal and leases when they are unloaded, and the connections stay open until the last
+     * one was saved.
+     */
     @Override
     public void onDisable() {
+        disabled = true;
         if (config.getChunkService().isReadOnly()) {
             getLogger().warning("Chunk Service is in read-only, changes will not be saved to Redis.");
         }
+        if (pregenerator != null) {
+            pregenerator.stop();
+        }
+        if (chunkCache != null) {
+            getLogger().info("Chunk cache: " + chunkCache);
+        }
+        if (prefetcher != null) {
+            prefetcher.stop();
+        }
+        if (invalidationBus != null) {
+            invalidationBus.stop();
+        }
+        if (router != null && providers.isEmpty()) {
+            router.close();
+        }
+        metrics.unregister();
     }
 }
@@ -0,0 +1,215 @@
+package ca.momoperes.gsredis.cache;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * An in-process cache of encoded chunks, shared by every world of this server and bounded by bytes.
+ * <p>
+ * Entries are kept in LRU order. A new chunk only displaces the least recently used one if it was
+ * requested at least as often recently (TinyLFU admission), so a scan over cold chunks, e.g. a
+ * player flying in a straight line, does not flush the chunks everyone keeps coming back to.
+ * <p>
+ * Reads from redis take a {@link #stamp(String, int, int) stamp} before fetching, and their result
+ * is dropped if the chunk was invalidated in the meantime.
+ */
+public class ChunkCache {
+    // approximate memory held by an entry on top of its data: map node, key and array headers
+    private static final int ENTRY_OVERHEAD = 96;
+    private static final int STRIPES = 1024;
+
+    private final long maxBytes;
+    private final LinkedHashMap<String, byte[]> entries = new LinkedHashMap<>(256, 0.75f, true);
+    private final FrequencySketch sketch;
+    private final long[] invalidations = new long[STRIPES];
+
+    private long bytes;
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long rejections;
+
+    public ChunkCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+        // assume ~8 KiB per compressed chunk to size the sketch
+        this.sketch = new FrequencySketch((int) Math.min(maxBytes / 8192, 1 << 20));
+    }
+
+    private static String key(String world, int x, int z) {
+        return world + ":" + x + "_" + z;
+    }
+
+    private static int stripe(String key) {
+        return key.hashCode() & (STRIPES - 1);
+    }
+
+    private static long weight(String key, byte[] blob) {
+        return blob.length + key.length() * 2L + ENTRY_OVERHEAD;
+    }
+
+    public synchronized byte[] get(String world, int x, int z) {
+        String key = key(world, x, z);
+        sketch.increment(key.hashCode());
+        byte[] blob = entries.get(key);
+        if (blob == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return blob;
+    }
+
+    /**
+     * Captures the invalidation state of a chunk before it is fetched from redis.
+     */
+    public synchronized long stamp(String world, int x, int z) {
+        return invalidations[stripe(key(world, x, z))];
+    }
+
+    /**
+     * Caches a chunk read from redis, unless it was invalidated since {@code stamp} was taken.
+     */
+    public synchronized void put(String world, int x, int z, byte[] blob, long stamp) {
+        String key = key(world, x, z);
+        if (invalidations[stripe(key)] != stamp) {
+            return;
+        }
+        put(key, blob, false);
+    }
+
+    /**
+     * Caches a chunk prefetched from redis because it is about to be read, it is always admitted
+     * unless it was invalidated since {@code stamp} was taken.
+     */
+    public synchronized void stage(String world, int x, int z, byte[] blob, long stamp) {
+        String key = key(world, x, z);
+        if (invalidations[stripe(key)] != stamp) {
+            return;
+        }
+        put(key, blob, true);
+    }
+
+    /**
+     * Caches a chunk written by this server, it is always admitted.
+     */
+    public synchronized void put(String world, int x, int z, byte[] blob) {
+        String key = key(world, x, z);
+        // reads of the previous version still in flight must not overwrite it
+        invalidations[stripe(key)]++;
+        put(key, blob, true);
+    }
+
+    /**
+     * Whether a chunk is cached, without counting as an access.
+     */
+    public synchronized boolean contains(String world, int x, int z) {
+        return entries.containsKey(key(world, x, z));
+    }
+
+    private void put(String key, byte[] blob, boolean force) {
+        long weight = weight(key, blob);
+        byte[] previous = entries.remove(key);
+        if (previous != null) {
+            bytes -= weight(key, previous);
+            force = true;
+        }
+        if (weight > maxBytes) {
+            return;
+        }
+        Iterator<Map.Entry<String, byte[]>> iterator = entries.entrySet().iterator();
+        boolean admitted = force;
+        while (bytes + weight > maxBytes && iterator.hasNext()) {
+            Map.Entry<String, byte[]> victim = iterator.next();
+            if (!admitted) {
+                if (sketch.frequency(victim.getKey().hashCode()) > sketch.frequency(key.hashCode())) {
+                    rejections++;
+                    return;
+                }
+                admitted = true;
+            }
+            bytes -= weight(victim.getKey(), victim.getValue());
+            iterator.remove();
+            evictions++;
+        }
+        entries.put(key, blob);
+        bytes += weight;
+    }
+
+    public synchronized void invalidate(String world, int x, int z) {
+        String key = key(world, x, z);
+        invalidations[stripe(key)]++;
+        byte[] previous = entries.remove(key);
+        if (previous != null) {
+            bytes -= weight(key, previous);
+        }
+    }
+
+    /**
+     * Drops every chunk of a world, e.g. once its keys were deleted.
+     */
+    public synchronized void invalidateWorld(String world) {
+        String prefix = world + ":";
+        for (int i = 0; i < invalidations.length; i++) {
+            invalidations[i]++;
+        }
+        Iterator<Map.Entry<String, byte[]>> iterator = entries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, byte[]> entry = iterator.next();
+            String key = entry.getKey();
+            // not the chunks of worlds whose name starts with "<world>:"
+            if (key.startsWith(prefix) && key.indexOf(':', prefix.length()) < 0) {
+                bytes -= weight(key, entry.getValue());
+                iterator.remove();
+            }
+        }
+    }
+
+    public synchronized void invalidateAll() {
+        for (int i = 0; i < invalidations.length; i++) {
+            invalidations[i]++;
+        }
+        entries.clear();
+        bytes = 0;
+    }
+
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public synchronized int getEntryCount() {
+        return entries.size();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    public synchronized long getRejections() {
+        return rejections;
+    }
+
+    public synchronized double getHitRate() {
+        long total = hits + misses;
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("%d chunks, %.1f/%.1f MiB, hit rate %.1f%% (%d hits, %d misses), %d evicted, %d rejected",
+                entries.size(), bytes / 1048576.0, maxBytes / 1048576.0, getHitRate() * 100,
+                hits, misses, evictions, rejections);
+    }
+}
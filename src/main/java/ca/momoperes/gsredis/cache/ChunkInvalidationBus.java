@@ -0,0 +1,152 @@
+package ca.momoperes.gsredis.cache;
+
+import ca.momoperes.gsredis.redis.AsyncRedisClient;
+import ca.momoperes.gsredis.redis.RedisRouter;
+import redis.clients.jedis.BinaryJedis;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPubSub;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.exceptions.JedisException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Keeps the chunk caches of every server sharing a namespace coherent.
+ * <p>
+ * Each chunk write publishes {@code <server id>|<world>|<x>|<z>} on {@code <namespace>:chunk-invalidations},
+ * and every other server drops that chunk from its cache; {@code <server id>|<world>} drops every chunk of a world
+ * whose keys were deleted. Messages published while a server is
+ * not subscribed are lost, so the whole cache is dropped whenever the subscription is (re-)established.
+ * Messages are published on the node of the chunk, so a sharded router is subscribed to on every node.
+ */
+public class ChunkInvalidationBus {
+    private static final long RECONNECT_DELAY_MILLIS = 1000;
+
+    private final String serverId = UUID.randomUUID().toString();
+    private final String channel;
+    private final RedisRouter router;
+    private final ChunkCache cache;
+    private final Logger logger;
+
+    private volatile boolean running;
+    private final List<JedisPubSub> subscribers = new CopyOnWriteArrayList<>();
+    private final List<Thread> threads = new ArrayList<>();
+
+    public ChunkInvalidationBus(String namespace, RedisRouter router, ChunkCache cache, Logger logger) {
+        this.channel = namespace + ":chunk-invalidations";
+        this.router = router;
+        this.cache = cache;
+        this.logger = logger;
+    }
+
+    public void start() {
+        running = true;
+        List<Supplier<Jedis>> nodes = router.getSubscriptionNodes();
+        for (int i = 0; i < nodes.size(); i++) {
+            Supplier<Jedis> node = nodes.get(i);
+            Thread thread = new Thread(() -> run(node), "gsredis-chunk-invalidations-" + i);
+            thread.setDaemon(true);
+            thread.start();
+            threads.add(thread);
+        }
+    }
+
+    public void stop() {
+        running = false;
+        for (JedisPubSub subscriber : subscribers) {
+            if (subscriber.isSubscribed()) {
+                subscriber.unsubscribe();
+            }
+        }
+        threads.forEach(Thread::interrupt);
+    }
+
+    private void run(Supplier<Jedis> node) {
+        while (running) {
+            // the subscription holds its connection until it ends
+            try (Jedis redis = node.get()) {
+                JedisPubSub subscriber = new JedisPubSub() {
+                    @Override
+                    public void onSubscribe(String channel, int subscribedChannels) {
+                        cache.invalidateAll();
+                    }
+
+                    @Override
+                    public void onMessage(String channel, String message) {
+                        handle(message);
+                    }
+                };
+                subscribers.add(subscriber);
+                try {
+                    redis.subscribe(subscriber, channel);
+                } finally {
+                    subscribers.remove(subscriber);
+                }
+            } catch (JedisException e) {
+                if (!running) {
+                    return;
+                }
+                logger.log(Level.WARNING, "Lost the chunk invalidation subscription, retrying", e);
+                try {
+                    Thread.sleep(RECONNECT_DELAY_MILLIS);
+                } catch (InterruptedException ignored) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private void handle(String message) {
+        String[] parts = message.split("\\|");
+        if (parts.length == 2 && !parts[0].equals(serverId)) {
+            cache.invalidateWorld(parts[1]);
+            return;
+        }
+        if (parts.length != 4 || parts[0].equals(serverId)) {
+            return;
+        }
+        try {
+            cache.invalidate(parts[1], Integer.parseInt(parts[2]), Integer.parseInt(parts[3]));
+        } catch (NumberFormatException e) {
+            logger.warning("Ignoring malformed chunk invalidation: " + message);
+        }
+    }
+
+    private String message(String world, int x, int z) {
+        return serverId + "|" + world + "|" + x + "|" + z;
+    }
+
+    public void publish(Pipeline pipeline, String world, int x, int z) {
+        pipeline.publish(channel, message(world, x, z));
+    }
+
+    public void publish(BinaryJedis redis, String world, int x, int z) {
+        redis.publish(channel.getBytes(), message(world, x, z).getBytes());
+    }
+
+    /**
+     * Drops every chunk of a world from the caches of the other servers.
+     */
+    public void publishWorld(String world) {
+        try (Jedis redis = router.getResource()) {
+            redis.publish(channel, serverId + "|" + world);
+        }
+    }
+
+    /**
+     * The PUBLISH command of a chunk write, for the non-blocking client.
+     */
+    public byte[][] publishCommand(String world, int x, int z) {
+        return AsyncRedisClient.command("PUBLISH", channel.getBytes(), message(world, x, z).getBytes());
+    }
+
+    public String getServerId() {
+        return serverId;
+    }
+}
@@ -0,0 +1,101 @@
+package ca.momoperes.gsredis.codec;
+
+import net.glowstone.chunk.GlowChunk;
+import net.glowstone.util.nbt.CompoundTag;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Converts chunks from and to the NBT of Anvil region files (the 1.12 {@code Level} compound).
+ * Sections keep their {@code Blocks}, {@code Add} and {@code Data} arrays, entities and block entities are not stored.
+ */
+public class AnvilChunkCodec {
+
+    /**
+     * @param root the root compound of the chunk, holding {@code Level}
+     */
+    public ChunkData decode(CompoundTag root) {
+        CompoundTag level = root.getCompound("Level");
+        SectionData[] sections = new SectionData[GlowChunk.SEC_COUNT];
+        for (CompoundTag sectionTag : level.getCompoundList("Sections")) {
+            int y = sectionTag.getByte("Y");
+            if (y < 0 || y >= sections.length) {
+                continue;
+            }
+            byte[] blocks = sectionTag.getByteArray("Blocks");
+            byte[] data = sectionTag.getByteArray("Data");
+            byte[] add = sectionTag.isByteArray("Add") ? sectionTag.getByteArray("Add") : null;
+            char[] types = new char[blocks.length];
+            for (int i = 0; i < types.length; i++) {
+                int shift = (i & 1) << 2;
+                int id = blocks[i] & 0xFF;
+                if (add != null) {
+                    id |= ((add[i >> 1] >> shift) & 0x0F) << 8;
+                }
+                types[i] = (char) (id << 4 | (data[i >> 1] >> shift) & 0x0F);
+            }
+            sections[y] = new SectionData(types, sectionTag.getByteArray("BlockLight"), sectionTag.getByteArray("SkyLight"));
+        }
+        return new ChunkData(level.getInt("xPos"), level.getInt("zPos"), sections, level.getBool("TerrainPopulated"),
+                level.isByteArray("Biomes") ? level.getByteArray("Biomes") : null,
+                level.isIntArray("HeightMap") ? level.getIntArray("HeightMap") : null);
+    }
+
+    /**
+     * @return the root compound of the chunk
+     */
+    public CompoundTag encode(ChunkData chunk) {
+        CompoundTag level = new CompoundTag();
+        level.putInt("xPos", chunk.getX());
+        level.putInt("zPos", chunk.getZ());
+        level.putLong("LastUpdate", 0);
+        level.putBool("TerrainPopulated", chunk.isPopulated());
+        level.putBool("LightPopulated", true);
+        if (chunk.getBiomes() != null) {
+            level.putByteArray("Biomes", chunk.getBiomes());
+        }
+        if (chunk.getHeightMap() != null) {
+            level.putIntArray("HeightMap", chunk.getHeightMap());
+        }
+
+        List<CompoundTag> sectionTags = new ArrayList<>();
+        SectionData[] sections = chunk.getSections();
+        for (int y = 0; y < sections.length; y++) {
+            SectionData section = sections[y];
+            if (section == null) {
+                continue;
+            }
+            char[] types = section.getTypes();
+            byte[] blocks = new byte[types.length];
+            byte[] data = new byte[types.length / 2];
+            byte[] add = section.hasExtendedTypes() ? new byte[types.length / 2] : null;
+            for (int i = 0; i < types.length; i++) {
+                int shift = (i & 1) << 2;
+                blocks[i] = (byte) (types[i] >> 4);
+                data[i >> 1] |= (types[i] & 0x0F) << shift;
+                if (add != null) {
+                    add[i >> 1] |= ((types[i] >> 12) & 0x0F) << shift;
+                }
+            }
+            CompoundTag sectionTag = new CompoundTag();
+            sectionTag.putByte("Y", y);
+            sectionTag.putByteArray("Blocks", blocks);
+            sectionTag.putByteArray("Data", data);
+            if (add != null) {
+                sectionTag.putByteArray("Add", add);
+            }
+            sectionTag.putByteArray("BlockLight", section.getBlockLight());
+            sectionTag.putByteArray("SkyLight", section.getSkyLight());
+            sectionTags.add(sectionTag);
+        }
+        level.putCompoundList("Sections", sectionTags);
+        level.putCompoundList("Entities", Collections.emptyList());
+        level.putCompoundList("TileEntities", Collections.emptyList());
+
+        CompoundTag root = new CompoundTag();
+        root.putCompound("Level", level);
+        return root;
+    }
+}
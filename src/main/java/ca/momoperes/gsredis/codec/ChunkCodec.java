@@ -0,0 +1,452 @@
+package ca.momoperes.gsredis.codec;
+
+import ca.momoperes.gsredis.metrics.CompressionMetrics;
+import net.glowstone.chunk.GlowChunk;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.Deflater;
+
+/**
+ * Encodes chunks into the single-blob gsredis chunk format.
+ * <p>
+ * Layout (big-endian):
+ * <pre>
+ * byte    version
+ * byte    flags (see FLAG_*)
+ * short   section presence bitmask, bit i = section i
+ * byte[]  biomes: 1 byte when uniform, 256 otherwise (only with FLAG_BIOMES)
+ * byte[]  height map: 256 bytes, or 256 shorts with FLAG_WIDE_HEIGHT_MAP (only with FLAG_HEIGHT_MAP)
+ * per present section, in ascending order:
+ *   byte  encoding
+ *   int   payload length
+ *   byte[] payload
+ * </pre>
+ * A raw section payload is a flags byte (bit 0: Add nibbles present), followed by the
+ * Blocks, Data, [Add], BlockLight and SkyLight arrays, as in the Anvil format.
+ * Compressed payloads hold the raw payload length as an int, then the compressed bytes.
+ * Reference payloads hold the SHA-256 of the raw payload; the section entry itself is stored elsewhere. Entries
+ * compressed with a deflate dictionary can only be decoded with it, so their hash covers the SHA-256 of the
+ * dictionary followed by the raw payload instead: codecs with different dictionaries never share them.
+ */
+public class ChunkCodec {
+    public static final byte VERSION = 1;
+
+    public static final int FLAG_POPULATED = 1;
+    public static final int FLAG_BIOMES = 1 << 1;
+    public static final int FLAG_UNIFORM_BIOMES = 1 << 2;
+    public static final int FLAG_HEIGHT_MAP = 1 << 3;
+    public static final int FLAG_WIDE_HEIGHT_MAP = 1 << 4;
+
+    public static final byte ENCODING_RAW = 0;
+    public static final byte ENCODING_REFERENCE = 0x7F;
+    public static final int HASH_LENGTH = 32;
+
+    private static final int SECTION_FLAG_EXTENDED_TYPES = 1;
+    private static final int COLUMN_COUNT = 256;
+    private static final int MAX_SECTION_PAYLOAD = 1 + SectionData.BLOCK_COUNT + SectionData.NIBBLE_COUNT * 4;
+    private static final int MAX_CHUNK_SIZE = 4 + COLUMN_COUNT + COLUMN_COUNT * 2
+            + GlowChunk.SEC_COUNT * (5 + MAX_SECTION_PAYLOAD);
+
+    private static final ThreadLocal<ByteBuffer> ENCODE_BUFFER =
+            ThreadLocal.withInitial(() -> ByteBuffer.allocate(MAX_CHUNK_SIZE));
+    private static final ThreadLocal<ByteBuffer> SECTION_BUFFER =
+            ThreadLocal.withInitial(() -> ByteBuffer.allocate(MAX_SECTION_PAYLOAD));
+    private static final ThreadLocal<byte[]> COMPRESSED_BUFFER =
+            ThreadLocal.withInitial(() -> new byte[MAX_SECTION_PAYLOAD * 2]);
+    private static final ThreadLocal<ByteBuffer> ENTRY_BUFFER =
+            ThreadLocal.withInitial(() -> ByteBuffer.allocate(5 + MAX_SECTION_PAYLOAD));
+    private static final ThreadLocal<MessageDigest> DIGEST = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+
+    private final SectionCompression compression;
+    private final SectionCompression deflate;
+    private final SectionCompression lz4;
+    // hashed before section payloads, null unless entries are compressed with a dictionary
+    private final byte[] dictionaryHash;
+    private final CompressionMetrics metrics;
+
+    public ChunkCodec() {
+        this(null, null, new CompressionMetrics());
+    }
+
+    /**
+     * @param compression the compression used for writes, or null to store raw sections
+     * @param dictionary  the preset deflate dictionary, or null
+     * @param metrics     the counters to record compression with
+     */
+    public ChunkCodec(SectionCompression compression, byte[] dictionary, CompressionMetrics metrics) {
+        this.compression = compression;
+        this.deflate = compression instanceof DeflateSectionCompression
+                ? compression
+                : new DeflateSectionCompression(Deflater.DEFAULT_COMPRESSION, dictionary);
+        this.lz4 = compression instanceof Lz4SectionCompression ? compression : new Lz4SectionCompression();
+        this.dictionaryHash = compression instanceof DeflateSectionCompression && dictionary != null
+                ? DIGEST.get().digest(dictionary)
+                : null;
+        this.metrics = metrics;
+    }
+
+    public CompressionMetrics getMetrics() {
+        return metrics;
+    }
+
+    public byte[] encode(ChunkData chunk) {
+        return encode(chunk, (SectionSink) null);
+    }
+
+    /**
+     * @param sink receives section entries, which are replaced by references in the chunk; null to store them inline
+     */
+    public byte[] encode(ChunkData chunk, SectionSink sink) {
+        ByteBuffer buffer = ENCODE_BUFFER.get();
+        buffer.clear();
+        encode(chunk, buffer, sink);
+        return Arrays.copyOf(buffer.array(), buffer.position());
+    }
+
+    public void encode(ChunkData chunk, ByteBuffer buffer, SectionSink sink) {
+        byte[] biomes = chunk.getBiomes();
+        if (biomes != null && biomes.length != COLUMN_COUNT) {
+            biomes = null;
+        }
+        int[] heightMap = chunk.getHeightMap();
+        if (heightMap != null && heightMap.length != COLUMN_COUNT) {
+            heightMap = null;
+        }
+        SectionData[] sections = chunk.getSections();
+
+        int flags = 0;
+        if (chunk.isPopulated()) {
+            flags |= FLAG_POPULATED;
+        }
+        if (biomes != null) {
+            flags |= FLAG_BIOMES;
+            if (isUniform(biomes)) {
+                flags |= FLAG_UNIFORM_BIOMES;
+            }
+        }
+        if (heightMap != null) {
+            flags |= FLAG_HEIGHT_MAP;
+            for (int height : heightMap) {
+                if (height < 0 || height > 0xFF) {
+                    flags |= FLAG_WIDE_HEIGHT_MAP;
+                    break;
+                }
+            }
+        }
+        int mask = 0;
+        for (int i = 0; i < sections.length; i++) {
+            if (sections[i] != null) {
+                mask |= 1 << i;
+            }
+        }
+
+        buffer.put(VERSION);
+        buffer.put((byte) flags);
+        buffer.putShort((short) mask);
+        if ((flags & FLAG_UNIFORM_BIOMES) != 0) {
+            buffer.put(biomes[0]);
+        } else if (biomes != null) {
+            buffer.put(biomes);
+        }
+        if ((flags & FLAG_WIDE_HEIGHT_MAP) != 0) {
+            for (int height : heightMap) {
+                buffer.putShort((short) height);
+            }
+        } else if (heightMap != null) {
+            for (int height : heightMap) {
+                buffer.put((byte) height);
+            }
+        }
+        for (SectionData section : sections) {
+            if (section != null) {
+                writeSection(section, buffer, sink);
+            }
+        }
+    }
+
+    protected void writeSection(SectionData section, ByteBuffer buffer, SectionSink sink) {
+        long start = System.nanoTime();
+        ByteBuffer raw = SECTION_BUFFER.get();
+        raw.clear();
+        writeSectionPayload(section, raw);
+        if (sink == null) {
+            writeEntry(raw, buffer, start);
+            return;
+        }
+
+        MessageDigest digest = DIGEST.get();
+        if (dictionaryHash != null) {
+            digest.update(dictionaryHash);
+        }
+        digest.update(raw.array(), 0, raw.position());
+        byte[] hash = digest.digest();
+        String hex = toHex(hash);
+        if (sink.needsEntry(hex)) {
+            ByteBuffer entry = ENTRY_BUFFER.get();
+            entry.clear();
+            writeEntry(raw, entry, start);
+            sink.accept(hex, Arrays.copyOf(entry.array(), entry.position()));
+        }
+        buffer.put(ENCODING_REFERENCE);
+        buffer.putInt(HASH_LENGTH);
+        buffer.put(hash);
+    }
+
+    private void writeEntry(ByteBuffer raw, ByteBuffer buffer, long start) {
+        int rawLength = raw.position();
+        if (compression != null) {
+            byte[] compressed = COMPRESSED_BUFFER.get();
+            int compressedLength = compression.compress(raw.array(), 0, rawLength, compressed, 0);
+            if (compressedLength + 4 < rawLength) {
+                buffer.put(compression.getEncoding());
+                buffer.putInt(compressedLength + 4);
+                buffer.putInt(rawLength);
+                buffer.put(compressed, 0, compressedLength);
+                metrics.recordEncode(rawLength, compressedLength + 4, System.nanoTime() - start);
+                return;
+            }
+            // incompressible, store it as-is
+            metrics.recordEncode(rawLength, rawLength, System.nanoTime() - start);
+        }
+        buffer.put(ENCODING_RAW);
+        buffer.putInt(rawLength);
+        buffer.put(raw.array(), 0, rawLength);
+    }
+
+    public ChunkData decode(int x, int z, byte[] bytes) throws IOException {
+        return decode(x, z, ByteBuffer.wrap(bytes), null);
+    }
+
+    public ChunkData decode(int x, int z, ByteBuffer buffer) throws IOException {
+        return decode(x, z, buffer, null);
+    }
+
+    /**
+     * @param source resolves section references, may be null when the chunk has none
+     */
+    public ChunkData decode(int x, int z, ByteBuffer buffer, SectionSource source) throws IOException {
+        byte version = buffer.get();
+        if (version != VERSION) {
+            throw new IOException("Unsupported chunk format version " + version + " for chunk " + x + "," + z);
+        }
+        int flags = buffer.get() & 0xFF;
+        int mask = buffer.getShort() & 0xFFFF;
+
+        byte[] biomes = null;
+        if ((flags & FLAG_UNIFORM_BIOMES) != 0) {
+            biomes = new byte[COLUMN_COUNT];
+            Arrays.fill(biomes, buffer.get());
+        } else if ((flags & FLAG_BIOMES) != 0) {
+            biomes = new byte[COLUMN_COUNT];
+            buffer.get(biomes);
+        }
+
+        int[] heightMap = null;
+        if ((flags & FLAG_HEIGHT_MAP) != 0) {
+            heightMap = new int[COLUMN_COUNT];
+            boolean wide = (flags & FLAG_WIDE_HEIGHT_MAP) != 0;
+            for (int i = 0; i < COLUMN_COUNT; i++) {
+                heightMap[i] = wide ? buffer.getShort() : buffer.get() & 0xFF;
+            }
+        }
+
+        SectionData[] sections = new SectionData[GlowChunk.SEC_COUNT];
+        for (int i = 0; i < sections.length; i++) {
+            if ((mask & (1 << i)) != 0) {
+                sections[i] = readSection(buffer, source);
+            }
+        }
+        return new ChunkData(x, z, sections, (flags & FLAG_POPULATED) != 0, biomes, heightMap);
+    }
+
+    /**
+     * Lists the section references (hex SHA-256) of an encoded chunk.
+     */
+    public static List<String> references(ByteBuffer buffer) {
+        buffer = buffer.duplicate();
+        buffer.get();
+        int flags = buffer.get() & 0xFF;
+        int mask = buffer.getShort() & 0xFFFF;
+        int skip = 0;
+        if ((flags & FLAG_UNIFORM_BIOMES) != 0) {
+            skip += 1;
+        } else if ((flags & FLAG_BIOMES) != 0) {
+            skip += COLUMN_COUNT;
+        }
+        if ((flags & FLAG_HEIGHT_MAP) != 0) {
+            skip += (flags & FLAG_WIDE_HEIGHT_MAP) != 0 ? COLUMN_COUNT * 2 : COLUMN_COUNT;
+        }
+        buffer.position(buffer.position() + skip);
+
+        List<String> references = new ArrayList<>(Integer.bitCount(mask));
+        for (int i = 0; i < Integer.bitCount(mask); i++) {
+            byte encoding = buffer.get();
+            int length = buffer.getInt();
+            if (encoding == ENCODING_REFERENCE) {
+                byte[] hash = new byte[HASH_LENGTH];
+                buffer.get(hash);
+                references.add(toHex(hash));
+            } else {
+                buffer.position(buffer.position() + length);
+            }
+        }
+        return references;
+    }
+
+    /**
+     * Decodes a section entry, as passed to a {@link SectionSink}.
+     */
+    public SectionData decodeEntry(byte[] entry) throws IOException {
+        return readSection(ByteBuffer.wrap(entry), null);
+    }
+
+    protected SectionData readSection(ByteBuffer buffer, SectionSource source) throws IOException {
+        byte encoding = buffer.get();
+        int length = buffer.getInt();
+        int end = buffer.position() + length;
+        SectionData section;
+        if (encoding == ENCODING_REFERENCE) {
+            byte[] hash = new byte[HASH_LENGTH];
+            buffer.get(hash);
+            String hex = toHex(hash);
+            byte[] entry = source == null ? null : source.get(hex);
+            if (entry == null) {
+                throw new IOException("Missing referenced section " + hex);
+            }
+            section = decodeEntry(entry);
+        } else if (encoding == ENCODING_RAW) {
+            section = readSectionPayload(buffer);
+        } else {
+            long start = System.nanoTime();
+            SectionCompression decompressor = decompressor(encoding);
+            int rawLength = buffer.getInt();
+            int compressedLength = length - 4;
+            byte[] compressed;
+            int offset;
+            if (buffer.hasArray()) {
+                compressed = buffer.array();
+                offset = buffer.arrayOffset() + buffer.position();
+            } else {
+                // e.g. a memory-mapped buffer
+                compressed = COMPRESSED_BUFFER.get();
+                offset = 0;
+                buffer.get(compressed, 0, compressedLength);
+            }
+            ByteBuffer raw = SECTION_BUFFER.get();
+            raw.clear();
+            decompressor.decompress(compressed, offset, compressedLength, raw.array(), rawLength);
+            raw.limit(rawLength);
+            section = readSectionPayload(raw);
+            metrics.recordDecode(System.nanoTime() - start);
+        }
+        buffer.position(end);
+        return section;
+    }
+
+    private SectionCompression decompressor(byte encoding) throws IOException {
+        switch (encoding) {
+            case DeflateSectionCompression.ENCODING:
+                return deflate;
+            case Lz4SectionCompression.ENCODING:
+                return lz4;
+            default:
+                throw new IOException("Unsupported section encoding " + encoding);
+        }
+    }
+
+    public static void writeSectionPayload(SectionData section, ByteBuffer buffer) {
+        char[] types = section.getTypes();
+        boolean extended = section.hasExtendedTypes();
+        buffer.put((byte) (extended ? SECTION_FLAG_EXTENDED_TYPES : 0));
+        for (char type : types) {
+            buffer.put((byte) (type >> 4));
+        }
+        for (int i = 0; i < types.length; i += 2) {
+            buffer.put((byte) ((types[i] & 0x0F) | (types[i + 1] & 0x0F) << 4));
+        }
+        if (extended) {
+            for (int i = 0; i < types.length; i += 2) {
+                buffer.put((byte) ((types[i] >> 12) & 0x0F | ((types[i + 1] >> 12) & 0x0F) << 4));
+            }
+        }
+        buffer.put(section.getBlockLight());
+        buffer.put(section.getSkyLight());
+    }
+
+    public static SectionData readSectionPayload(ByteBuffer buffer) {
+        boolean extended = (buffer.get() & SECTION_FLAG_EXTENDED_TYPES) != 0;
+        char[] types = new char[SectionData.BLOCK_COUNT];
+        int blocks = buffer.position();
+        int data = blocks + SectionData.BLOCK_COUNT;
+        int add = data + SectionData.NIBBLE_COUNT;
+        for (int i = 0; i < types.length; i++) {
+            int shift = (i & 1) << 2;
+            int type = (buffer.get(blocks + i) & 0xFF) << 4
+                    | (buffer.get(data + (i >> 1)) >> shift) & 0x0F;
+            if (extended) {
+                type |= ((buffer.get(add + (i >> 1)) >> shift) & 0x0F) << 12;
+            }
+            types[i] = (char) type;
+        }
+        buffer.position(extended ? add + SectionData.NIBBLE_COUNT : add);
+        byte[] blockLight = new byte[SectionData.NIBBLE_COUNT];
+        byte[] skyLight = new byte[SectionData.NIBBLE_COUNT];
+        buffer.get(blockLight);
+        buffer.get(skyLight);
+        return new SectionData(types, blockLight, skyLight);
+    }
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    public static String toHex(byte[] bytes) {
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[i * 2] = HEX[(bytes[i] >> 4) & 0x0F];
+            chars[i * 2 + 1] = HEX[bytes[i] & 0x0F];
+        }
+        return new String(chars);
+    }
+
+    private static boolean isUniform(byte[] array) {
+        for (int i = 1; i < array.length; i++) {
+            if (array[i] != array[0]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Receives section entries replaced by references while encoding.
+     */
+    public interface SectionSink {
+        /**
+         * Whether the entry of the given section must be encoded, false if it is known to be stored already.
+         */
+        boolean needsEntry(String hash);
+
+        void accept(String hash, byte[] entry);
+    }
+
+    /**
+     * Resolves section references while decoding.
+     */
+    public interface SectionSource {
+        /**
+         * @return the section entry, or null if unknown
+         */
+        byte[] get(String hash);
+    }
+}
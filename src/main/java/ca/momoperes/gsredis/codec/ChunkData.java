@@ -0,0 +1,123 @@
+package ca.momoperes.gsredis.codec;
+
+import net.glowstone.chunk.ChunkSection;
+import net.glowstone.chunk.GlowChunk;
+import net.glowstone.chunk.GlowChunkSnapshot;
+
+/**
+ * A storage-independent copy of the chunk data persisted by gsredis.
+ */
+public class ChunkData {
+    private final int x;
+    private final int z;
+    private final SectionData[] sections;
+    private boolean populated;
+    private byte[] biomes;
+    private int[] heightMap;
+    private long[] hashes;
+
+    public ChunkData(int x, int z, SectionData[] sections, boolean populated, byte[] biomes, int[] heightMap) {
+        this.x = x;
+        this.z = z;
+        this.sections = sections;
+        this.populated = populated;
+        this.biomes = biomes;
+        this.heightMap = heightMap;
+    }
+
+    public static ChunkData fromChunk(GlowChunk chunk) {
+        GlowChunkSnapshot snapshot = chunk.getChunkSnapshot(true, true, false);
+        ChunkSection[] rawSections = snapshot.getRawSections();
+        SectionData[] sections = new SectionData[GlowChunk.SEC_COUNT];
+        for (int i = 0; i < sections.length && i < rawSections.length; i++) {
+            if (rawSections[i] != null) {
+                sections[i] = SectionData.fromSection(rawSections[i]);
+            }
+        }
+        return new ChunkData(chunk.getX(), chunk.getZ(), sections, chunk.isPopulated(),
+                snapshot.getRawBiomes(), snapshot.getRawHeightmap());
+    }
+
+    /**
+     * A deep copy, so the copy can be handed to a live chunk while this one is still being written.
+     */
+    public ChunkData copy() {
+        SectionData[] sectionsCopy = new SectionData[sections.length];
+        for (int i = 0; i < sections.length; i++) {
+            if (sections[i] != null) {
+                sectionsCopy[i] = sections[i].copy();
+            }
+        }
+        return new ChunkData(x, z, sectionsCopy, populated,
+                biomes == null ? null : biomes.clone(),
+                heightMap == null ? null : heightMap.clone());
+    }
+
+    public void applyTo(GlowChunk chunk) {
+        ChunkSection[] chunkSections = new ChunkSection[GlowChunk.SEC_COUNT];
+        for (int i = 0; i < chunkSections.length; i++) {
+            if (sections[i] != null) {
+                chunkSections[i] = sections[i].toSection();
+            }
+        }
+        chunk.initializeSections(chunkSections);
+        chunk.setPopulated(populated);
+        if (biomes != null) {
+            chunk.setBiomes(biomes);
+        }
+        if (heightMap != null) {
+            chunk.setHeightMap(heightMap);
+        } else {
+            chunk.automaticHeightMap();
+        }
+    }
+
+    public int getX() {
+        return x;
+    }
+
+    public int getZ() {
+        return z;
+    }
+
+    public SectionData[] getSections() {
+        return sections;
+    }
+
+    public boolean isPopulated() {
+        return populated;
+    }
+
+    public void setPopulated(boolean populated) {
+        this.populated = populated;
+        this.hashes = null;
+    }
+
+    public byte[] getBiomes() {
+        return biomes;
+    }
+
+    public void setBiomes(byte[] biomes) {
+        this.biomes = biomes;
+        this.hashes = null;
+    }
+
+    public int[] getHeightMap() {
+        return heightMap;
+    }
+
+    public void setHeightMap(int[] heightMap) {
+        this.heightMap = heightMap;
+        this.hashes = null;
+    }
+
+    /**
+     * The {@link ChunkHashes} of this chunk, computed once.
+     */
+    public long[] getHashes() {
+        if (hashes == null) {
+            hashes = ChunkHashes.of(this);
+        }
+        return hashes;
+    }
+}
@@ -0,0 +1,67 @@
+package ca.momoperes.gsredis.codec;
+
+import net.glowstone.chunk.GlowChunk;
+
+/**
+ * Cheap 64-bit content hashes of a chunk's sections and metadata, used to find what changed since a chunk
+ * was loaded or saved. Index {@code i < 16} holds the hash of section {@code i} (0 when absent),
+ * {@link #METADATA} the hash of the populated flag, biomes and height map.
+ */
+public final class ChunkHashes {
+    public static final int METADATA = GlowChunk.SEC_COUNT;
+    public static final int LENGTH = METADATA + 1;
+
+    // 64-bit FNV-1a
+    private static final long OFFSET_BASIS = 0xCBF29CE484222325L;
+    private static final long PRIME = 0x100000001B3L;
+
+    private ChunkHashes() {
+    }
+
+    public static long[] of(ChunkData data) {
+        long[] hashes = new long[LENGTH];
+        SectionData[] sections = data.getSections();
+        for (int i = 0; i < sections.length && i < METADATA; i++) {
+            if (sections[i] != null) {
+                hashes[i] = hash(sections[i]);
+            }
+        }
+        long hash = OFFSET_BASIS;
+        hash = (hash ^ (data.isPopulated() ? 1 : 2)) * PRIME;
+        if (data.getBiomes() != null) {
+            hash = hash(hash, data.getBiomes());
+        }
+        if (data.getHeightMap() != null) {
+            for (int height : data.getHeightMap()) {
+                hash = (hash ^ height) * PRIME;
+            }
+        }
+        hashes[METADATA] = mix(hash);
+        return hashes;
+    }
+
+    private static long hash(SectionData section) {
+        long hash = OFFSET_BASIS;
+        for (char type : section.getTypes()) {
+            hash = (hash ^ type) * PRIME;
+        }
+        hash = hash(hash, section.getBlockLight());
+        hash = hash(hash, section.getSkyLight());
+        // never 0, which marks an absent section
+        return mix(hash) | 1;
+    }
+
+    private static long hash(long hash, byte[] bytes) {
+        for (byte b : bytes) {
+            hash = (hash ^ (b & 0xFF)) * PRIME;
+        }
+        return hash;
+    }
+
+    private static long mix(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xFF51AFD7ED558CCDL;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
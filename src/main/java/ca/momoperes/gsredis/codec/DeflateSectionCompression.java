@@ -0,0 +1,73 @@
+package ca.momoperes.gsredis.codec;
+
+import java.io.IOException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+public class DeflateSectionCompression implements SectionCompression {
+    public static final byte ENCODING = 1;
+
+    private final byte[] dictionary;
+    // (de)compressors hold native memory, keep one per thread instead of one per section
+    private final ThreadLocal<Deflater> deflater;
+    private final ThreadLocal<Inflater> inflater = ThreadLocal.withInitial(Inflater::new);
+
+    public DeflateSectionCompression(int level, byte[] dictionary) {
+        this.dictionary = dictionary;
+        this.deflater = ThreadLocal.withInitial(() -> new Deflater(level));
+    }
+
+    @Override
+    public byte getEncoding() {
+        return ENCODING;
+    }
+
+    @Override
+    public int maxCompressedLength(int length) {
+        // zlib's deflateBound, with headroom for the header and dictionary id
+        return length + (length >> 12) + (length >> 14) + (length >> 25) + 64;
+    }
+
+    @Override
+    public int compress(byte[] source, int offset, int length, byte[] target, int targetOffset) {
+        Deflater deflater = this.deflater.get();
+        deflater.reset();
+        if (dictionary != null) {
+            deflater.setDictionary(dictionary);
+        }
+        deflater.setInput(source, offset, length);
+        deflater.finish();
+        int written = deflater.deflate(target, targetOffset, maxCompressedLength(length));
+        if (!deflater.finished()) {
+            throw new IllegalStateException("Deflate output exceeded its bound");
+        }
+        return written;
+    }
+
+    @Override
+    public void decompress(byte[] source, int offset, int length, byte[] target, int rawLength) throws IOException {
+        Inflater inflater = this.inflater.get();
+        inflater.reset();
+        inflater.setInput(source, offset, length);
+        try {
+            int read = 0;
+            while (read < rawLength) {
+                int count = inflater.inflate(target, read, rawLength - read);
+                if (count == 0) {
+                    if (inflater.needsDictionary()) {
+                        if (dictionary == null) {
+                            throw new IOException("Section was compressed with a dictionary, but none is configured");
+                        }
+                        inflater.setDictionary(dictionary);
+                    } else if (inflater.finished() || inflater.needsInput()) {
+                        throw new IOException("Truncated deflate section");
+                    }
+                }
+                read += count;
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt deflate section", e);
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package ca.momoperes.gsredis.codec;
+
+import net.glowstone.chunk.GlowChunk;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * Reads and writes the original gsredis layout: a list of 16 section blobs
+ * and a hash holding TerrainPopulated, Biomes and HeightMap.
+ */
+public class LegacyChunkCodec {
+
+    public ChunkData decode(int x, int z, List<byte[]> sections,
+                            byte[] terrainPopulated, byte[] biomes, byte[] heightMapRaw) throws IOException {
+        SectionData[] chunkSections = new SectionData[GlowChunk.SEC_COUNT];
+        for (int i = 0; i < chunkSections.length && i < sections.size(); i++) {
+            try {
+                chunkSections[i] = decodeSection(ByteBuffer.wrap(sections.get(i)));
+            } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+                throw new EOFException("Truncated section " + i + " of chunk " + x + "," + z);
+            }
+        }
+
+        boolean populated = terrainPopulated != null && terrainPopulated.length > 0 && terrainPopulated[0] == 1;
+        int[] heightMap = null;
+        if (heightMapRaw != null) {
+            heightMap = new int[heightMapRaw.length / 4];
+            ByteBuffer.wrap(heightMapRaw).asIntBuffer().get(heightMap);
+        }
+        return new ChunkData(x, z, chunkSections, populated, biomes, heightMap);
+    }
+
+    public byte[][] encodeSections(ChunkData chunk) {
+        SectionData[] sections = chunk.getSections();
+        byte[][] encoded = new byte[sections.length][];
+        for (int i = 0; i < sections.length; i++) {
+            encoded[i] = encodeSection(sections[i]);
+        }
+        return encoded;
+    }
+
+    public byte[] encodeHeightMap(int[] heightMap) {
+        ByteBuffer byteBuffer = ByteBuffer.allocate(heightMap.length * 4);
+        byteBuffer.asIntBuffer().put(heightMap);
+        return byteBuffer.array();
+    }
+
+    /**
+     * Encodes a section into a single array of its exact size, without intermediate streams or arrays.
+     */
+    public byte[] encodeSection(SectionData section) {
+        if (section == null) {
+            return new byte[]{0};
+        }
+        char[] types = section.getTypes();
+        byte[] blockLight = section.getBlockLight();
+        byte[] skyLight = section.getSkyLight();
+        boolean extended = section.hasExtendedTypes();
+        int nibbles = types.length / 2;
+        ByteBuffer buffer = ByteBuffer.wrap(new byte[2 + 16 + types.length + nibbles + blockLight.length + skyLight.length
+                + (extended ? 4 + nibbles : 0)]);
+        buffer.put((byte) 1);
+        buffer.putInt(types.length);
+        for (char type : types) {
+            buffer.put((byte) (type >> 4));
+        }
+        buffer.putInt(nibbles);
+        for (int i = 0; i < types.length; i += 2) {
+            buffer.put((byte) (types[i] & 0x0F | (types[i + 1] & 0x0F) << 4));
+        }
+        buffer.putInt(blockLight.length).put(blockLight);
+        buffer.putInt(skyLight.length).put(skyLight);
+        buffer.put((byte) (extended ? 1 : 0));
+        if (extended) {
+            buffer.putInt(nibbles);
+            for (int i = 0; i < types.length; i += 2) {
+                buffer.put((byte) ((types[i] >> 12) & 0x0F | ((types[i + 1] >> 12) & 0x0F) << 4));
+            }
+        }
+        return buffer.array();
+    }
+
+    private static SectionData decodeSection(ByteBuffer buffer) {
+        if (buffer.get() == 0) {
+            return null;
+        }
+        // block ids and data are read in place, only the light arrays are kept
+        byte[] bytes = buffer.array();
+        int typesOffset = buffer.position() + 4;
+        char[] types = new char[skipArray(buffer)];
+        int dataOffset = buffer.position() + 4;
+        skipArray(buffer);
+        byte[] blockLight = readByteArray(buffer);
+        byte[] skyLight = readByteArray(buffer);
+        int extOffset = -1;
+        if (buffer.get() != 0) {
+            extOffset = buffer.position() + 4;
+            skipArray(buffer);
+        }
+
+        for (int j = 0; j < types.length; j++) {
+            int shift = (j & 1) << 2;
+            int type = (bytes[typesOffset + j] & 0xFF) << 4 | (bytes[dataOffset + (j >> 1)] >> shift) & 0x0F;
+            if (extOffset >= 0) {
+                type |= ((bytes[extOffset + (j >> 1)] >> shift) & 0x0F) << 12;
+            }
+            types[j] = (char) type;
+        }
+        return new SectionData(types, blockLight, skyLight);
+    }
+
+    /**
+     * @return the length of the skipped array
+     */
+    private static int skipArray(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        buffer.position(buffer.position() + length);
+        return length;
+    }
+
+    private static byte[] readByteArray(ByteBuffer buffer) {
+        byte[] arr = new byte[buffer.getInt()];
+        buffer.get(arr);
+        return arr;
+    }
+}
@@ -0,0 +1,48 @@
+package ca.momoperes.gsredis.codec;
+
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Exception;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4FastDecompressor;
+
+import java.io.IOException;
+
+public class Lz4SectionCompression implements SectionCompression {
+    public static final byte ENCODING = 2;
+
+    private final LZ4Compressor compressor;
+    private final LZ4FastDecompressor decompressor;
+
+    public Lz4SectionCompression() {
+        LZ4Factory factory = LZ4Factory.fastestInstance();
+        this.compressor = factory.fastCompressor();
+        this.decompressor = factory.fastDecompressor();
+    }
+
+    @Override
+    public byte getEncoding() {
+        return ENCODING;
+    }
+
+    @Override
+    public int maxCompressedLength(int length) {
+        return compressor.maxCompressedLength(length);
+    }
+
+    @Override
+    public int compress(byte[] source, int offset, int length, byte[] target, int targetOffset) {
+        return compressor.compress(source, offset, length, target, targetOffset, maxCompressedLength(length));
+    }
+
+    @Override
+    public void decompress(byte[] source, int offset, int length, byte[] target, int rawLength) throws IOException {
+        try {
+            int read = decompressor.decompress(source, offset, target, 0, rawLength);
+            if (read != length) {
+                throw new IOException("Corrupt LZ4 section: read " + read + " of " + length + " bytes");
+            }
+        } catch (LZ4Exception e) {
+            throw new IOException("Corrupt LZ4 section", e);
+        }
+    }
+}
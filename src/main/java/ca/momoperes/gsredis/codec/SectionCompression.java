@@ -0,0 +1,26 @@
+package ca.momoperes.gsredis.codec;
+
+import java.io.IOException;
+
+/**
+ * A compression stage applied to raw section payloads.
+ */
+public interface SectionCompression {
+
+    /**
+     * The section encoding byte written before sections compressed with this stage.
+     */
+    byte getEncoding();
+
+    /**
+     * The largest compressed size for a payload of the given length.
+     */
+    int maxCompressedLength(int length);
+
+    /**
+     * @return the compressed length
+     */
+    int compress(byte[] source, int offset, int length, byte[] target, int targetOffset);
+
+    void decompress(byte[] source, int offset, int length, byte[] target, int rawLength) throws IOException;
+}
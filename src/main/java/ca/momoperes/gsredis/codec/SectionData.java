@@ -0,0 +1,62 @@
+package ca.momoperes.gsredis.codec;
+
+import net.glowstone.chunk.ChunkSection;
+import net.glowstone.util.NibbleArray;
+
+/**
+ * The stored contents of a 16x16x16 chunk section.
+ * Block types use the same layout as {@link ChunkSection#getTypes()}: {@code id << 4 | data}.
+ */
+public class SectionData {
+    public static final int BLOCK_COUNT = 4096;
+    public static final int NIBBLE_COUNT = BLOCK_COUNT / 2;
+
+    private final char[] types;
+    private final byte[] blockLight;
+    private final byte[] skyLight;
+
+    public SectionData(char[] types, byte[] blockLight, byte[] skyLight) {
+        this.types = types;
+        this.blockLight = blockLight;
+        this.skyLight = skyLight;
+    }
+
+    public static SectionData fromSection(ChunkSection section) {
+        section.optimize();
+        return new SectionData(section.getTypes(),
+                section.getBlockLight().getRawData(),
+                section.getSkyLight().getRawData());
+    }
+
+    public ChunkSection toSection() {
+        return new ChunkSection(types, new NibbleArray(skyLight), new NibbleArray(blockLight));
+    }
+
+    public SectionData copy() {
+        return new SectionData(types.clone(), blockLight.clone(), skyLight.clone());
+    }
+
+    /**
+     * Whether any block id needs the 4 extra "Add" bits (id above 255).
+     */
+    public boolean hasExtendedTypes() {
+        for (char type : types) {
+            if (type > 0x0FFF) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public char[] getTypes() {
+        return types;
+    }
+
+    public byte[] getBlockLight() {
+        return blockLight;
+    }
+
+    public byte[] getSkyLight() {
+        return skyLight;
+    }
+}
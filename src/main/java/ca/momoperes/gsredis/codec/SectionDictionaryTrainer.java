@@ -0,0 +1,88 @@
+package ca.momoperes.gsredis.codec;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.ScanParams;
+import redis.clients.jedis.ScanResult;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.*;
+
+/**
+ * Builds a preset deflate dictionary from sample sections.
+ * <p>
+ * Raw section payloads are cut into fixed-size segments, and the most frequent segments
+ * are concatenated, most frequent last (deflate finds closer matches more cheaply).
+ * <p>
+ * Usage: {@code SectionDictionaryTrainer <host> <port> <database> <namespace> <world> <output file> [sample chunks]}
+ */
+public class SectionDictionaryTrainer {
+    public static final int DEFAULT_DICTIONARY_SIZE = 32 * 1024;
+    private static final int SEGMENT_SIZE = 64;
+
+    private final Map<ByteBuffer, Integer> segmentCounts = new HashMap<>();
+    private final ByteBuffer payload = ByteBuffer.allocate(1 + SectionData.BLOCK_COUNT + SectionData.NIBBLE_COUNT * 4);
+
+    public void addSample(SectionData section) {
+        payload.clear();
+        ChunkCodec.writeSectionPayload(section, payload);
+        byte[] raw = payload.array();
+        for (int offset = 0; offset + SEGMENT_SIZE <= payload.position(); offset += SEGMENT_SIZE) {
+            byte[] segment = Arrays.copyOfRange(raw, offset, offset + SEGMENT_SIZE);
+            segmentCounts.merge(ByteBuffer.wrap(segment), 1, Integer::sum);
+        }
+    }
+
+    public byte[] train(int size) {
+        List<Map.Entry<ByteBuffer, Integer>> segments = new ArrayList<>(segmentCounts.entrySet());
+        // segments that only appear once are not worth a dictionary slot
+        segments.removeIf(entry -> entry.getValue() < 2);
+        segments.sort(Map.Entry.comparingByValue());
+        int count = Math.min(segments.size(), size / SEGMENT_SIZE);
+        ByteBuffer dictionary = ByteBuffer.allocate(count * SEGMENT_SIZE);
+        for (int i = segments.size() - count; i < segments.size(); i++) {
+            dictionary.put(segments.get(i).getKey().duplicate());
+        }
+        return dictionary.array();
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 6) {
+            System.err.println("Usage: SectionDictionaryTrainer <host> <port> <database> <namespace> <world> <output file> [sample chunks]");
+            System.exit(1);
+        }
+        String pattern = args[3] + ":worlds:" + args[4] + ":chunks:*:blob";
+        int sampleChunks = args.length > 6 ? Integer.parseInt(args[6]) : 2000;
+
+        SectionDictionaryTrainer trainer = new SectionDictionaryTrainer();
+        ChunkCodec codec = new ChunkCodec();
+        int samples = 0;
+        try (Jedis redis = new Jedis(args[0], Integer.parseInt(args[1]))) {
+            redis.select(Integer.parseInt(args[2]));
+            ScanParams params = new ScanParams().match(pattern).count(500);
+            String cursor = ScanParams.SCAN_POINTER_START;
+            do {
+                ScanResult<String> scan = redis.scan(cursor, params);
+                for (String key : scan.getResult()) {
+                    byte[] blob = redis.get(key.getBytes());
+                    if (blob == null) {
+                        continue;
+                    }
+                    for (SectionData section : codec.decode(0, 0, blob).getSections()) {
+                        if (section != null) {
+                            trainer.addSample(section);
+                        }
+                    }
+                    samples++;
+                }
+                cursor = scan.getStringCursor();
+            } while (!cursor.equals(ScanParams.SCAN_POINTER_START) && samples < sampleChunks);
+        }
+
+        byte[] dictionary = trainer.train(DEFAULT_DICTIONARY_SIZE);
+        Files.write(Paths.get(args[5]), dictionary);
+        System.out.println("Wrote a " + dictionary.length + " byte dictionary from " + samples + " chunks to " + args[5]);
+    }
+}
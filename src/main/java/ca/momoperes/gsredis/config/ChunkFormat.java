@@ -0,0 +1,16 @@
+package ca.momoperes.gsredis.config;
+
+public enum ChunkFormat {
+    /**
+     * One versioned binary blob per chunk.
+     */
+    BLOB,
+    /**
+     * The same blobs, grouped by 32x32 chunk region into one hash per region with a field per chunk.
+     */
+    REGION,
+    /**
+     * A list of section blobs and a hash of chunk fields per chunk.
+     */
+    LEGACY
+}
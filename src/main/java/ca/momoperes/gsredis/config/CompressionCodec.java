@@ -0,0 +1,13 @@
+package ca.momoperes.gsredis.config;
+
+public enum CompressionCodec {
+    NONE,
+    /**
+     * JDK Deflater, optionally with a preset dictionary.
+     */
+    DEFLATE,
+    /**
+     * LZ4 fast compression.
+     */
+    LZ4
+}
@@ -0,0 +1,27 @@
+package ca.momoperes.gsredis.config;
+
+public class RedisCacheConfiguration {
+    private boolean enabled;
+    private long maxBytes;
+
+    public RedisCacheConfiguration(boolean enabled, long maxBytes) {
+        this.enabled = enabled;
+        this.maxBytes = maxBytes;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public void setMaxBytes(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+}
@@ -3,10 +3,32 @@ package ca.momoperes.gsredis.config;
 public class RedisChunkServiceConfiguration {
     private int databaseIndex;
     private boolean readOnly;
+    private boolean atomicWrites;
+    private ChunkFormat format;
+    private RedisCompressionConfiguration compression;
+    private boolean deduplicate;
+    private boolean deltaWrites;
+    private RedisWriteBehindConfiguration writeBehind;
+    private RedisSnapshotConfiguration snapshot;
 
-    public RedisChunkServiceConfiguration(int databaseIndex, boolean readOnly) {
+    public RedisChunkServiceConfiguration(int databaseIndex, boolean readOnly, boolean atomicWrites, ChunkFormat format,
+                                          RedisCompressionConfiguration compression, boolean deduplicate,
+                                          boolean deltaWrites, RedisWriteBehindConfiguration writeBehind,
+                                          RedisSnapshotConfiguration snapshot) {
         this.databaseIndex = databaseIndex;
         this.readOnly = readOnly;
+        this.atomicWrites = atomicWrites;
+        this.format = format;
+        this.compression = compression;
+        this.deduplicate = deduplicate;
+        this.deltaWrites = deltaWrites;
+        this.writeBehind = writeBehind;
+        this.snapshot = snapshot;
+    }
+
+    public RedisChunkServiceConfiguration copy() {
+        return new RedisChunkServiceConfiguration(databaseIndex, readOnly, atomicWrites, format, compression,
+                deduplicate, deltaWrites, writeBehind, snapshot);
     }
 
     public int getDatabaseIndex() {
@@ -24,4 +46,63 @@ public class RedisChunkServiceConfiguration {
     public void setReadOnly(boolean readOnly) {
         this.readOnly = readOnly;
     }
+
+    public boolean isAtomicWrites() {
+        return atomicWrites;
+    }
+
+    public void setAtomicWrites(boolean atomicWrites) {
+        this.atomicWrites = atomicWrites;
+    }
+
+    public ChunkFormat getFormat() {
+        return format;
+    }
+
+    public void setFormat(ChunkFormat format) {
+        this.format = format;
+    }
+
+    public RedisCompressionConfiguration getCompression() {
+        return compression;
+    }
+
+    public void setCompression(RedisCompressionConfiguration compression) {
+        this.compression = compression;
+    }
+
+    public boolean isDeduplicate() {
+        return deduplicate;
+    }
+
+    public void setDeduplicate(boolean deduplicate) {
+        this.deduplicate = deduplicate;
+    }
+
+    public boolean isDeltaWrites() {
+        return deltaWrites;
+    }
+
+    public void setDeltaWrites(boolean deltaWrites) {
+        this.deltaWrites = deltaWrites;
+    }
+
+    public RedisWriteBehindConfiguration getWriteBehind() {
+        return writeBehind;
+    }
+
+    public void setWriteBehind(RedisWriteBehindConfiguration writeBehind) {
+        this.writeBehind = writeBehind;
+    }
+
+    /**
+     * The local snapshot of the world, only used when the service is read-only.
+     */
+    public RedisSnapshotConfiguration getSnapshot() {
+        return snapshot;
+    }
+
+    public void setSnapshot(RedisSnapshotConfiguration snapshot) {
+        this.snapshot = snapshot;
+    }
 }
@@ -0,0 +1,39 @@
+package ca.momoperes.gsredis.config;
+
+import java.io.File;
+
+public class RedisCompressionConfiguration {
+    private CompressionCodec codec;
+    private int level;
+    private File dictionaryFile;
+
+    public RedisCompressionConfiguration(CompressionCodec codec, int level, File dictionaryFile) {
+        this.codec = codec;
+        this.level = level;
+        this.dictionaryFile = dictionaryFile;
+    }
+
+    public CompressionCodec getCodec() {
+        return codec;
+    }
+
+    public void setCodec(CompressionCodec codec) {
+        this.codec = codec;
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    public void setLevel(int level) {
+        this.level = level;
+    }
+
+    public File getDictionaryFile() {
+        return dictionaryFile;
+    }
+
+    public void setDictionaryFile(File dictionaryFile) {
+        this.dictionaryFile = dictionaryFile;
+    }
+}
@@ -0,0 +1,58 @@
+package ca.momoperes.gsredis.config;
+
+public class RedisGenerationConfiguration {
+    private boolean claims;
+    private long claimTtlMillis;
+    private long waitMillis;
+    private int pregenerateThreads;
+    private int pregenerateChunksPerTick;
+
+    public RedisGenerationConfiguration(boolean claims, long claimTtlMillis, long waitMillis, int pregenerateThreads,
+                                        int pregenerateChunksPerTick) {
+        this.claims = claims;
+        this.claimTtlMillis = claimTtlMillis;
+        this.waitMillis = waitMillis;
+        this.pregenerateThreads = pregenerateThreads;
+        this.pregenerateChunksPerTick = pregenerateChunksPerTick;
+    }
+
+    public boolean isClaims() {
+        return claims;
+    }
+
+    public void setClaims(boolean claims) {
+        this.claims = claims;
+    }
+
+    public long getClaimTtlMillis() {
+        return claimTtlMillis;
+    }
+
+    public void setClaimTtlMillis(long claimTtlMillis) {
+        this.claimTtlMillis = claimTtlMillis;
+    }
+
+    public long getWaitMillis() {
+        return waitMillis;
+    }
+
+    public void setWaitMillis(long waitMillis) {
+        this.waitMillis = waitMillis;
+    }
+
+    public int getPregenerateThreads() {
+        return pregenerateThreads;
+    }
+
+    public void setPregenerateThreads(int pregenerateThreads) {
+        this.pregenerateThreads = pregenerateThreads;
+    }
+
+    public int getPregenerateChunksPerTick() {
+        return pregenerateChunksPerTick;
+    }
+
+    public void setPregenerateChunksPerTick(int pregenerateChunksPerTick) {
+        this.pregenerateChunksPerTick = pregenerateChunksPerTick;
+    }
+}
@@ -0,0 +1,70 @@
+package ca.momoperes.gsredis.config;
+
+import java.io.File;
+
+public class RedisJournalConfiguration {
+    private boolean enabled;
+    private File directory;
+    private long maxBytes;
+    private long slowWriteMillis;
+    private int failureThreshold;
+    private long retryIntervalMillis;
+
+    public RedisJournalConfiguration(boolean enabled, File directory, long maxBytes, long slowWriteMillis,
+                                     int failureThreshold, long retryIntervalMillis) {
+        this.enabled = enabled;
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        this.slowWriteMillis = slowWriteMillis;
+        this.failureThreshold = failureThreshold;
+        this.retryIntervalMillis = retryIntervalMillis;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    public void setDirectory(File directory) {
+        this.directory = directory;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public void setMaxBytes(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    public long getSlowWriteMillis() {
+        return slowWriteMillis;
+    }
+
+    public void setSlowWriteMillis(long slowWriteMillis) {
+        this.slowWriteMillis = slowWriteMillis;
+    }
+
+    public int getFailureThreshold() {
+        return failureThreshold;
+    }
+
+    public void setFailureThreshold(int failureThreshold) {
+        this.failureThreshold = failureThreshold;
+    }
+
+    public long getRetryIntervalMillis() {
+        return retryIntervalMillis;
+    }
+
+    public void setRetryIntervalMillis(long retryIntervalMillis) {
+        this.retryIntervalMillis = retryIntervalMillis;
+    }
+}
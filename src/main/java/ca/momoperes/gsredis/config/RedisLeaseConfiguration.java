@@ -0,0 +1,37 @@
+package ca.momoperes.gsredis.config;
+
+public class RedisLeaseConfiguration {
+    private boolean enabled;
+    private long ttlMillis;
+    private long idleReleaseMillis;
+
+    public RedisLeaseConfiguration(boolean enabled, long ttlMillis, long idleReleaseMillis) {
+        this.enabled = enabled;
+        this.ttlMillis = ttlMillis;
+        this.idleReleaseMillis = idleReleaseMillis;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public long getTtlMillis() {
+        return ttlMillis;
+    }
+
+    public void setTtlMillis(long ttlMillis) {
+        this.ttlMillis = ttlMillis;
+    }
+
+    public long getIdleReleaseMillis() {
+        return idleReleaseMillis;
+    }
+
+    public void setIdleReleaseMillis(long idleReleaseMillis) {
+        this.idleReleaseMillis = idleReleaseMillis;
+    }
+}
@@ -0,0 +1,16 @@
+package ca.momoperes.gsredis.config;
+
+public enum RedisMode {
+    /**
+     * A single redis server at {@code host} and {@code port}.
+     */
+    STANDALONE,
+    /**
+     * Keys spread over the standalone servers listed in {@code nodes} by consistent hashing.
+     */
+    SHARDED,
+    /**
+     * A Redis Cluster, discovered from the seed nodes listed in {@code nodes}.
+     */
+    CLUSTER
+}
@@ -1,23 +1,58 @@
 package ca.momoperes.gsredis.config;
 
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
 public class RedisPluginConfiguration {
     private String namespace;
+    private RedisMode mode;
     private String host;
     private int port;
+    private List<String> nodes;
+    private RedisReplicaConfiguration replicas;
     private int defaultDatabaseIndex;
     private String password;
+    private RedisPoolConfiguration pool;
     private RedisChunkServiceConfiguration chunkService;
+    private Map<String, RedisChunkServiceConfiguration> worldChunkServices;
     private RedisPlayerDataServiceConfiguration playerData;
-
-    public RedisPluginConfiguration(String namespace, String host, int port, int defaultDatabaseIndex, String password,
-                                    RedisChunkServiceConfiguration chunkService, RedisPlayerDataServiceConfiguration playerData) {
+    private int sectionCacheSize;
+    private RedisCacheConfiguration chunkCache;
+    private RedisPrefetchConfiguration prefetch;
+    private RedisJournalConfiguration journal;
+    private RedisLeaseConfiguration leases;
+    private RedisGenerationConfiguration generation;
+    private Map<String, String> templates;
+
+    public RedisPluginConfiguration(String namespace, RedisMode mode, String host, int port, List<String> nodes,
+                                    RedisReplicaConfiguration replicas, int defaultDatabaseIndex, String password,
+                                    RedisPoolConfiguration pool,
+                                    RedisChunkServiceConfiguration chunkService,
+                                    Map<String, RedisChunkServiceConfiguration> worldChunkServices,
+                                    RedisPlayerDataServiceConfiguration playerData, int sectionCacheSize,
+                                    RedisCacheConfiguration chunkCache, RedisPrefetchConfiguration prefetch,
+                                    RedisJournalConfiguration journal, RedisLeaseConfiguration leases,
+                                    RedisGenerationConfiguration generation, Map<String, String> templates) {
         this.namespace = namespace;
+        this.mode = mode;
         this.host = host;
         this.port = port;
+        this.nodes = nodes;
+        this.replicas = replicas;
         this.defaultDatabaseIndex = defaultDatabaseIndex;
         this.password = password;
+        this.pool = pool;
         this.chunkService = chunkService;
+        this.worldChunkServices = worldChunkServices;
         this.playerData = playerData;
+        this.sectionCacheSize = sectionCacheSize;
+        this.chunkCache = chunkCache;
+        this.prefetch = prefetch;
+        this.journal = journal;
+        this.leases = leases;
+        this.generation = generation;
+        this.templates = templates;
     }
 
     public String getNamespace() {
@@ -28,6 +63,14 @@ public class RedisPluginConfiguration {
         this.namespace = namespace;
     }
 
+    public RedisMode getMode() {
+        return mode;
+    }
+
+    public void setMode(RedisMode mode) {
+        this.mode = mode;
+    }
+
     public String getHost() {
         return host;
     }
@@ -44,6 +87,25 @@ public class RedisPluginConfiguration {
         this.port = port;
     }
 
+    /**
+     * The {@code host:port} of each node in the sharded and cluster modes.
+     */
+    public List<String> getNodes() {
+        return nodes;
+    }
+
+    public void setNodes(List<String> nodes) {
+        this.nodes = nodes;
+    }
+
+    public RedisReplicaConfiguration getReplicas() {
+        return replicas;
+    }
+
+    public void setReplicas(RedisReplicaConfiguration replicas) {
+        this.replicas = replicas;
+    }
+
     public int getDefaultDatabaseIndex() {
         return defaultDatabaseIndex;
     }
@@ -68,6 +130,21 @@ public class RedisPluginConfiguration {
         this.chunkService = chunkService;
     }
 
+    /**
+     * The chunk service configuration of a world, including its overrides under {@code chunkService.worlds}.
+     */
+    public RedisChunkServiceConfiguration getChunkService(String worldName) {
+        return worldChunkServices.getOrDefault(worldName, chunkService);
+    }
+
+    public Map<String, RedisChunkServiceConfiguration> getWorldChunkServices() {
+        return worldChunkServices;
+    }
+
+    public void setWorldChunkServices(Map<String, RedisChunkServiceConfiguration> worldChunkServices) {
+        this.worldChunkServices = worldChunkServices;
+    }
+
     public RedisPlayerDataServiceConfiguration getPlayerData() {
         return playerData;
     }
@@ -75,4 +152,104 @@ public class RedisPluginConfiguration {
     public void setPlayerData(RedisPlayerDataServiceConfiguration playerData) {
         this.playerData = playerData;
     }
+
+    public int getSectionCacheSize() {
+        return sectionCacheSize;
+    }
+
+    public void setSectionCacheSize(int sectionCacheSize) {
+        this.sectionCacheSize = sectionCacheSize;
+    }
+
+    public RedisCacheConfiguration getChunkCache() {
+        return chunkCache;
+    }
+
+    public void setChunkCache(RedisCacheConfiguration chunkCache) {
+        this.chunkCache = chunkCache;
+    }
+
+    public RedisPrefetchConfiguration getPrefetch() {
+        return prefetch;
+    }
+
+    public void setPrefetch(RedisPrefetchConfiguration prefetch) {
+        this.prefetch = prefetch;
+    }
+
+    public RedisJournalConfiguration getJournal() {
+        return journal;
+    }
+
+    public void setJournal(RedisJournalConfiguration journal) {
+        this.journal = journal;
+    }
+
+    public RedisLeaseConfiguration getLeases() {
+        return leases;
+    }
+
+    public void setLeases(RedisLeaseConfiguration leases) {
+        this.leases = leases;
+    }
+
+    public RedisGenerationConfiguration getGeneration() {
+        return generation;
+    }
+
+    public void setGeneration(RedisGenerationConfiguration generation) {
+        this.generation = generation;
+    }
+
+    /**
+     * Template worlds by world name pattern, {@code *} matching any characters and {@code ?} a single one.
+     */
+    public Map<String, String> getTemplates() {
+        return templates;
+    }
+
+    public void setTemplates(Map<String, String> templates) {
+        this.templates = templates;
+    }
+
+    /**
+     * The template a world reads the chunks it does not have from: that of the first pattern matching its name.
+     *
+     * @return null if the world has no template
+     */
+    public String getTemplate(String worldName) {
+        for (Map.Entry<String, String> template : templates.entrySet()) {
+            if (!template.getValue().equals(worldName) && glob(template.getKey()).matcher(worldName).matches()) {
+                return template.getValue();
+            }
+        }
+        return null;
+    }
+
+    private static Pattern glob(String pattern) {
+        StringBuilder regex = new StringBuilder();
+        int literal = 0;
+        for (int i = 0; i < pattern.length(); i++) {
+            char c = pattern.charAt(i);
+            if (c == '*' || c == '?') {
+                if (i > literal) {
+                    regex.append(Pattern.quote(pattern.substring(literal, i)));
+                }
+                regex.append(c == '*' ? ".*" : ".");
+                literal = i + 1;
+            }
+        }
+        if (literal < pattern.length()) {
+            regex.append(Pattern.quote(pattern.substring(literal)));
+        }
+        return Pattern.compile(regex.toString());
+    }
+
+    public RedisPoolConfiguration getPool() {
+        return pool;
+    }
+
+    public void setPool(RedisPoolConfiguration pool) {
+        this.pool = pool;
+    }
 }
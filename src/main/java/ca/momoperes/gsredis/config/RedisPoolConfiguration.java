@@ -0,0 +1,99 @@
+package ca.momoperes.gsredis.config;
+
+public class RedisPoolConfiguration {
+    private int maxTotal;
+    private int maxIdle;
+    private int minIdle;
+    private long maxWaitMillis;
+    private int connectTimeoutMillis;
+    private int readTimeoutMillis;
+    private long idleTimeoutMillis;
+    private boolean testWhileIdle;
+    private int asyncConnections;
+
+    public RedisPoolConfiguration(int maxTotal, int maxIdle, int minIdle, long maxWaitMillis, int connectTimeoutMillis,
+                                  int readTimeoutMillis, long idleTimeoutMillis, boolean testWhileIdle,
+                                  int asyncConnections) {
+        this.maxTotal = maxTotal;
+        this.maxIdle = maxIdle;
+        this.minIdle = minIdle;
+        this.maxWaitMillis = maxWaitMillis;
+        this.connectTimeoutMillis = connectTimeoutMillis;
+        this.readTimeoutMillis = readTimeoutMillis;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.testWhileIdle = testWhileIdle;
+        this.asyncConnections = asyncConnections;
+    }
+
+    public int getMaxTotal() {
+        return maxTotal;
+    }
+
+    public void setMaxTotal(int maxTotal) {
+        this.maxTotal = maxTotal;
+    }
+
+    public int getMaxIdle() {
+        return maxIdle;
+    }
+
+    public void setMaxIdle(int maxIdle) {
+        this.maxIdle = maxIdle;
+    }
+
+    public int getMinIdle() {
+        return minIdle;
+    }
+
+    public void setMinIdle(int minIdle) {
+        this.minIdle = minIdle;
+    }
+
+    public long getMaxWaitMillis() {
+        return maxWaitMillis;
+    }
+
+    public void setMaxWaitMillis(long maxWaitMillis) {
+        this.maxWaitMillis = maxWaitMillis;
+    }
+
+    public int getConnectTimeoutMillis() {
+        return connectTimeoutMillis;
+    }
+
+    public void setConnectTimeoutMillis(int connectTimeoutMillis) {
+        this.connectTimeoutMillis = connectTimeoutMillis;
+    }
+
+    public int getReadTimeoutMillis() {
+        return readTimeoutMillis;
+    }
+
+    public void setReadTimeoutMillis(int readTimeoutMillis) {
+        this.readTimeoutMillis = readTimeoutMillis;
+    }
+
+    public long getIdleTimeoutMillis() {
+        return idleTimeoutMillis;
+    }
+
+    public void setIdleTimeoutMillis(long idleTimeoutMillis) {
+        this.idleTimeoutMillis = idleTimeoutMillis;
+    }
+
+    public boolean isTestWhileIdle() {
+        return testWhileIdle;
+    }
+
+    public void setTestWhileIdle(boolean testWhileIdle) {
+        this.testWhileIdle = testWhileIdle;
+    }
+
+    public int getAsyncConnections() {
+        return asyncConnections;
+    }
+
+    public void setAsyncConnections(int asyncConnections) {
+        this.asyncConnections = asyncConnections;
+    }
+}
@@ -0,0 +1,68 @@
+package ca.momoperes.gsredis.config;
+
+public class RedisPrefetchConfiguration {
+    private boolean enabled;
+    private int radius;
+    private double lookAheadSeconds;
+    private int maxInFlight;
+    private int batchSize;
+    private int intervalTicks;
+
+    public RedisPrefetchConfiguration(boolean enabled, int radius, double lookAheadSeconds, int maxInFlight,
+                                      int batchSize, int intervalTicks) {
+        this.enabled = enabled;
+        this.radius = radius;
+        this.lookAheadSeconds = lookAheadSeconds;
+        this.maxInFlight = maxInFlight;
+        this.batchSize = batchSize;
+        this.intervalTicks = intervalTicks;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public int getRadius() {
+        return radius;
+    }
+
+    public void setRadius(int radius) {
+        this.radius = radius;
+    }
+
+    public double getLookAheadSeconds() {
+        return lookAheadSeconds;
+    }
+
+    public void setLookAheadSeconds(double lookAheadSeconds) {
+        this.lookAheadSeconds = lookAheadSeconds;
+    }
+
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    public void setMaxInFlight(int maxInFlight) {
+        this.maxInFlight = maxInFlight;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public int getIntervalTicks() {
+        return intervalTicks;
+    }
+
+    public void setIntervalTicks(int intervalTicks) {
+        this.intervalTicks = intervalTicks;
+    }
+}
@@ -0,0 +1,45 @@
+package ca.momoperes.gsredis.config;
+
+import java.util.List;
+
+public class RedisReplicaConfiguration {
+    private List<String> endpoints;
+    private long readYourWritesMillis;
+    private long probeIntervalMillis;
+
+    public RedisReplicaConfiguration(List<String> endpoints, long readYourWritesMillis, long probeIntervalMillis) {
+        this.endpoints = endpoints;
+        this.readYourWritesMillis = readYourWritesMillis;
+        this.probeIntervalMillis = probeIntervalMillis;
+    }
+
+    /**
+     * The {@code host:port} of each replica of the standalone server.
+     */
+    public List<String> getEndpoints() {
+        return endpoints;
+    }
+
+    public void setEndpoints(List<String> endpoints) {
+        this.endpoints = endpoints;
+    }
+
+    /**
+     * How long keys written by this server are read from the primary, 0 to always read from replicas.
+     */
+    public long getReadYourWritesMillis() {
+        return readYourWritesMillis;
+    }
+
+    public void setReadYourWritesMillis(long readYourWritesMillis) {
+        this.readYourWritesMillis = readYourWritesMillis;
+    }
+
+    public long getProbeIntervalMillis() {
+        return probeIntervalMillis;
+    }
+
+    public void setProbeIntervalMillis(long probeIntervalMillis) {
+        this.probeIntervalMillis = probeIntervalMillis;
+    }
+}
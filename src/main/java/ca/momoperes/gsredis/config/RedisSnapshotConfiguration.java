@@ -0,0 +1,29 @@
+package ca.momoperes.gsredis.config;
+
+import java.io.File;
+
+public class RedisSnapshotConfiguration {
+    private boolean enabled;
+    private File directory;
+
+    public RedisSnapshotConfiguration(boolean enabled, File directory) {
+        this.enabled = enabled;
+        this.directory = directory;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    public void setDirectory(File directory) {
+        this.directory = directory;
+    }
+}
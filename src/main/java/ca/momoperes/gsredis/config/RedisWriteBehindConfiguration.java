@@ -0,0 +1,73 @@
+package ca.momoperes.gsredis.config;
+
+public class RedisWriteBehindConfiguration {
+    public enum FullPolicy {
+        BLOCK,
+        WRITE_THROUGH
+    }
+
+    private boolean enabled;
+    private int queueSize;
+    private int batchSize;
+    private int flushThreads;
+    private FullPolicy whenFull;
+    private int drainTimeoutSeconds;
+
+    public RedisWriteBehindConfiguration(boolean enabled, int queueSize, int batchSize, int flushThreads,
+                                         FullPolicy whenFull, int drainTimeoutSeconds) {
+        this.enabled = enabled;
+        this.queueSize = queueSize;
+        this.batchSize = batchSize;
+        this.flushThreads = flushThreads;
+        this.whenFull = whenFull;
+        this.drainTimeoutSeconds = drainTimeoutSeconds;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public int getQueueSize() {
+        return queueSize;
+    }
+
+    public void setQueueSize(int queueSize) {
+        this.queueSize = queueSize;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public int getFlushThreads() {
+        return flushThreads;
+    }
+
+    public void setFlushThreads(int flushThreads) {
+        this.flushThreads = flushThreads;
+    }
+
+    public FullPolicy getWhenFull() {
+        return whenFull;
+    }
+
+    public void setWhenFull(FullPolicy whenFull) {
+        this.whenFull = whenFull;
+    }
+
+    public int getDrainTimeoutSeconds() {
+        return drainTimeoutSeconds;
+    }
+
+    public void setDrainTimeoutSeconds(int drainTimeoutSeconds) {
+        this.drainTimeoutSeconds = drainTimeoutSeconds;
+    }
+}
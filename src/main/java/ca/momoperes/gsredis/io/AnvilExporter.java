@@ -0,0 +1,65 @@
+package ca.momoperes.gsredis.io;
+
+import ca.momoperes.gsredis.codec.ChunkData;
+import net.glowstone.io.anvil.RegionFile;
+import net.glowstone.util.nbt.NbtOutputStream;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+/**
+ * Exports a world stored in redis to Anvil region files.
+ * <p>
+ * Chunks are listed once, then each region is read in a single pipeline and written to a temporary file
+ * on a fork-join worker, which replaces the region file once complete. See {@link AnvilTransfer} for the options.
+ */
+public class AnvilExporter extends AnvilTransfer {
+    private Map<String, List<ChunkPrefetcher.ChunkPosition>> regions;
+
+    public AnvilExporter(String[] args) throws IOException {
+        super("export", args);
+    }
+
+    @Override
+    protected List<String> listRegions() throws IOException {
+        regions = new TreeMap<>();
+        for (ChunkPrefetcher.ChunkPosition chunk : service.listChunks()) {
+            regions.computeIfAbsent("r." + (chunk.getX() >> 5) + "." + (chunk.getZ() >> 5) + ".mca",
+                    region -> new ArrayList<>()).add(chunk);
+        }
+        Files.createDirectories(regionDirectory.toPath());
+        return new ArrayList<>(regions.keySet());
+    }
+
+    @Override
+    protected void transfer(String region) throws IOException {
+        List<ChunkData> chunks = service.readBatch(regions.get(region));
+        File file = new File(regionDirectory, region);
+        File temporary = new File(regionDirectory, region + ".tmp");
+        Files.deleteIfExists(temporary.toPath());
+        RegionFile regionFile = new RegionFile(temporary);
+        try {
+            for (ChunkData chunk : chunks) {
+                try (NbtOutputStream nbt = new NbtOutputStream(regionFile.getChunkDataOutputStream(
+                        chunk.getX() & 31, chunk.getZ() & 31), false)) {
+                    nbt.writeTag(anvilCodec.encode(chunk));
+                }
+            }
+        } finally {
+            regionFile.close();
+        }
+        Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        transferred(chunks.size(), file.length());
+    }
+
+    public static void main(String[] args) {
+        try {
+            new AnvilExporter(args).run();
+        } catch (Exception e) {
+            exit("AnvilExporter", e);
+        }
+    }
+}
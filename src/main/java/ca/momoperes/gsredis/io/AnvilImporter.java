@@ -0,0 +1,83 @@
+package ca.momoperes.gsredis.io;
+
+import ca.momoperes.gsredis.codec.ChunkData;
+import net.glowstone.io.anvil.RegionFile;
+import net.glowstone.util.nbt.NbtInputStream;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Imports the region files of an Anvil world into redis, in the configured chunk format.
+ * <p>
+ * Each region is read and encoded on a fork-join worker, and written in pipelines of {@value #BATCH_SIZE} chunks.
+ * Chunks already stored in redis are overwritten. See {@link AnvilTransfer} for the options.
+ */
+public class AnvilImporter extends AnvilTransfer {
+    private static final int BATCH_SIZE = 256;
+
+    public AnvilImporter(String[] args) throws IOException {
+        super("import", args);
+    }
+
+    @Override
+    protected List<String> listRegions() throws IOException {
+        String[] names = regionDirectory.list();
+        if (names == null) {
+            throw new IOException(regionDirectory + " is not a directory");
+        }
+        List<String> regions = new ArrayList<>();
+        for (String name : names) {
+            if (parseRegion(name) != null) {
+                regions.add(name);
+            }
+        }
+        Collections.sort(regions);
+        return regions;
+    }
+
+    @Override
+    protected void transfer(String region) throws IOException {
+        File file = new File(regionDirectory, region);
+        List<ChunkData> batch = new ArrayList<>(BATCH_SIZE);
+        int count = 0;
+        RegionFile regionFile = new RegionFile(file);
+        try {
+            for (int z = 0; z < 32; z++) {
+                for (int x = 0; x < 32; x++) {
+                    DataInputStream in = regionFile.getChunkDataInputStream(x, z);
+                    if (in == null) {
+                        continue;
+                    }
+                    try (NbtInputStream nbt = new NbtInputStream(in, false)) {
+                        batch.add(anvilCodec.decode(nbt.readCompound()));
+                    }
+                    if (batch.size() == BATCH_SIZE) {
+                        service.writeBatch(batch);
+                        count += batch.size();
+                        batch.clear();
+                    }
+                }
+            }
+        } finally {
+            regionFile.close();
+        }
+        if (!batch.isEmpty()) {
+            service.writeBatch(batch);
+            count += batch.size();
+        }
+        transferred(count, file.length());
+    }
+
+    public static void main(String[] args) {
+        try {
+            new AnvilImporter(args).run();
+        } catch (Exception e) {
+            exit("AnvilImporter", e);
+        }
+    }
+}
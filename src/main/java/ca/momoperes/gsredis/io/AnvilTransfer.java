@@ -0,0 +1,190 @@
+package ca.momoperes.gsredis.io;
+
+import ca.momoperes.gsredis.codec.AnvilChunkCodec;
+import ca.momoperes.gsredis.config.*;
+import ca.momoperes.gsredis.metrics.RedisMetrics;
+import ca.momoperes.gsredis.redis.RedisConnections;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Base of the bulk Anvil tools ({@link AnvilImporter} and {@link AnvilExporter}).
+ * <p>
+ * Regions are transferred in parallel on a fork-join pool, each worker on a redis connection of its own.
+ * Finished regions are appended to {@code gsredis-<mode>-<namespace>-<world>.progress} in the working directory,
+ * so an interrupted transfer resumes where it stopped; {@code --restart} ignores it.
+ * Only the standalone keys are transferred, and servers using the world should be stopped while it runs.
+ * <p>
+ * Usage: {@code <tool> [--threads <n>] [--format blob|region|legacy] [--compression none|deflate|lz4]
+ * [--level <n>] [--restart] <region directory> <host> <port> <database> <namespace> <world> [password]}
+ */
+abstract class AnvilTransfer {
+    static final Pattern REGION_FILE = Pattern.compile("r\\.(-?\\d+)\\.(-?\\d+)\\.mca");
+    private static final long REPORT_INTERVAL_SECONDS = 5;
+
+    protected final File regionDirectory;
+    protected final RedisChunkIoService service;
+    protected final AnvilChunkCodec anvilCodec = new AnvilChunkCodec();
+    private final String mode;
+    private final int threads;
+    private final RedisConnections connections;
+    private final File progressFile;
+    private final Set<String> finished = ConcurrentHashMap.newKeySet();
+    private final AtomicLong chunks = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicLong regions = new AtomicLong();
+
+    protected AnvilTransfer(String mode, String[] args) throws IOException {
+        this.mode = mode;
+        int threads = Runtime.getRuntime().availableProcessors();
+        ChunkFormat format = ChunkFormat.BLOB;
+        CompressionCodec compression = CompressionCodec.LZ4;
+        int level = 6;
+        boolean restart = false;
+        int i = 0;
+        for (; i < args.length && args[i].startsWith("--"); i++) {
+            switch (args[i]) {
+                case "--threads":
+                    threads = Integer.parseInt(args[++i]);
+                    break;
+                case "--format":
+                    format = ChunkFormat.valueOf(args[++i].toUpperCase(Locale.ROOT));
+                    break;
+                case "--compression":
+                    compression = CompressionCodec.valueOf(args[++i].toUpperCase(Locale.ROOT));
+                    break;
+                case "--level":
+                    level = Integer.parseInt(args[++i]);
+                    break;
+                case "--restart":
+                    restart = true;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+        if (args.length - i < 6) {
+            throw new IllegalArgumentException("Missing arguments");
+        }
+        this.threads = threads;
+        this.regionDirectory = new File(args[i]);
+        String namespace = args[i + 4];
+        String worldName = args[i + 5];
+        RedisPoolConfiguration pool = new RedisPoolConfiguration(threads, threads, 0, 60000, 2000, 60000, 60000, false, 0);
+        this.connections = new RedisConnections(args[i + 1], Integer.parseInt(args[i + 2]),
+                args.length - i > 6 ? args[i + 6] : null, Integer.parseInt(args[i + 3]), pool, new RedisMetrics());
+        RedisChunkServiceConfiguration config = new RedisChunkServiceConfiguration(Integer.parseInt(args[i + 3]),
+                false, false, format, new RedisCompressionConfiguration(compression, level, null), false, false,
+                new RedisWriteBehindConfiguration(false, 0, 0, 0, RedisWriteBehindConfiguration.FullPolicy.BLOCK, 0),
+                new RedisSnapshotConfiguration(false, null));
+        this.service = new RedisChunkIoService(namespace, worldName, connections, config, new SectionStore(0),
+                null, null, null, null, null, null, new RedisMetrics(), Logger.getLogger(getClass().getName()));
+
+        this.progressFile = new File("gsredis-" + mode + "-" + namespace + "-" + worldName + ".progress");
+        if (restart) {
+            Files.deleteIfExists(progressFile.toPath());
+        } else if (progressFile.isFile()) {
+            finished.addAll(Files.readAllLines(progressFile.toPath(), StandardCharsets.UTF_8));
+        }
+    }
+
+    static String usage(String tool) {
+        return "Usage: " + tool + " [--threads <n>] [--format blob|region|legacy] [--compression none|deflate|lz4]"
+                + " [--level <n>] [--restart] <region directory> <host> <port> <database> <namespace> <world> [password]";
+    }
+
+    /**
+     * The names of the regions to transfer, e.g. {@code r.0.-1.mca}.
+     */
+    protected abstract List<String> listRegions() throws IOException;
+
+    /**
+     * Transfers a region, counting its chunks and bytes with {@link #transferred}.
+     */
+    protected abstract void transfer(String region) throws IOException;
+
+    protected void transferred(int chunks, long bytes) {
+        this.chunks.addAndGet(chunks);
+        this.bytes.addAndGet(bytes);
+    }
+
+    public void run() throws IOException, InterruptedException {
+        List<String> pending = new ArrayList<>();
+        for (String region : listRegions()) {
+            if (!finished.contains(region)) {
+                pending.add(region);
+            }
+        }
+        int skipped = finished.size();
+        System.out.println("Transferring " + pending.size() + " regions on " + threads + " threads"
+                + (skipped > 0 ? ", " + skipped + " were transferred by a previous run" : ""));
+
+        long start = System.nanoTime();
+        ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor();
+        reporter.scheduleAtFixedRate(() -> report(pending.size(), start), REPORT_INTERVAL_SECONDS,
+                REPORT_INTERVAL_SECONDS, TimeUnit.SECONDS);
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            pool.submit(() -> pending.parallelStream().forEach(region -> {
+                try {
+                    transfer(region);
+                    finish(region);
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Could not transfer region " + region, e);
+                }
+            })).get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) e.getCause()).getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            pool.shutdownNow();
+            reporter.shutdownNow();
+            connections.close();
+        }
+        report(pending.size(), start);
+    }
+
+    private synchronized void finish(String region) throws IOException {
+        Files.write(progressFile.toPath(), (region + "\n").getBytes(StandardCharsets.UTF_8),
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND, StandardOpenOption.SYNC);
+        regions.incrementAndGet();
+    }
+
+    private void report(int total, long start) {
+        double seconds = Math.max((System.nanoTime() - start) / 1e9, 1e-3);
+        System.out.println(String.format(Locale.ROOT, "%s: %d/%d regions, %d chunks (%.0f chunks/s, %.1f MB/s)",
+                mode, regions.get(), total, chunks.get(), chunks.get() / seconds, bytes.get() / seconds / 1e6));
+    }
+
+    /**
+     * @return the region's coordinates, or null if the file is not a region file
+     */
+    static int[] parseRegion(String name) {
+        Matcher matcher = REGION_FILE.matcher(name);
+        if (!matcher.matches()) {
+            return null;
+        }
+        return new int[]{Integer.parseInt(matcher.group(1)), Integer.parseInt(matcher.group(2))};
+    }
+
+    static void exit(String tool, Exception e) {
+        if (e instanceof IllegalArgumentException) {
+            System.err.println(e.getMessage());
+            System.err.println(usage(tool));
+        } else {
+            e.printStackTrace();
+        }
+        System.exit(1);
+    }
+}
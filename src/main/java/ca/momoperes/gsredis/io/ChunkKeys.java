@@ -0,0 +1,170 @@
+package ca.momoperes.gsredis.io;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Builds the keys of a world's chunks and regions directly as bytes: the prefixes are encoded once, and
+ * coordinates are written as digits into a key of the exact size, so each key is a single allocation.
+ * <p>
+ * When keys are spread over several nodes, the keys of a region and its chunks share the hash tag
+ * {@code {<world>:<region x>_<region z>}}, so they are stored on the same node (and cluster slot)
+ * and can be written in a single transaction.
+ */
+final class ChunkKeys {
+    private static final byte[] SECTIONS = ":sections".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] BLOB = ":blob".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] REFS = ":refs".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] FENCE = ":fence".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] CLAIM = ":claim".getBytes(StandardCharsets.UTF_8);
+
+    private final byte[] chunksPrefix;
+    private final byte[] regionsPrefix;
+    private final byte[] leasesPrefix;
+    private final byte[] tagPrefix;
+    private final boolean hashTags;
+
+    ChunkKeys(String namespace, String worldName, boolean hashTags) {
+        String world = namespace + ":worlds:" + worldName;
+        this.chunksPrefix = (world + ":chunks:").getBytes(StandardCharsets.UTF_8);
+        this.regionsPrefix = (world + ":regions:").getBytes(StandardCharsets.UTF_8);
+        this.leasesPrefix = (world + ":leases:").getBytes(StandardCharsets.UTF_8);
+        this.tagPrefix = ("{" + worldName + ":").getBytes(StandardCharsets.UTF_8);
+        this.hashTags = hashTags;
+    }
+
+    byte[] chunk(int x, int z) {
+        int length = chunksPrefix.length + pairLength(x, z);
+        if (hashTags) {
+            length += tagLength(x, z) + 1;
+        }
+        byte[] key = new byte[length];
+        int position = put(key, 0, chunksPrefix);
+        if (hashTags) {
+            position = putTag(key, position, x, z);
+            key[position++] = ':';
+        }
+        putPair(key, position, x, z);
+        return key;
+    }
+
+    byte[] region(int x, int z) {
+        byte[] key = new byte[regionsPrefix.length + (hashTags ? tagLength(x, z) : pairLength(x >> 5, z >> 5))];
+        int position = put(key, 0, regionsPrefix);
+        if (hashTags) {
+            putTag(key, position, x, z);
+        } else {
+            putPair(key, position, x >> 5, z >> 5);
+        }
+        return key;
+    }
+
+    /**
+     * The lease of a chunk's region, on the node of the region.
+     */
+    byte[] lease(int x, int z) {
+        byte[] key = new byte[leasesPrefix.length + (hashTags ? tagLength(x, z) : pairLength(x >> 5, z >> 5))];
+        int position = put(key, 0, leasesPrefix);
+        if (hashTags) {
+            putTag(key, position, x, z);
+        } else {
+            putPair(key, position, x >> 5, z >> 5);
+        }
+        return key;
+    }
+
+    /**
+     * The field of a chunk in its region hash, {@code <x>_<z>}.
+     */
+    static byte[] field(int x, int z) {
+        byte[] field = new byte[pairLength(x, z)];
+        putPair(field, 0, x, z);
+        return field;
+    }
+
+    static byte[] sections(byte[] chunkKey) {
+        return concat(chunkKey, SECTIONS);
+    }
+
+    static byte[] blob(byte[] chunkKey) {
+        return concat(chunkKey, BLOB);
+    }
+
+    /**
+     * The references of a chunk's blob, or of the blobs of a region's hash.
+     */
+    static byte[] refs(byte[] key) {
+        return concat(key, REFS);
+    }
+
+    /**
+     * The claim of the server generating a missing chunk.
+     */
+    static byte[] claim(byte[] chunkKey) {
+        return concat(chunkKey, CLAIM);
+    }
+
+    /**
+     * The counter of a region's lease tokens.
+     */
+    static byte[] fence(byte[] leaseKey) {
+        return concat(leaseKey, FENCE);
+    }
+
+    private int tagLength(int x, int z) {
+        return tagPrefix.length + pairLength(x >> 5, z >> 5) + 1;
+    }
+
+    private int putTag(byte[] key, int position, int x, int z) {
+        position = put(key, position, tagPrefix);
+        position = putPair(key, position, x >> 5, z >> 5);
+        key[position++] = '}';
+        return position;
+    }
+
+    private static byte[] concat(byte[] key, byte[] suffix) {
+        byte[] result = new byte[key.length + suffix.length];
+        System.arraycopy(key, 0, result, 0, key.length);
+        System.arraycopy(suffix, 0, result, key.length, suffix.length);
+        return result;
+    }
+
+    private static int put(byte[] key, int position, byte[] bytes) {
+        System.arraycopy(bytes, 0, key, position, bytes.length);
+        return position + bytes.length;
+    }
+
+    private static int pairLength(int a, int b) {
+        return digits(a) + 1 + digits(b);
+    }
+
+    private static int putPair(byte[] key, int position, int a, int b) {
+        position = putInt(key, position, a);
+        key[position++] = '_';
+        return putInt(key, position, b);
+    }
+
+    private static int digits(int value) {
+        long remaining = Math.abs((long) value);
+        int digits = value < 0 ? 2 : 1;
+        while (remaining >= 10) {
+            remaining /= 10;
+            digits++;
+        }
+        return digits;
+    }
+
+    private static int putInt(byte[] key, int position, int value) {
+        int end = position + digits(value);
+        long remaining = value;
+        if (remaining < 0) {
+            key[position] = '-';
+            remaining = -remaining;
+        }
+        int i = end;
+        do {
+            key[--i] = (byte) ('0' + remaining % 10);
+            remaining /= 10;
+        } while (remaining > 0);
+        return end;
+    }
+}
@@ -0,0 +1,189 @@
+package ca.momoperes.gsredis.io;
+
+import ca.momoperes.gsredis.config.RedisPrefetchConfiguration;
+import org.bukkit.Location;
+import org.bukkit.Server;
+import org.bukkit.World;
+import org.bukkit.entity.Player;
+import org.bukkit.util.Vector;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Fetches the chunks ahead of moving players before the server reads them, and stages them in the chunk cache.
+ * <p>
+ * Runs on the server thread every few ticks. Each player's velocity is measured from its movement since the
+ * previous run, and the chunks within {@code radius} of the path it will travel in the next
+ * {@code lookAheadSeconds} are fetched, nearest first, in pipelines of {@code batchSize} chunks.
+ * At most {@code maxInFlight} chunks are being fetched at once, further chunks wait for the next run.
+ */
+public class ChunkPrefetcher implements Runnable {
+    private static final int THREADS = 2;
+
+    private final Server server;
+    private final RedisPrefetchConfiguration config;
+    private final List<RedisWorldStorageProvider> providers;
+    private final Logger logger;
+    private final List<ChunkPosition> offsets;
+    private final ExecutorService executor;
+    private final Semaphore permits;
+    private final Set<String> inFlight = ConcurrentHashMap.newKeySet();
+    private final Map<UUID, Location> lastLocations = new HashMap<>();
+
+    public ChunkPrefetcher(Server server, RedisPrefetchConfiguration config, List<RedisWorldStorageProvider> providers,
+                           Logger logger) {
+        this.server = server;
+        this.config = config;
+        this.providers = providers;
+        this.logger = logger;
+        this.offsets = offsets(config.getRadius());
+        this.permits = new Semaphore(config.getMaxInFlight());
+        this.executor = Executors.newFixedThreadPool(THREADS, runnable -> {
+            Thread thread = new Thread(runnable, "gsredis-prefetch");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * The chunk offsets within a radius, nearest first.
+     */
+    private static List<ChunkPosition> offsets(int radius) {
+        List<ChunkPosition> offsets = new ArrayList<>();
+        for (int dx = -radius; dx <= radius; dx++) {
+            for (int dz = -radius; dz <= radius; dz++) {
+                if (dx * dx + dz * dz <= radius * radius) {
+                    offsets.add(new ChunkPosition(dx, dz));
+                }
+            }
+        }
+        offsets.sort(Comparator.comparingInt(offset -> offset.x * offset.x + offset.z * offset.z));
+        return offsets;
+    }
+
+    @Override
+    public void run() {
+        Map<RedisChunkIoService, List<ChunkPosition>> batches = new HashMap<>();
+        Set<UUID> online = new HashSet<>();
+        for (Player player : server.getOnlinePlayers()) {
+            online.add(player.getUniqueId());
+            World world = player.getWorld();
+            RedisChunkIoService service = service(world.getName());
+            Location location = player.getLocation();
+            Location last = lastLocations.put(player.getUniqueId(), location);
+            if (service == null) {
+                continue;
+            }
+
+            // blocks per tick
+            double velocityX;
+            double velocityZ;
+            if (last != null && last.getWorld() == world) {
+                velocityX = (location.getX() - last.getX()) / config.getIntervalTicks();
+                velocityZ = (location.getZ() - last.getZ()) / config.getIntervalTicks();
+            } else {
+                Vector velocity = player.getVelocity();
+                velocityX = velocity.getX();
+                velocityZ = velocity.getZ();
+            }
+            double ticks = config.getLookAheadSeconds() * 20;
+            if (!collect(world, service, location.getX(), location.getZ(),
+                    velocityX * ticks, velocityZ * ticks, batches)) {
+                break;
+            }
+        }
+        lastLocations.keySet().retainAll(online);
+        batches.forEach(this::submit);
+    }
+
+    /**
+     * Reserves the chunks along a player's path that are neither loaded nor staged.
+     *
+     * @return false once {@code maxInFlight} is reached
+     */
+    private boolean collect(World world, RedisChunkIoService service, double x, double z, double aheadX, double aheadZ,
+                            Map<RedisChunkIoService, List<ChunkPosition>> batches) {
+        // one point per chunk travelled
+        int steps = (int) Math.ceil(Math.sqrt(aheadX * aheadX + aheadZ * aheadZ) / 16);
+        for (int step = 0; step <= steps; step++) {
+            double progress = steps == 0 ? 0 : (double) step / steps;
+            int centerX = (int) Math.floor(x + aheadX * progress) >> 4;
+            int centerZ = (int) Math.floor(z + aheadZ * progress) >> 4;
+            for (ChunkPosition offset : offsets) {
+                int chunkX = centerX + offset.x;
+                int chunkZ = centerZ + offset.z;
+                if (world.isChunkLoaded(chunkX, chunkZ) || service.isStaged(chunkX, chunkZ)) {
+                    continue;
+                }
+                String key = world.getName() + ":" + chunkX + "_" + chunkZ;
+                if (!inFlight.add(key)) {
+                    continue;
+                }
+                if (!permits.tryAcquire()) {
+                    inFlight.remove(key);
+                    return false;
+                }
+                List<ChunkPosition> batch = batches.computeIfAbsent(service, s -> new ArrayList<>());
+                batch.add(new ChunkPosition(chunkX, chunkZ));
+                if (batch.size() >= config.getBatchSize()) {
+                    submit(service, batch);
+                    batches.remove(service);
+                }
+            }
+        }
+        return true;
+    }
+
+    private void submit(RedisChunkIoService service, List<ChunkPosition> batch) {
+        String worldName = service.getWorldName();
+        executor.execute(() -> {
+            try {
+                service.prefetch(batch);
+            } catch (Exception e) {
+                logger.log(Level.WARNING, "Could not prefetch " + batch.size() + " chunks of '" + worldName + "'", e);
+            } finally {
+                for (ChunkPosition chunk : batch) {
+                    inFlight.remove(worldName + ":" + chunk.x + "_" + chunk.z);
+                }
+                permits.release(batch.size());
+            }
+        });
+    }
+
+    private RedisChunkIoService service(String worldName) {
+        for (RedisWorldStorageProvider provider : providers) {
+            if (provider.getWorldName().equals(worldName)) {
+                return provider.getChunkIoService();
+            }
+        }
+        return null;
+    }
+
+    public void stop() {
+        executor.shutdownNow();
+    }
+
+    public static class ChunkPosition {
+        private final int x;
+        private final int z;
+
+        public ChunkPosition(int x, int z) {
+            this.x = x;
+            this.z = z;
+        }
+
+        public int getX() {
+            return x;
+        }
+
+        public int getZ() {
+            return z;
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package ca.momoperes.gsredis.io;
+
+import ca.momoperes.gsredis.config.RedisGenerationConfiguration;
+import org.bukkit.World;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.scheduler.BukkitTask;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Generates the missing chunks within a radius of a world ahead of time, nearest to the center first.
+ * <p>
+ * Worker threads check which chunks exist and claim the generation of the missing ones, so servers
+ * pre-generating the same area, or whose players walk into it, never generate a chunk twice. Glowstone only
+ * generates chunks on the server thread: every tick, up to {@code chunksPerTick} claimed chunks are loaded
+ * with generation and unloaded, which saves them and releases their claim. Workers stay a few seconds ahead
+ * of the server thread, well within the claims' TTL.
+ */
+public class ChunkPregenerator implements Runnable {
+    private static final int PROGRESS_INTERVAL = 1000;
+    private static final int TICKS_AHEAD = 100;
+
+    private final World world;
+    private final RedisChunkIoService service;
+    private final int chunksPerTick;
+    private final int threads;
+    private final Logger logger;
+    private final List<ChunkPrefetcher.ChunkPosition> chunks;
+    private final AtomicInteger next = new AtomicInteger();
+    private final BlockingQueue<ChunkPrefetcher.ChunkPosition> claimed;
+    private final ExecutorService workers;
+    private final AtomicInteger runningWorkers = new AtomicInteger();
+    private final AtomicInteger existing = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    private volatile int generated;
+    private BukkitTask task;
+
+    public ChunkPregenerator(World world, RedisChunkIoService service, int centerX, int centerZ, int radius,
+                             RedisGenerationConfiguration config, Logger logger) {
+        this.world = world;
+        this.service = service;
+        this.chunksPerTick = config.getPregenerateChunksPerTick();
+        this.threads = config.getPregenerateThreads();
+        this.logger = logger;
+        this.chunks = new ArrayList<>((2 * radius + 1) * (2 * radius + 1));
+        for (int x = centerX - radius; x <= centerX + radius; x++) {
+            for (int z = centerZ - radius; z <= centerZ + radius; z++) {
+                chunks.add(new ChunkPrefetcher.ChunkPosition(x, z));
+            }
+        }
+        chunks.sort(Comparator.comparingLong(chunk -> {
+            long dx = chunk.getX() - centerX;
+            long dz = chunk.getZ() - centerZ;
+            return dx * dx + dz * dz;
+        }));
+        this.claimed = new ArrayBlockingQueue<>(chunksPerTick * TICKS_AHEAD);
+        this.workers = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "gsredis-pregenerate-" + world.getName());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public void start(Plugin plugin) {
+        logger.info("Pre-generating " + chunks.size() + " chunks of '" + world.getName() + "'");
+        runningWorkers.set(threads);
+        for (int i = 0; i < threads; i++) {
+            workers.execute(this::claim);
+        }
+        task = plugin.getServer().getScheduler().runTaskTimer(plugin, this, 1, 1);
+    }
+
+    private void claim() {
+        try {
+            int i;
+            while ((i = next.getAndIncrement()) < chunks.size()) {
+                ChunkPrefetcher.ChunkPosition chunk = chunks.get(i);
+                try {
+                    if (service.claimGeneration(chunk.getX(), chunk.getZ())) {
+                        claimed.put(chunk);
+                    } else {
+                        existing.incrementAndGet();
+                    }
+                } catch (IOException | RuntimeException e) {
+                    failed.incrementAndGet();
+                    logger.log(Level.FINE, "Could not check chunk " + chunk.getX() + "," + chunk.getZ() + " of '"
+                            + world.getName() + "'", e);
+                }
+            }
+        } catch (InterruptedException ignored) {
+            // stopped
+        } finally {
+            runningWorkers.decrementAndGet();
+        }
+    }
+
+    @Override
+    public void run() {
+        for (int i = 0; i < chunksPerTick; i++) {
+            ChunkPrefetcher.ChunkPosition chunk = claimed.poll();
+            if (chunk == null) {
+                break;
+            }
+            // a loaded chunk was generated already, and is saved by the world
+            if (!world.isChunkLoaded(chunk.getX(), chunk.getZ())) {
+                world.loadChunk(chunk.getX(), chunk.getZ(), true);
+                world.unloadChunk(chunk.getX(), chunk.getZ(), true);
+            }
+            generated++;
+            if (generated % PROGRESS_INTERVAL == 0) {
+                logger.info("Pre-generation: " + this);
+            }
+        }
+        if (runningWorkers.get() == 0 && claimed.isEmpty()) {
+            logger.info("Pre-generation done: " + this);
+            stop();
+        }
+    }
+
+    public boolean isDone() {
+        return runningWorkers.get() == 0 && claimed.isEmpty();
+    }
+
+    public void stop() {
+        if (task != null) {
+            task.cancel();
+        }
+        workers.shutdownNow();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("'%s', %d/%d chunks checked, %d generated, %d existing or claimed by another server, %d failed",
+                world.getName(), Math.min(next.get(), chunks.size()), chunks.size(), generated, existing.get(), failed.get());
+    }
+}
@@ -0,0 +1,216 @@
+package ca.momoperes.gsredis.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+
+/**
+ * A read-only copy of a world's chunk blobs in a local memory-mapped file.
+ * <p>
+ * The file holds a header (magic, format, world version, chunk count, index offset), the blobs, and an index of
+ * {@code (x, z, offset, length)} entries sorted by chunk key. The index is loaded into primitive arrays and
+ * searched by bisection; blobs are sliced from the mapping, so reading a chunk copies nothing onto the heap.
+ * The file is mapped in segments of 1 GiB, and no blob crosses a segment boundary.
+ * <p>
+ * Blobs never reference deduplicated sections. The world version is the {@code version} field of the
+ * world's {@code :meta} hash when the snapshot was taken, a snapshot of another version is stale.
+ */
+public class ChunkSnapshot {
+    private static final int MAGIC = 0x47535253; // GSRS
+    private static final int FORMAT = 1;
+    private static final int HEADER_SIZE = 4 + 4 + 8 + 4 + 8;
+    private static final int INDEX_ENTRY_SIZE = 4 + 4 + 8 + 4;
+    private static final int SEGMENT_BITS = 30;
+    private static final long SEGMENT_SIZE = 1L << SEGMENT_BITS;
+
+    private final long version;
+    private final long[] keys;
+    private final long[] offsets;
+    private final int[] lengths;
+    private final MappedByteBuffer[] segments;
+
+    private ChunkSnapshot(long version, long[] keys, long[] offsets, int[] lengths, MappedByteBuffer[] segments) {
+        this.version = version;
+        this.keys = keys;
+        this.offsets = offsets;
+        this.lengths = lengths;
+        this.segments = segments;
+    }
+
+    /**
+     * Maps a snapshot file.
+     *
+     * @return null if the file does not exist, is not a snapshot, or is not of {@code version}
+     */
+    public static ChunkSnapshot open(File file, long version) throws IOException {
+        if (!file.isFile()) {
+            return null;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+            long size = channel.size();
+            if (size < HEADER_SIZE) {
+                return null;
+            }
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            channel.read(header, 0);
+            header.flip();
+            if (header.getInt() != MAGIC || header.getInt() != FORMAT || header.getLong() != version) {
+                return null;
+            }
+            int count = header.getInt();
+            long indexOffset = header.getLong();
+
+            ByteBuffer index = channel.map(FileChannel.MapMode.READ_ONLY, indexOffset, (long) count * INDEX_ENTRY_SIZE);
+            long[] keys = new long[count];
+            long[] offsets = new long[count];
+            int[] lengths = new int[count];
+            for (int i = 0; i < count; i++) {
+                keys[i] = ChunkWriteQueue.key(index.getInt(), index.getInt());
+                offsets[i] = index.getLong();
+                lengths[i] = index.getInt();
+            }
+
+            MappedByteBuffer[] segments = new MappedByteBuffer[(int) ((indexOffset + SEGMENT_SIZE - 1) >> SEGMENT_BITS)];
+            for (int i = 0; i < segments.length; i++) {
+                long start = (long) i << SEGMENT_BITS;
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(SEGMENT_SIZE, indexOffset - start));
+            }
+            // the mappings stay valid once the channel is closed
+            return new ChunkSnapshot(version, keys, offsets, lengths, segments);
+        }
+    }
+
+    /**
+     * A view of a chunk's blob in the mapping, or null if the world had no such chunk.
+     */
+    public ByteBuffer get(int x, int z) {
+        int i = Arrays.binarySearch(keys, ChunkWriteQueue.key(x, z));
+        if (i < 0) {
+            return null;
+        }
+        ByteBuffer blob = segments[(int) (offsets[i] >> SEGMENT_BITS)].duplicate();
+        int position = (int) (offsets[i] & (SEGMENT_SIZE - 1));
+        blob.limit(position + lengths[i]).position(position);
+        return blob.slice();
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public int size() {
+        return keys.length;
+    }
+
+    /**
+     * Writes a snapshot to a temporary file, moved over the destination once complete.
+     */
+    public static class Writer implements AutoCloseable {
+        private final File file;
+        private final File temporary;
+        private final long version;
+        private final RandomAccessFile raf;
+        private final FileChannel channel;
+        private long position = HEADER_SIZE;
+        private long[] keys = new long[1024];
+        private long[] offsets = new long[1024];
+        private int[] lengths = new int[1024];
+        private int count;
+
+        public Writer(File file, long version) throws IOException {
+            this.file = file;
+            this.version = version;
+            File directory = file.getAbsoluteFile().getParentFile();
+            Files.createDirectories(directory.toPath());
+            this.temporary = File.createTempFile(file.getName(), ".tmp", directory);
+            this.raf = new RandomAccessFile(temporary, "rw");
+            this.channel = raf.getChannel();
+        }
+
+        public void add(int x, int z, byte[] blob) throws IOException {
+            if ((position >> SEGMENT_BITS) != ((position + blob.length - 1) >> SEGMENT_BITS)) {
+                // start the next segment, a blob is always read from a single mapping
+                position = ((position >> SEGMENT_BITS) + 1) << SEGMENT_BITS;
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(blob);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer, position + buffer.position());
+            }
+            if (count == keys.length) {
+                keys = Arrays.copyOf(keys, count * 2);
+                offsets = Arrays.copyOf(offsets, count * 2);
+                lengths = Arrays.copyOf(lengths, count * 2);
+            }
+            keys[count] = ChunkWriteQueue.key(x, z);
+            offsets[count] = position;
+            lengths[count] = blob.length;
+            count++;
+            position += blob.length;
+        }
+
+        /**
+         * Writes the index and header, and replaces the destination file.
+         */
+        public void finish() throws IOException {
+            Integer[] order = new Integer[count];
+            for (int i = 0; i < count; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, (a, b) -> Long.compare(keys[a], keys[b]));
+            ByteBuffer index = ByteBuffer.allocate(INDEX_ENTRY_SIZE * 4096);
+            long indexOffset = position;
+            for (int i : order) {
+                if (index.remaining() < INDEX_ENTRY_SIZE) {
+                    position += write(index);
+                }
+                index.putInt((int) (keys[i] >> 32)).putInt((int) keys[i]).putLong(offsets[i]).putInt(lengths[i]);
+            }
+            position += write(index);
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(FORMAT).putLong(version).putInt(count).putLong(indexOffset);
+            header.flip();
+            while (header.hasRemaining()) {
+                channel.write(header, header.position());
+            }
+            channel.force(true);
+            channel.close();
+            raf.close();
+            Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        private int write(ByteBuffer buffer) throws IOException {
+            buffer.flip();
+            int written = buffer.remaining();
+            long start = position;
+            while (buffer.hasRemaining()) {
+                channel.write(buffer, start + buffer.position());
+            }
+            buffer.clear();
+            return written;
+        }
+
+        public int size() {
+            return count;
+        }
+
+        /**
+         * Closes the temporary file, and deletes it unless the snapshot was finished.
+         */
+        @Override
+        public void close() throws IOException {
+            if (channel.isOpen()) {
+                channel.close();
+                raf.close();
+            }
+            Files.deleteIfExists(temporary.toPath());
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package ca.momoperes.gsredis.io;
+
+import ca.momoperes.gsredis.codec.ChunkData;
+import ca.momoperes.gsredis.config.RedisWriteBehindConfiguration;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A bounded write-behind queue of chunk snapshots, flushed to redis in batches by background threads.
+ * <p>
+ * Writing a chunk that is already queued replaces its snapshot in place, so a chunk saved many times
+ * between flushes is only sent once. Queued and in-flight snapshots are visible to {@link #get(int, int)},
+ * so reads on this server always see the latest write.
+ * <p>
+ * Durability: a chunk is stored in redis once the batch holding it was flushed. A failed batch is
+ * re-queued (unless the chunk was written again since) and retried. {@link #drain(long)} blocks until
+ * every chunk queued before the call is flushed, or the timeout expires.
+ */
+public class ChunkWriteQueue {
+    private static final long RETRY_DELAY_MILLIS = 1000;
+
+    public interface BatchWriter {
+        void write(List<ChunkData> batch) throws Exception;
+    }
+
+    private final String worldName;
+    private final RedisWriteBehindConfiguration config;
+    private final BatchWriter writer;
+    private final Logger logger;
+
+    private final LinkedHashMap<Long, ChunkData> pending = new LinkedHashMap<>();
+    private final Map<Long, ChunkData> inFlight = new HashMap<>();
+    private final List<Thread> flushers = new ArrayList<>();
+    private boolean running;
+
+    public ChunkWriteQueue(String worldName, RedisWriteBehindConfiguration config, BatchWriter writer, Logger logger) {
+        this.worldName = worldName;
+        this.config = config;
+        this.writer = writer;
+        this.logger = logger;
+    }
+
+    static long key(int x, int z) {
+        return ((long) x << 32) | (z & 0xFFFFFFFFL);
+    }
+
+    public synchronized void start() {
+        running = true;
+        for (int i = 0; i < config.getFlushThreads(); i++) {
+            Thread thread = new Thread(this::flushLoop, "gsredis-write-behind-" + worldName + "-" + i);
+            thread.setDaemon(true);
+            thread.start();
+            flushers.add(thread);
+        }
+    }
+
+    /**
+     * Queues a chunk snapshot.
+     *
+     * @return false if the queue is full and configured to write through, the caller must write the chunk itself
+     */
+    public synchronized boolean offer(ChunkData data) throws InterruptedException {
+        if (!running) {
+            return false;
+        }
+        long key = key(data.getX(), data.getZ());
+        if (pending.containsKey(key) || inFlight.containsKey(key)) {
+            // never write through past an older snapshot of the same chunk
+            pending.put(key, data);
+            notifyAll();
+            return true;
+        }
+        while (pending.size() >= config.getQueueSize()) {
+            if (config.getWhenFull() == RedisWriteBehindConfiguration.FullPolicy.WRITE_THROUGH || !running) {
+                return false;
+            }
+            wait();
+        }
+        pending.put(key, data);
+        notifyAll();
+        return true;
+    }
+
+    /**
+     * The latest snapshot of a chunk that is not stored in redis yet, or null.
+     */
+    public synchronized ChunkData get(int x, int z) {
+        long key = key(x, z);
+        ChunkData data = pending.get(key);
+        return data != null ? data : inFlight.get(key);
+    }
+
+    public synchronized int size() {
+        return pending.size() + inFlight.size();
+    }
+
+    private void flushLoop() {
+        while (true) {
+            List<ChunkData> batch = new ArrayList<>(config.getBatchSize());
+            synchronized (this) {
+                while (running && pending.isEmpty()) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (pending.isEmpty()) {
+                    return;
+                }
+                Iterator<Map.Entry<Long, ChunkData>> iterator = pending.entrySet().iterator();
+                while (iterator.hasNext() && batch.size() < config.getBatchSize()) {
+                    Map.Entry<Long, ChunkData> entry = iterator.next();
+                    if (inFlight.containsKey(entry.getKey())) {
+                        // another flusher is writing an older snapshot, keep the order of writes
+                        continue;
+                    }
+                    batch.add(entry.getValue());
+                    inFlight.put(entry.getKey(), entry.getValue());
+                    iterator.remove();
+                }
+                notifyAll();
+            }
+            if (batch.isEmpty()) {
+                synchronized (this) {
+                    try {
+                        wait(RETRY_DELAY_MILLIS);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                continue;
+            }
+
+            boolean flushed;
+            try {
+                writer.write(batch);
+                flushed = true;
+            } catch (Exception e) {
+                logger.log(Level.WARNING, "Could not flush " + batch.size() + " chunks of '" + worldName + "', retrying", e);
+                flushed = false;
+            }
+            synchronized (this) {
+                for (ChunkData data : batch) {
+                    long key = key(data.getX(), data.getZ());
+                    inFlight.remove(key);
+                    if (!flushed) {
+                        pending.putIfAbsent(key, data);
+                    }
+                }
+                notifyAll();
+            }
+            if (!flushed) {
+                try {
+                    Thread.sleep(RETRY_DELAY_MILLIS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Blocks until the queue is empty.
+     *
+     * @return false if chunks were still queued when the timeout expired
+     */
+    public synchronized boolean drain(long timeoutMillis) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        while (!pending.isEmpty() || !inFlight.isEmpty()) {
+            long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (remaining <= 0) {
+                return false;
+            }
+            wait(remaining);
+        }
+        return true;
+    }
+
+    /**
+     * Drains the queue, then stops the flushers. Chunks offered afterwards are rejected.
+     *
+     * @return false if chunks were still queued when the timeout expired, those are lost
+     */
+    public boolean shutdown(long timeoutMillis) throws InterruptedException {
+        boolean drained = drain(timeoutMillis);
+        synchronized (this) {
+            running = false;
+            notifyAll();
+        }
+        if (!drained) {
+            for (Thread flusher : flushers) {
+                flusher.interrupt();
+            }
+        }
+        return drained;
+    }
+}
@@ -1,161 +1,754 @@
 package ca.momoperes.gsredis.io;
 
+import ca.momoperes.gsredis.cache.ChunkCache;
+import ca.momoperes.gsredis.cache.ChunkInvalidationBus;
+import ca.momoperes.gsredis.codec.*;
+import ca.momoperes.gsredis.config.ChunkFormat;
 import ca.momoperes.gsredis.config.RedisChunkServiceConfiguration;
-import net.glowstone.chunk.ChunkSection;
+import ca.momoperes.gsredis.config.RedisCompressionConfiguration;
+import ca.momoperes.gsredis.config.RedisGenerationConfiguration;
+import ca.momoperes.gsredis.metrics.CompressionMetrics;
+import ca.momoperes.gsredis.metrics.RedisMetrics;
+import ca.momoperes.gsredis.redis.AsyncRedisClient;
+import ca.momoperes.gsredis.redis.RedisRouter;
 import net.glowstone.chunk.GlowChunk;
-import net.glowstone.chunk.GlowChunkSnapshot;
 import net.glowstone.io.ChunkIoService;
-import net.glowstone.util.nbt.CompoundTag;
 import redis.clients.jedis.BinaryJedis;
-import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.ScanParams;
+import redis.clients.jedis.ScanResult;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+import redis.clients.jedis.exceptions.JedisDataException;
+import redis.clients.jedis.exceptions.JedisRedirectionException;
 
-import java.io.*;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.ByteBuffer;
-import java.nio.IntBuffer;
-import java.util.List;
-import java.util.Optional;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 public class RedisChunkIoService implements ChunkIoService {
 
+    private static final byte[] TERRAIN_POPULATED = "TerrainPopulated".getBytes();
+    private static final byte[] BIOMES = "Biomes".getBytes();
+    private static final byte[] HEIGHT_MAP = "HeightMap".getBytes();
+    private static final String VERSION = "version";
+    private static final byte[] VERSION_INCREMENT = "1".getBytes();
+    private static final byte[] FIRST_SECTION = "0".getBytes();
+    private static final byte[] LAST_SECTION = "15".getBytes();
+    private static final byte[] NX = "NX".getBytes();
+    private static final byte[] PX = "PX".getBytes();
+    private static final long CLAIM_POLL_MILLIS = 25;
+    // an asynchronous read or write, with the blocking calls it may chain (sections, moves, template, claim)
+    private static final int JOINED_ROUND_TRIPS = 4;
+    // ~200 bytes each
+    private static final int MAX_TRACKED_CHUNKS = 65536;
+
     private final String namespace;
     private final String worldName;
-    private final JedisPool redisPool;
+    private final RedisRouter router;
     private final RedisChunkServiceConfiguration config;
-    private BinaryJedis redis;
+    private final ChunkCodec codec;
+    private final LegacyChunkCodec legacyCodec = new LegacyChunkCodec();
+    private final SectionStore sectionStore;
+    private final ChunkCache cache;
+    private final ChunkInvalidationBus invalidationBus;
+    private final ChunkWriteQueue writeQueue;
+    private final SpillJournal journal;
+    private final RegionLeases leases;
+    private final RedisGenerationConfiguration generation;
+    // read-only service of the template world, or null
+    private final RedisChunkIoService template;
+    private final byte[] claimHolder = UUID.randomUUID().toString().getBytes();
+    // missing chunks this server claimed to generate
+    private final Set<Long> claimed = ConcurrentHashMap.newKeySet();
+    // claimed chunks written as soon as they were generated, their saves are written after them
+    private final Map<Long, GeneratedWrite> generatedWrites = new ConcurrentHashMap<>();
+    // the last asynchronous write sent for each chunk, whose completion updates the cache and the stored hashes
+    private final Map<Long, Long> latestWrites = new ConcurrentHashMap<>();
+    private final AtomicLong writeSequence = new AtomicLong();
+    // hashes of the chunks as stored in redis, for delta writes
+    private final Map<Long, long[]> storedHashes;
+    private final RedisMetrics metrics;
+    private final Logger logger;
+    private final String metaKey;
+    private final ChunkKeys keys;
+    // set once the snapshot of a read-only world is ready
+    private volatile ChunkSnapshot snapshot;
+    private volatile Runnable unloadListener = () -> {
+    };
 
-    public RedisChunkIoService(String namespace, String worldName, JedisPool redisPool, RedisChunkServiceConfiguration config) {
+    public RedisChunkIoService(String namespace, String worldName, RedisRouter router, RedisChunkServiceConfiguration config,
+                               SectionStore sectionStore, ChunkCache cache, ChunkInvalidationBus invalidationBus,
+                               SpillJournal journal, RegionLeases leases, RedisGenerationConfiguration generation,
+                               RedisChunkIoService template, RedisMetrics metrics, Logger logger) {
         this.namespace = namespace;
         this.worldName = worldName;
-        this.redisPool = redisPool;
+        this.router = router;
         this.config = config;
-        // the chunk service is initialized in the main thread,
-        // the Jedis controller is initialized when it needs to be used in the world thread.
+        this.sectionStore = sectionStore;
+        this.cache = cache;
+        this.invalidationBus = invalidationBus;
+        this.journal = journal;
+        this.leases = leases;
+        this.generation = generation;
+        this.template = template;
+        this.metrics = metrics;
+        this.logger = logger;
+        this.codec = createCodec(config.getCompression());
+        this.metaKey = namespace + ":worlds:" + worldName + ":meta";
+        this.keys = new ChunkKeys(namespace, worldName, router.isMultiNode());
+        this.storedHashes = Collections.synchronizedMap(new LinkedHashMap<Long, long[]>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, long[]> eldest) {
+                return size() > MAX_TRACKED_CHUNKS;
+            }
+        });
+        if (config.getWriteBehind().isEnabled() && !config.isReadOnly()) {
+            writeQueue = new ChunkWriteQueue(worldName, config.getWriteBehind(), this::flushBatch, logger);
+            writeQueue.start();
+        } else {
+            writeQueue = null;
+        }
+        if (journal != null) {
+            journal.setSink(SpillJournal.CHUNK, this::replay);
+        }
+        if (leases != null && cache != null) {
+            // other servers may write the region from now on
+            leases.setListener((regionX, regionZ) -> {
+                for (int x = regionX << 5; x < (regionX + 1) << 5; x++) {
+                    for (int z = regionZ << 5; z < (regionZ + 1) << 5; z++) {
+                        cache.invalidate(worldName, x, z);
+                    }
+                }
+            });
+        }
+        if (config.isReadOnly() && config.getSnapshot().isEnabled()) {
+            if (router.isMultiNode()) {
+                logger.warning("Snapshots are only supported in standalone mode, reading '" + worldName + "' from redis");
+            } else {
+                // chunks are read from redis until the snapshot is ready
+                Thread loader = new Thread(this::loadSnapshot, "gsredis-snapshot-" + worldName);
+                loader.setDaemon(true);
+                loader.start();
+            }
+        }
     }
 
-    private void initRedis() {
-        if (this.redis == null) {
-            redis = redisPool.getResource();
+    private static ChunkCodec createCodec(RedisCompressionConfiguration config) {
+        byte[] dictionary = null;
+        if (config.getDictionaryFile() != null) {
+            try {
+                dictionary = Files.readAllBytes(config.getDictionaryFile().toPath());
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not read compression dictionary " + config.getDictionaryFile(), e);
+            }
+        }
+        SectionCompression compression;
+        switch (config.getCodec()) {
+            case DEFLATE:
+                compression = new DeflateSectionCompression(config.getLevel(), dictionary);
+                break;
+            case LZ4:
+                compression = new Lz4SectionCompression();
+                break;
+            default:
+                compression = null;
+                break;
         }
-        redis.select(config.getDatabaseIndex());
+        return new ChunkCodec(compression, dictionary, new CompressionMetrics());
     }
 
-    private String chunkKey(int x, int z) {
-        return namespace + ":worlds:" + worldName + ":chunks:" + x + "_" + z;
+    public String getWorldName() {
+        return worldName;
     }
 
-    private byte[] sectionListKey(String chunkKey) {
-        return (chunkKey + ":sections").getBytes();
+    /**
+     * Runs once the world was unloaded, after its last chunks were saved and its write-behind queue drained.
+     */
+    public void setUnloadListener(Runnable unloadListener) {
+        this.unloadListener = unloadListener;
     }
 
-    private static boolean readSectionExists(DataInputStream stream) throws IOException {
-        boolean exists = stream.readBoolean();
-        return exists;
+    public CompressionMetrics getCompressionMetrics() {
+        return codec.getMetrics();
     }
 
-    private static boolean writeSectionExists(ChunkSection section, DataOutputStream stream) throws IOException {
-        stream.writeBoolean(section != null);
-        return section != null;
+    private byte[] chunkKey(int x, int z) {
+        return keys.chunk(x, z);
     }
 
-    private static byte[] readByteArray(DataInputStream stream) throws IOException {
-        int arrayLength = stream.readInt();
-        byte[] arr = new byte[arrayLength];
-        stream.read(arr);
-        return arr;
+    private byte[] sectionListKey(byte[] chunkKey) {
+        return ChunkKeys.sections(chunkKey);
     }
 
-    private static void writeByteArray(byte[] arr, DataOutputStream stream) throws IOException {
-        int length = arr.length;
-        stream.writeInt(length);
-        stream.write(arr);
+    private byte[] blobKey(byte[] chunkKey) {
+        return ChunkKeys.blob(chunkKey);
     }
 
-    private static Optional<byte[]> readOptionalByteArray(DataInputStream stream) throws IOException {
-        boolean exists = stream.readBoolean();
-        if (!exists) {
-            return Optional.empty();
-        }
-        return Optional.of(readByteArray(stream));
+    private byte[] refsKey(byte[] chunkKey) {
+        return ChunkKeys.refs(chunkKey);
     }
 
-    private static void writeOptionalByteArray(byte[] arr, DataOutputStream stream) throws IOException {
-        if (arr == null) {
-            stream.writeBoolean(false);
-            return;
-        }
-        writeByteArray(arr, stream);
+    private byte[] regionKey(int x, int z) {
+        return keys.region(x, z);
+    }
+
+    private byte[] regionRefsKey(byte[] regionKey) {
+        return ChunkKeys.refs(regionKey);
+    }
+
+    private static byte[] regionField(int x, int z) {
+        return ChunkKeys.field(x, z);
+    }
+
+    /**
+     * The layout blobs are written in, {@link ChunkFormat#BLOB} when the world uses the legacy layout.
+     */
+    private ChunkFormat blobFormat() {
+        return config.getFormat() == ChunkFormat.LEGACY ? ChunkFormat.BLOB : config.getFormat();
     }
 
     @Override
     public boolean read(GlowChunk chunk) throws IOException {
-        initRedis();
-        int x = chunk.getX();
-        int z = chunk.getZ();
-        String chunkKey = chunkKey(x, z);
-        byte[] chunkKeyBytes = chunkKey.getBytes();
-        byte[] sectionSetKey = sectionListKey(chunkKey);
-        if (!redis.exists(sectionSetKey)) {
+        if (leases != null) {
+            // the chunk is loaded, or generated if it does not exist
+            leases.pin(chunk.getX(), chunk.getZ());
+        }
+        ChunkData data = readData(chunk.getX(), chunk.getZ());
+        if (data == null) {
             return false;
         }
+        data.applyTo(chunk);
+        return true;
+    }
 
-        ChunkSection[] chunkSections = new ChunkSection[GlowChunk.SEC_COUNT];
-        List<byte[]> sections = redis.lrange(sectionSetKey, 0, 15);
-        for (int i = 0; i < chunkSections.length; i++) {
-            byte[] bytes = sections.get(i);
-            DataInputStream stream = new DataInputStream(new ByteArrayInputStream(bytes));
+    /**
+     * A chunk read with {@link #read(GlowChunk)} was unloaded, so the lease of its region can be released once no
+     * chunk of the region is loaded.
+     */
+    public void chunkUnloaded(int x, int z) {
+        if (leases != null) {
+            leases.unpin(x, z);
+        }
+    }
 
-            boolean exists = readSectionExists(stream);
-            if (!exists) {
-                chunkSections[i] = null;
-                continue;
+    /**
+     * Reads a chunk without applying it to a {@link GlowChunk}, e.g. for benchmarks and offline tools.
+     *
+     * @return the chunk, or null if it does not exist
+     */
+    public ChunkData readData(int x, int z) throws IOException {
+        if (router.getAsyncClient(config.getDatabaseIndex()) != null) {
+            return join(readDataAsync(x, z));
+        }
+        return readBlocking(x, z);
+    }
+
+    private ChunkData readBlocking(int x, int z) throws IOException {
+        long start = System.nanoTime();
+        try {
+            StoredChunk stored = readChunk(x, z);
+            metrics.chunkReads().record(start, stored == null ? 0 : stored.bytes);
+            return stored == null ? null : stored.data;
+        } catch (IOException | RuntimeException e) {
+            metrics.chunkReads().recordError(start);
+            throw e;
+        }
+    }
+
+    /**
+     * A chunk as read, with its size as stored (0 if it was queued for write-behind).
+     */
+    private static class StoredChunk {
+        private final ChunkData data;
+        private final long bytes;
+
+        private StoredChunk(ChunkData data, long bytes) {
+            this.data = data;
+            this.bytes = bytes;
+        }
+    }
+
+    /**
+     * Takes the lease of a chunk's region if it is free, so this server can cache it.
+     */
+    private void lease(int x, int z) throws IOException {
+        if (leases != null && !config.isReadOnly()) {
+            leases.acquire(x, z);
+        }
+    }
+
+    /**
+     * Whether a chunk can be cached: no other server writes it.
+     */
+    private boolean cacheable(int x, int z) {
+        return cache != null && (leases == null || leases.holds(x, z));
+    }
+
+    private StoredChunk readChunk(int x, int z) throws IOException {
+        if (writeQueue != null) {
+            // a queued write is newer than anything stored in redis
+            ChunkData queued = writeQueue.get(x, z);
+            if (queued != null) {
+                return new StoredChunk(queued.copy(), 0);
+            }
+        }
+        if (journal != null) {
+            // so is a write waiting for redis to recover
+            byte[] journaled = journal.getChunk(x, z);
+            if (journaled != null) {
+                return new StoredChunk(codec.decode(x, z, ByteBuffer.wrap(journaled)), 0);
+            }
+        }
+        ChunkSnapshot snapshot = this.snapshot;
+        if (snapshot != null) {
+            ByteBuffer blob = snapshot.get(x, z);
+            if (blob == null) {
+                // an instance of a template does not have the chunks it did not write
+                return template == null ? null : readTemplate(x, z);
             }
+            int size = blob.remaining();
+            return new StoredChunk(codec.decode(x, z, blob), size);
+        }
+        lease(x, z);
+        byte[] routingKey = chunkKey(x, z);
+        // reads may be served by a replica, chunks to move to the configured layout are moved on the primary
+        List<RedisRouter.RedisOperation<Void>> migrations = new ArrayList<>(1);
+        StoredChunk stored = router.executeRead(config.getDatabaseIndex(), routingKey,
+                redis -> readStored(redis, x, z, migrations));
+        for (RedisRouter.RedisOperation<Void> migration : migrations) {
+            router.execute(config.getDatabaseIndex(), routingKey, migration);
+        }
 
-            byte[] rawTypes = readByteArray(stream);
-            byte[] data = readByteArray(stream);
+        // todo: block entities
+        // todo: tile ticks
 
-            byte[] blockLight = readByteArray(stream);
-            byte[] skyLight = readByteArray(stream);
-            Optional<byte[]> extTypes = readOptionalByteArray(stream);
+        if (stored == null && template != null) {
+            stored = readTemplate(x, z);
+        }
+        if (stored == null && isClaimingGeneration()) {
+            return awaitGeneration(x, z, !metrics.isServerThread());
+        }
+        return stored;
+    }
 
-            CompoundTag tag = new CompoundTag();
-            tag.putByteArray("Blocks", rawTypes);
-            if (extTypes.isPresent()) {
-                tag.putByteArray("Add", extTypes.get());
+    /**
+     * Reads a chunk this world does not have from its template. The chunk is tracked as if it were stored in
+     * this world, so with delta writes it is only copied to this world's keys once it changed.
+     *
+     * @return null if the template does not have it either
+     */
+    private StoredChunk readTemplate(int x, int z) throws IOException {
+        StoredChunk stored = template.readChunk(x, z);
+        if (stored != null) {
+            track(stored.data, config.getFormat());
+        }
+        return stored;
+    }
+
+    private boolean isClaimingGeneration() {
+        return generation != null && generation.isClaims() && !config.isReadOnly();
+    }
+
+    /**
+     * Waits for the server generating a missing chunk, unless this server claims its generation. Gives up after
+     * the configured wait, the chunk is then generated by both servers and the last one written is kept. The server
+     * thread never waits, it generates chunks claimed by another server right away.
+     *
+     * @param mayWait false if the chunk is read for the server thread, even if this runs on another thread
+     * @return the chunk as generated by another server, or null if this server is to generate it
+     */
+    private StoredChunk awaitGeneration(int x, int z, boolean mayWait) throws IOException {
+        if (claimed.contains(ChunkWriteQueue.key(x, z))) {
+            return null;
+        }
+        long start = System.nanoTime();
+        long deadline = mayWait ? start + TimeUnit.MILLISECONDS.toNanos(generation.getWaitMillis()) : start;
+        byte[] chunkKey = chunkKey(x, z);
+        byte[] claimKey = ChunkKeys.claim(chunkKey);
+        try {
+            while (!claim(x, z)) {
+                // the claim is released by the generated chunk's write, or expires
+                do {
+                    if (System.nanoTime() >= deadline) {
+                        metrics.generationWaits().recordError(start);
+                        logger.fine("Gave up waiting for chunk " + x + "," + z + " of '" + worldName
+                                + "' to be generated by another server");
+                        return null;
+                    }
+                    Thread.sleep(CLAIM_POLL_MILLIS);
+                } while (router.execute(config.getDatabaseIndex(), chunkKey, redis -> redis.exists(claimKey)));
+                List<RedisRouter.RedisOperation<Void>> migrations = new ArrayList<>(0);
+                StoredChunk stored = router.execute(config.getDatabaseIndex(), chunkKey,
+                        redis -> readStored(redis, x, z, migrations));
+                if (stored != null) {
+                    metrics.generationWaits().record(start, stored.bytes);
+                    return stored;
+                }
             }
-            tag.putByteArray("Data", data);
-            tag.putByteArray("BlockLight", blockLight);
-            tag.putByteArray("SkyLight", skyLight);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for chunk " + x + "," + z + " to be generated", e);
+        }
+        return null;
+    }
+
+    /**
+     * Claims the generation of a missing chunk for this server, with SET NX.
+     *
+     * @return false if another server claimed it
+     */
+    private boolean claim(int x, int z) throws IOException {
+        byte[] claimKey = ChunkKeys.claim(chunkKey(x, z));
+        long start = System.nanoTime();
+        boolean claimed;
+        try {
+            claimed = router.execute(config.getDatabaseIndex(), claimKey,
+                    redis -> redis.set(claimKey, claimHolder, NX, PX, generation.getClaimTtlMillis()) != null);
+        } catch (IOException | RuntimeException e) {
+            metrics.generationClaims().recordError(start);
+            throw e;
+        }
+        metrics.generationClaims().record(start, 0);
+        if (claimed) {
+            this.claimed.add(ChunkWriteQueue.key(x, z));
+        }
+        return claimed;
+    }
+
+    /**
+     * Whether this server claimed the generation of a chunk and did not write it yet.
+     */
+    public boolean isClaimed(int x, int z) {
+        return claimed.contains(ChunkWriteQueue.key(x, z));
+    }
+
+    /**
+     * Checks whether a chunk still has to be generated, for pre-generation. With generation claims, the chunk's
+     * generation is claimed for this server, so reading it from the world generates it without waiting.
+     *
+     * @return false if the chunk exists, or another server is generating it
+     */
+    public boolean claimGeneration(int x, int z) throws IOException {
+        if (exists(x, z) || (template != null && template.exists(x, z))) {
+            return false;
+        }
+        return !isClaimingGeneration() || claimed.contains(ChunkWriteQueue.key(x, z)) || claim(x, z);
+    }
+
+    private boolean exists(int x, int z) throws IOException {
+        if ((writeQueue != null && writeQueue.get(x, z) != null) || (journal != null && journal.containsChunk(x, z))) {
+            return true;
+        }
+        byte[] chunkKey = chunkKey(x, z);
+        return router.executeRead(config.getDatabaseIndex(), chunkKey, redis -> {
+            Pipeline pipeline = redis.pipelined();
+            Response<Boolean> inRegion = pipeline.hexists(regionKey(x, z), regionField(x, z));
+            // the blob, or the legacy layout's hash
+            Response<Long> keys = pipeline.exists(blobKey(chunkKey), chunkKey);
+            pipeline.sync();
+            return inRegion.get() || keys.get() > 0;
+        });
+    }
+
+    /**
+     * Fetches the sections referenced by a blob.
+     */
+    private interface SectionResolver {
+        ChunkCodec.SectionSource resolve(ByteBuffer blob) throws IOException;
+    }
 
-            chunkSections[i] = ChunkSection.fromNbt(tag);
+    private StoredChunk readStored(Jedis redis, int x, int z, List<RedisRouter.RedisOperation<Void>> migrations)
+            throws IOException {
+        migrations.clear();
+        byte[] chunkKey = chunkKey(x, z);
+        byte[] regionKey = regionKey(x, z);
+        SectionResolver resolver = buffer -> sectionStore.resolve(redis, buffer);
+        StoredChunk cached = readCached(x, z, resolver);
+        if (cached != null) {
+            return cached;
         }
+        long cacheStamp = cache == null ? 0 : cache.stamp(worldName, x, z);
 
-        chunk.initializeSections(chunkSections);
-        boolean terrainPopulated = redis.hexists(chunkKeyBytes, "TerrainPopulated".getBytes())
-                && redis.hget(chunkKeyBytes, "TerrainPopulated".getBytes())[0] == 1;
-        chunk.setPopulated(terrainPopulated);
+        // fetch every layout in a single round-trip, a chunk is only stored in one of them
+        Pipeline pipeline = redis.pipelined();
+        Response<byte[]> regionResponse = pipeline.hget(regionKey, regionField(x, z));
+        Response<byte[]> blobResponse = pipeline.get(blobKey(chunkKey));
+        Response<List<byte[]>> sectionsResponse = pipeline.lrange(sectionListKey(chunkKey), 0, 15);
+        Response<List<byte[]>> fieldsResponse = pipeline.hmget(chunkKey, TERRAIN_POPULATED, BIOMES, HEIGHT_MAP);
+        pipeline.sync();
+        return decodeStored(resolver, x, z, regionResponse.get(), blobResponse.get(), sectionsResponse.get(),
+                fieldsResponse.get(), cacheStamp, migrations);
+    }
 
-        if (redis.hexists(chunkKeyBytes, "Biomes".getBytes())) {
-            byte[] biomes = redis.hget(chunkKeyBytes, "Biomes".getBytes());
-            chunk.setBiomes(biomes);
+    private StoredChunk readCached(int x, int z, SectionResolver resolver) throws IOException {
+        if (!cacheable(x, z)) {
+            return null;
+        }
+        byte[] cached = cache.get(worldName, x, z);
+        if (cached == null) {
+            return null;
         }
+        ByteBuffer buffer = ByteBuffer.wrap(cached);
+        ChunkData data = codec.decode(x, z, buffer, resolver.resolve(buffer));
+        track(data, blobFormat());
+        return new StoredChunk(data, cached.length);
+    }
 
-        if (redis.hexists(chunkKeyBytes, "HeightMap".getBytes())) {
-            byte[] heightMapRaw = redis.hget(chunkKeyBytes, "HeightMap".getBytes());
-            int[] heightMap = new int[heightMapRaw.length / 4];
-            ByteBuffer buffer = ByteBuffer.wrap(heightMapRaw);
-            int index = 0;
-            while (buffer.hasRemaining()) {
-                heightMap[index++] = buffer.getInt();
+    /**
+     * Decodes a chunk from the replies of every layout, queueing its move to the configured layout.
+     *
+     * @return null if the chunk is stored in none of them
+     */
+    private StoredChunk decodeStored(SectionResolver resolver, int x, int z, byte[] regionBlob, byte[] storedBlob,
+                                     List<byte[]> sections, List<byte[]> fields, long cacheStamp,
+                                     List<RedisRouter.RedisOperation<Void>> migrations) throws IOException {
+        byte[] chunkKey = chunkKey(x, z);
+        ChunkData data;
+        long bytes;
+        ChunkFormat storedFormat = regionBlob != null ? ChunkFormat.REGION : ChunkFormat.BLOB;
+        byte[] blob = regionBlob != null ? regionBlob : storedBlob;
+        if (blob != null) {
+            bytes = blob.length;
+            ByteBuffer buffer = ByteBuffer.wrap(blob);
+            data = codec.decode(x, z, buffer, resolver.resolve(buffer));
+            if (storedFormat != blobFormat() && config.getFormat() != ChunkFormat.LEGACY && !config.isReadOnly()
+                    && (leases == null || leases.holds(x, z))) {
+                // move the chunk to the other blob layout
+                ChunkFormat from = storedFormat;
+                ChunkData moved = data;
+                migrations.add(primary -> {
+                    moveBlob(primary, chunkKey, x, z, blob, from);
+                    track(moved, blobFormat());
+                    return null;
+                });
+            }
+            track(data, storedFormat);
+            if (cacheable(x, z)) {
+                cache.put(worldName, x, z, blob, cacheStamp);
             }
-            chunk.setHeightMap(heightMap);
         } else {
-            chunk.automaticHeightMap();
+            if (sections.isEmpty()) {
+                return null;
+            }
+            bytes = 0;
+            for (byte[] section : sections) {
+                bytes += section.length;
+            }
+            data = legacyCodec.decode(x, z, sections, fields.get(0), fields.get(1), fields.get(2));
+            track(data, ChunkFormat.LEGACY);
+            if (config.getFormat() != ChunkFormat.LEGACY && !config.isReadOnly()
+                    && (leases == null || leases.holds(x, z))) {
+                // migrate the chunk to the blob format
+                ChunkData migrated = data;
+                migrations.add(primary -> {
+                    byte[] lease = leases == null ? null : leases.acquire(x, z);
+                    if (leases != null && lease == null) {
+                        return null;
+                    }
+                    Pipeline migration = primary.pipelined();
+                    WriteCompletion completion = queueBlob(migration, chunkKey, migrated, lease);
+                    sync(migration);
+                    completion.complete(primary);
+                    return null;
+                });
+            }
         }
+        return new StoredChunk(data, bytes);
+    }
 
-        // todo: block entities
-        // todo: tile ticks
+    /**
+     * Maps the local snapshot of a read-only world, taking it first if it is missing or stale. Runs on a thread of
+     * its own from the construction of the service, chunks are read from redis if the snapshot could not be taken.
+     */
+    private void loadSnapshot() {
+        File file = new File(new File(config.getSnapshot().getDirectory(), namespace), worldName + ".snapshot");
+        try {
+            String stored = router.executeRead(config.getDatabaseIndex(), metaKey.getBytes(),
+                    redis -> redis.hget(metaKey, VERSION));
+            long version = stored == null ? 0 : Long.parseLong(stored);
+            ChunkSnapshot snapshot = ChunkSnapshot.open(file, version);
+            if (snapshot == null) {
+                long start = System.nanoTime();
+                takeSnapshot(file, version);
+                snapshot = ChunkSnapshot.open(file, version);
+                logger.info("Took a snapshot of " + snapshot.size() + " chunks of '" + worldName + "' in "
+                        + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + "ms");
+            }
+            this.snapshot = snapshot;
+        } catch (IOException | RuntimeException e) {
+            logger.log(Level.WARNING, "Could not snapshot '" + worldName + "', reading it from redis", e);
+        }
+    }
 
-        return true;
+    /**
+     * Copies every chunk of the world into a snapshot file, scanning its keys page by page.
+     * Blobs without section references are copied as they are, other chunks are re-encoded.
+     */
+    private void takeSnapshot(File file, long version) throws IOException {
+        String chunksPrefix = namespace + ":worlds:" + worldName + ":chunks:";
+        String regionsPrefix = namespace + ":worlds:" + worldName + ":regions:";
+        Set<Long> seen = new HashSet<>();
+        try (ChunkSnapshot.Writer writer = new ChunkSnapshot.Writer(file, version)) {
+            router.executeRead(config.getDatabaseIndex(), metaKey.getBytes(), redis -> {
+                for (String prefix : new String[]{chunksPrefix, regionsPrefix}) {
+                    ScanParams params = new ScanParams().match(prefix + "*").count(1000);
+                    String cursor = ScanParams.SCAN_POINTER_START;
+                    do {
+                        ScanResult<String> scan = redis.scan(cursor, params);
+                        snapshotPage(redis, writer, seen, prefix, scan.getResult());
+                        cursor = scan.getStringCursor();
+                    } while (!cursor.equals(ScanParams.SCAN_POINTER_START));
+                }
+                return null;
+            });
+            writer.finish();
+        }
+    }
+
+    private void snapshotPage(Jedis redis, ChunkSnapshot.Writer writer, Set<Long> seen, String prefix,
+                              List<String> keys) throws IOException {
+        List<int[]> blobs = new ArrayList<>();
+        List<int[]> legacy = new ArrayList<>();
+        List<String> regions = new ArrayList<>();
+        for (String key : keys) {
+            String name = key.substring(prefix.length());
+            if (name.endsWith(":refs")) {
+                continue;
+            }
+            if (name.endsWith(":blob")) {
+                blobs.add(parseChunk(name.substring(0, name.length() - ":blob".length())));
+            } else if (name.endsWith(":sections")) {
+                legacy.add(parseChunk(name.substring(0, name.length() - ":sections".length())));
+            } else if (key.startsWith(namespace + ":worlds:" + worldName + ":regions:")) {
+                regions.add(key);
+            }
+        }
+
+        Pipeline pipeline = redis.pipelined();
+        List<Response<byte[]>> blobResponses = new ArrayList<>(blobs.size());
+        for (int[] chunk : blobs) {
+            blobResponses.add(pipeline.get(blobKey(chunkKey(chunk[0], chunk[1]))));
+        }
+        List<Response<List<byte[]>>> sectionResponses = new ArrayList<>(legacy.size());
+        List<Response<List<byte[]>>> fieldResponses = new ArrayList<>(legacy.size());
+        for (int[] chunk : legacy) {
+            byte[] chunkKey = chunkKey(chunk[0], chunk[1]);
+            sectionResponses.add(pipeline.lrange(sectionListKey(chunkKey), 0, 15));
+            fieldResponses.add(pipeline.hmget(chunkKey, TERRAIN_POPULATED, BIOMES, HEIGHT_MAP));
+        }
+        List<Response<Map<byte[], byte[]>>> regionResponses = new ArrayList<>(regions.size());
+        for (String region : regions) {
+            regionResponses.add(pipeline.hgetAll(region.getBytes()));
+        }
+        pipeline.sync();
+
+        for (int i = 0; i < blobs.size(); i++) {
+            snapshotBlob(redis, writer, seen, blobs.get(i), blobResponses.get(i).get());
+        }
+        for (Response<Map<byte[], byte[]>> region : regionResponses) {
+            for (Map.Entry<byte[], byte[]> field : region.get().entrySet()) {
+                snapshotBlob(redis, writer, seen, parseChunk(new String(field.getKey())), field.getValue());
+            }
+        }
+        for (int i = 0; i < legacy.size(); i++) {
+            int[] chunk = legacy.get(i);
+            List<byte[]> sections = sectionResponses.get(i).get();
+            if (sections.isEmpty() || !seen.add(ChunkWriteQueue.key(chunk[0], chunk[1]))) {
+                continue;
+            }
+            List<byte[]> fields = fieldResponses.get(i).get();
+            ChunkData data = legacyCodec.decode(chunk[0], chunk[1], sections, fields.get(0), fields.get(1), fields.get(2));
+            writer.add(chunk[0], chunk[1], codec.encode(data));
+        }
+    }
+
+    private void snapshotBlob(Jedis redis, ChunkSnapshot.Writer writer, Set<Long> seen, int[] chunk, byte[] blob)
+            throws IOException {
+        if (blob == null || !seen.add(ChunkWriteQueue.key(chunk[0], chunk[1]))) {
+            return;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(blob);
+        if (!ChunkCodec.references(buffer).isEmpty()) {
+            // inline the deduplicated sections, the snapshot is read without redis
+            buffer.rewind();
+            blob = codec.encode(codec.decode(chunk[0], chunk[1], buffer, sectionStore.resolve(redis, ByteBuffer.wrap(blob))));
+        }
+        writer.add(chunk[0], chunk[1], blob);
+    }
+
+    private static int[] parseChunk(String name) {
+        String[] coordinates = name.split("_");
+        return new int[]{Integer.parseInt(coordinates[0]), Integer.parseInt(coordinates[1])};
+    }
+
+    /**
+     * Bumps the world version, which makes the snapshots of read-only servers stale. Snapshots are only taken in
+     * standalone mode, so the version is not kept on several nodes, where the meta key is on another node than
+     * most chunks.
+     */
+    private void bumpVersion(Pipeline pipeline) {
+        if (!router.isMultiNode()) {
+            pipeline.hincrBy(metaKey, VERSION, 1);
+        }
+    }
+
+    /**
+     * Moves a stored blob between the per-chunk and region layouts, along with its section references.
+     * The blob is not re-encoded, so the reference counts of its sections stay valid.
+     */
+    private void moveBlob(Jedis redis, byte[] chunkKey, int x, int z, byte[] blob, ChunkFormat from) {
+        byte[] regionKey = regionKey(x, z);
+        byte[] field = regionField(x, z);
+        byte[] refs = from == ChunkFormat.REGION
+                ? redis.hget(regionRefsKey(regionKey), field)
+                : redis.get(refsKey(chunkKey));
+        Pipeline pipeline = redis.pipelined();
+        pipeline.multi();
+        if (from == ChunkFormat.REGION) {
+            pipeline.set(blobKey(chunkKey), blob);
+            if (refs != null) {
+                pipeline.set(refsKey(chunkKey), refs);
+            }
+            pipeline.hdel(regionKey, field);
+            pipeline.hdel(regionRefsKey(regionKey), field);
+        } else {
+            pipeline.hset(regionKey, field, blob);
+            if (refs != null) {
+                pipeline.hset(regionRefsKey(regionKey), field, refs);
+            }
+            pipeline.del(blobKey(chunkKey), refsKey(chunkKey));
+        }
+        pipeline.exec();
+        sync(pipeline);
+    }
+
+    /**
+     * Syncs a pipeline of writes whose replies are not read otherwise, and throws the first redirection
+     * so a cluster router retries the writes on the slot's new node.
+     */
+    private static void sync(Pipeline pipeline) {
+        for (Object reply : pipeline.syncAndReturnAll()) {
+            if (reply instanceof JedisRedirectionException) {
+                throw (JedisRedirectionException) reply;
+            }
+        }
     }
 
     @Override
@@ -163,62 +756,908 @@ public class RedisChunkIoService implements ChunkIoService {
         if (config.isReadOnly()) {
             return;
         }
-        initRedis();
-        int x = chunk.getX();
-        int z = chunk.getZ();
-        String chunkKey = chunkKey(x, z);
-        byte[] sectionSetKey = sectionListKey(chunkKey);
+        // encode everything before talking to redis, so the chunk is sent in a single round-trip
+        writeData(ChunkData.fromChunk(chunk));
+    }
 
-        redis.hset(chunkKey.getBytes(), "TerrainPopulated".getBytes(), new byte[]{(byte) (chunk.isPopulated() ? 1 : 0)});
-        GlowChunkSnapshot snapshot = chunk.getChunkSnapshot(true, true, false);
-        ChunkSection[] sections = snapshot.getRawSections();
-
-        for (int i = sections.length - 1; i >= 0; i--) {
-            ChunkSection sec = sections[i];
-            ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
-            DataOutputStream stream = new DataOutputStream(byteStream);
-            boolean exists = writeSectionExists(sec, stream);
-            if (!exists) {
-                // we're done here
-                redis.lpush(sectionSetKey, byteStream.toByteArray());
-                continue;
-            }
-            sec.optimize();
-            CompoundTag tag = new CompoundTag();
-            sec.writeToNbt(tag);
+    /**
+     * Writes a chunk that is not loaded in a {@link GlowChunk}, e.g. for benchmarks and offline tools.
+     */
+    public void writeData(ChunkData data) throws IOException {
+        awaitGeneratedWrite(data.getX(), data.getZ());
+        if (router.getAsyncClient(config.getDatabaseIndex()) != null) {
+            join(writeDataAsync(data));
+            return;
+        }
+        writeBlocking(data);
+    }
 
-            byte[] rawTypes = tag.getByteArray("Blocks");
-            byte[] extTypes = tag.containsKey("Add") ? tag.getByteArray("Add") : null;
-            byte[] data = tag.getByteArray("Data");
-            byte[] blockLight = tag.getByteArray("BlockLight");
-            byte[] skyLight = tag.getByteArray("SkyLight");
+    /**
+     * The write of a chunk as generated, taken by its task or by a save of the chunk coming first.
+     */
+    private static class GeneratedWrite {
+        private final AtomicBoolean taken = new AtomicBoolean();
+        private final CompletableFuture<Void> done = new CompletableFuture<>();
+    }
 
-            writeByteArray(rawTypes, stream);
-            writeByteArray(data, stream);
-            writeByteArray(blockLight, stream);
-            writeByteArray(skyLight, stream);
-            writeOptionalByteArray(extTypes, stream);
+    /**
+     * Writes a chunk this server claimed as soon as it was generated, so other servers waiting for it do not wait
+     * until it is saved. Called on the server thread with the chunk as generated: with write-behind it is queued in
+     * order with its saves, otherwise it is written on {@code executor}. A save of the chunk waits for that write if
+     * it started, and cancels it otherwise, so the generated chunk never overwrites a newer save.
+     */
+    public void writeGenerated(ChunkData data, Executor executor) throws IOException {
+        long key = ChunkWriteQueue.key(data.getX(), data.getZ());
+        if (!claimed.contains(key)) {
+            return;
+        }
+        if (writeQueue != null) {
+            writeBlocking(data);
+            return;
+        }
+        GeneratedWrite write = new GeneratedWrite();
+        generatedWrites.put(key, write);
+        executor.execute(() -> {
+            if (!write.taken.compareAndSet(false, true)) {
+                return;
+            }
+            try {
+                if (claimed.contains(key)) {
+                    writeBlocking(data);
+                }
+            } catch (IOException | RuntimeException e) {
+                // the claim expires, and the chunk is written when it is saved
+                logger.log(Level.WARNING, "Could not write generated chunk " + data.getX() + "," + data.getZ()
+                        + " of '" + worldName + "'", e);
+            } finally {
+                generatedWrites.remove(key, write);
+                write.done.complete(null);
+            }
+        });
+    }
 
-            redis.lpush(sectionSetKey, byteStream.toByteArray());
-            stream.close();
+    /**
+     * Makes a save of a chunk land after the write of the chunk as generated, by cancelling that write if it did
+     * not start yet, or waiting for it.
+     */
+    private void awaitGeneratedWrite(int x, int z) {
+        long key = ChunkWriteQueue.key(x, z);
+        GeneratedWrite write = generatedWrites.get(key);
+        if (write == null) {
+            return;
         }
-        redis.ltrim(sectionSetKey, 0, 15);
+        if (write.taken.compareAndSet(false, true)) {
+            generatedWrites.remove(key, write);
+        } else {
+            write.done.join();
+        }
+    }
 
-        redis.hset(chunkKey.getBytes(), "Biomes".getBytes(), snapshot.getRawBiomes());
-        int[] rawHeightmap = snapshot.getRawHeightmap();
-        ByteBuffer byteBuffer = ByteBuffer.allocate(rawHeightmap.length * 4);
-        IntBuffer intBuffer = byteBuffer.asIntBuffer();
-        intBuffer.put(rawHeightmap);
-        redis.hset(chunkKey.getBytes(), "HeightMap".getBytes(), byteBuffer.array());
+    private void writeBlocking(ChunkData data) throws IOException {
+        long start = System.nanoTime();
+        try {
+            metrics.chunkWrites().record(start, writeChunk(data));
+        } catch (IOException | RuntimeException e) {
+            metrics.chunkWrites().recordError(start);
+            throw e;
+        }
+    }
+
+    /**
+     * @return the bytes sent to redis, 0 if the chunk was skipped or queued for write-behind
+     */
+    private long writeChunk(ChunkData data) throws IOException {
+        if (config.isReadOnly()) {
+            return 0;
+        }
+        if (isUnchanged(data)) {
+            return 0;
+        }
+        if (leases != null && !isLeased(data.getX(), data.getZ())) {
+            throw new IOException("Chunk " + data.getX() + "," + data.getZ() + " of '" + worldName
+                    + "' is in a region leased by another server");
+        }
+        if (writeQueue != null) {
+            try {
+                if (writeQueue.offer(data)) {
+                    return 0;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while queueing chunk " + data.getX() + "," + data.getZ(), e);
+            }
+        }
+        if (journal != null && journal.shouldSpill()) {
+            return spill(data);
+        }
+        long start = System.nanoTime();
+        byte[] routingKey = chunkKey(data.getX(), data.getZ());
+        long bytes;
+        try {
+            bytes = router.execute(config.getDatabaseIndex(), routingKey, redis -> {
+                Pipeline pipeline = redis.pipelined();
+                WriteCompletion completion = queueWrite(pipeline, data);
+                if (completion == null) {
+                    throw new IOException("Chunk " + data.getX() + "," + data.getZ() + " of '" + worldName
+                            + "' is in a region leased by another server");
+                }
+                bumpVersion(pipeline);
+                sync(pipeline);
+                return completion.complete(redis);
+            });
+        } catch (JedisConnectionException e) {
+            if (journal == null) {
+                throw e;
+            }
+            journal.getBreaker().failure();
+            return spill(data);
+        }
+        if (journal != null) {
+            journal.getBreaker().success(start);
+        }
 
         // todo: block entities
         // todo: tile ticks
+
+        return bytes;
+    }
+
+    /**
+     * Whether a chunk did not change since it was loaded or saved.
+     */
+    private boolean isUnchanged(ChunkData data) {
+        return config.isDeltaWrites() && Arrays.equals(data.getHashes(), storedHashes.get(ChunkWriteQueue.key(data.getX(), data.getZ())))
+                && (writeQueue == null || writeQueue.get(data.getX(), data.getZ()) == null);
+    }
+
+    private boolean isLeased(int x, int z) throws IOException {
+        try {
+            return leases.acquire(x, z) != null;
+        } catch (JedisConnectionException e) {
+            if (journal == null) {
+                throw e;
+            }
+            // the lease is taken when the journal is replayed, or the chunk is dropped then if another server took it
+            return true;
+        }
+    }
+
+    /**
+     * Writes a chunk to the journal, to be replayed once redis recovers.
+     *
+     * @return 0, as nothing was sent to redis
+     */
+    private long spill(ChunkData data) throws IOException {
+        journal.appendChunk(data.getX(), data.getZ(), codec.encode(data));
+        track(data, config.getFormat());
+        return 0;
+    }
+
+    /**
+     * Flushes a batch of the write-behind queue, to the journal if redis is unreachable.
+     */
+    private void flushBatch(List<ChunkData> batch) throws IOException {
+        if (journal != null && journal.shouldSpill()) {
+            for (ChunkData data : batch) {
+                spill(data);
+            }
+            return;
+        }
+        long start = System.nanoTime();
+        try {
+            writeBatch(batch);
+        } catch (JedisConnectionException e) {
+            if (journal == null) {
+                throw e;
+            }
+            journal.getBreaker().failure();
+            for (ChunkData data : batch) {
+                spill(data);
+            }
+            return;
+        }
+        if (journal != null) {
+            journal.getBreaker().success(start);
+        }
+    }
+
+    /**
+     * Writes chunks replayed from the journal.
+     */
+    private void replay(List<SpillJournal.Record> records) throws IOException {
+        List<ChunkData> batch = new ArrayList<>(records.size());
+        for (SpillJournal.Record record : records) {
+            batch.add(codec.decode(record.getX(), record.getZ(), ByteBuffer.wrap(record.getBlob())));
+        }
+        writeBatch(batch);
+    }
+
+    /**
+     * Reads a chunk without blocking the calling thread, through the router's non-blocking client: the layouts are
+     * fetched like a blocking read, pipelined with the other commands in flight, and the chunk is decoded on the
+     * client's executor. Deduplicated sections missing from the section cache and moves to the configured layout
+     * still take a blocking round-trip on that executor.
+     * <p>
+     * Without a client, or for chunks queued for write-behind, journaled or served by a snapshot, the future is completed
+     * by a blocking read on the calling thread. Chunks missing from a world with a template are read from the template,
+     * and the generation of missing chunks is claimed, by blocking on the client's executor. Missing chunks are only
+     * waited for if the calling thread is not the server thread.
+     *
+     * @return the chunk, or null if it does not exist
+     */
+    @SuppressWarnings("unchecked")
+    public CompletableFuture<ChunkData> readDataAsync(int x, int z) {
+        AsyncRedisClient async = router.getAsyncClient(config.getDatabaseIndex());
+        if (async == null || (writeQueue != null && writeQueue.get(x, z) != null)
+                || (journal != null && journal.containsChunk(x, z)) || snapshot != null) {
+            return completed(() -> readBlocking(x, z));
+        }
+        long start = System.nanoTime();
+        // decided here, the future completes on the client's executor
+        boolean mayWait = !metrics.isServerThread();
+        byte[] chunkKey = chunkKey(x, z);
+        SectionResolver resolver = buffer -> ChunkCodec.references(buffer).isEmpty()
+                ? hash -> null
+                : router.executeRead(config.getDatabaseIndex(), chunkKey, redis -> sectionStore.resolve(redis, buffer));
+        CompletableFuture<StoredChunk> stored;
+        try {
+            lease(x, z);
+            StoredChunk cached = readCached(x, z, resolver);
+            if (cached != null) {
+                stored = CompletableFuture.completedFuture(cached);
+            } else {
+                long cacheStamp = cache == null ? 0 : cache.stamp(worldName, x, z);
+                stored = async.pipeline(chunkKey, Arrays.asList(
+                        AsyncRedisClient.command("HGET", regionKey(x, z), regionField(x, z)),
+                        AsyncRedisClient.command("GET", blobKey(chunkKey)),
+                        AsyncRedisClient.command("LRANGE", sectionListKey(chunkKey), FIRST_SECTION, LAST_SECTION),
+                        AsyncRedisClient.command("HMGET", chunkKey, TERRAIN_POPULATED, BIOMES, HEIGHT_MAP))
+                ).thenApply(replies -> {
+                    List<RedisRouter.RedisOperation<Void>> migrations = new ArrayList<>(1);
+                    try {
+                        StoredChunk chunk = decodeStored(resolver, x, z, (byte[]) replies.get(0), (byte[]) replies.get(1),
+                                (List<byte[]>) replies.get(2), (List<byte[]>) replies.get(3), cacheStamp, migrations);
+                        for (RedisRouter.RedisOperation<Void> migration : migrations) {
+                            router.execute(config.getDatabaseIndex(), chunkKey, migration);
+                        }
+                        if (chunk == null && template != null) {
+                            chunk = readTemplate(x, z);
+                        }
+                        if (chunk == null && isClaimingGeneration()) {
+                            return awaitGeneration(x, z, mayWait);
+                        }
+                        return chunk;
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            }
+        } catch (IOException | RuntimeException e) {
+            stored = new CompletableFuture<>();
+            stored.completeExceptionally(e);
+        }
+        return stored.whenComplete((chunk, error) -> {
+            if (error != null) {
+                metrics.chunkReads().recordError(start);
+            } else {
+                metrics.chunkReads().record(start, chunk == null ? 0 : chunk.bytes);
+            }
+        }).thenApply(chunk -> chunk == null ? null : chunk.data);
+    }
+
+    /**
+     * Writes a chunk without blocking the calling thread, through the router's non-blocking client. The blob, the
+     * world version and the invalidation are sent together, pipelined with the other commands in flight.
+     * <p>
+     * Writes needing several round-trips (the legacy format and deduplicated sections), chunks queued for
+     * write-behind and writes going to the journal are written by blocking on the client's executor. A write failing
+     * because redis is unreachable is journaled. Without a client, the future is completed
+     * by a blocking write on the calling thread.
+     */
+    public CompletableFuture<Void> writeDataAsync(ChunkData data) {
+        awaitGeneratedWrite(data.getX(), data.getZ());
+        AsyncRedisClient async = router.getAsyncClient(config.getDatabaseIndex());
+        if (async == null) {
+            return completed(() -> {
+                writeBlocking(data);
+                return null;
+            });
+        }
+        if (config.isReadOnly() || isUnchanged(data)) {
+            return CompletableFuture.completedFuture(null);
+        }
+        if (writeQueue != null || config.getFormat() == ChunkFormat.LEGACY || config.isDeduplicate() || leases != null
+                || (journal != null && journal.shouldSpill())) {
+            return CompletableFuture.supplyAsync(() -> {
+                try {
+                    writeBlocking(data);
+                    return null;
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }, async.getExecutor());
+        }
+
+        long start = System.nanoTime();
+        int x = data.getX();
+        int z = data.getZ();
+        byte[] chunkKey = chunkKey(x, z);
+        ChunkFormat format = blobFormat();
+        byte[] blob = codec.encode(data);
+        List<byte[][]> commands = new ArrayList<>(6);
+        if (config.isAtomicWrites()) {
+            commands.add(AsyncRedisClient.command("MULTI"));
+        }
+        if (format == ChunkFormat.REGION) {
+            commands.add(AsyncRedisClient.command("HSET", regionKey(x, z), regionField(x, z), blob));
+        } else {
+            commands.add(AsyncRedisClient.command("SET", blobKey(chunkKey), blob));
+        }
+        commands.add(AsyncRedisClient.command("DEL", chunkKey, sectionListKey(chunkKey)));
+        if (config.isAtomicWrites()) {
+            commands.add(AsyncRedisClient.command("EXEC"));
+        }
+        if (claimed.remove(ChunkWriteQueue.key(x, z))) {
+            commands.add(AsyncRedisClient.command("DEL", ChunkKeys.claim(chunkKey)));
+        }
+        commands.add(AsyncRedisClient.command("HINCRBY", metaKey.getBytes(), VERSION.getBytes(), VERSION_INCREMENT));
+        if (invalidationBus != null) {
+            commands.add(invalidationBus.publishCommand(worldName, x, z));
+        }
+        // writes of a chunk are applied in the order they are sent, the sequence follows that order
+        long key = ChunkWriteQueue.key(x, z);
+        long sequence = writeSequence.incrementAndGet();
+        List<CompletableFuture<List<Object>>> sent = new ArrayList<>(1);
+        latestWrites.compute(key, (chunk, previous) -> {
+            sent.add(async.pipeline(chunkKey, commands));
+            return sequence;
+        });
+        return sent.get(0).handle((replies, error) -> {
+            // an older write completing last must not replace the newer one in the cache
+            boolean latest = latestWrites.remove(key, sequence);
+            if (error == null) {
+                if (latest) {
+                    track(data, format);
+                    if (cache != null) {
+                        cache.put(worldName, x, z, blob);
+                    }
+                }
+                metrics.chunkWrites().record(start, blob.length);
+                if (journal != null) {
+                    journal.getBreaker().success(start);
+                }
+                return null;
+            }
+            metrics.chunkWrites().recordError(start);
+            if (latest) {
+                // the write may or may not have been applied
+                storedHashes.remove(key);
+                if (cache != null) {
+                    cache.invalidate(worldName, x, z);
+                }
+            }
+            Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+            if (journal == null || !(cause instanceof JedisConnectionException)) {
+                throw error instanceof CompletionException ? (CompletionException) error : new CompletionException(error);
+            }
+            journal.getBreaker().failure();
+            // an older write is replaced by the newer one, which is journaled if it failed too
+            if (latest) {
+                try {
+                    spill(data);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            return null;
+        });
+    }
+
+    private static <T> CompletableFuture<T> completed(Callable<T> operation) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        try {
+            future.complete(operation.call());
+        } catch (Exception e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * Waits for an asynchronous read or write, rethrowing its failure like the blocking one would. The wait is
+     * bounded by the client's timeouts, for the reply and the blocking calls chained to it, and by the wait for a
+     * chunk generated by another server.
+     */
+    private <T> T join(CompletableFuture<T> future) throws IOException {
+        long timeoutMillis = router.getAsyncClient(config.getDatabaseIndex()).getTimeoutMillis() * JOINED_ROUND_TRIPS
+                + (isClaimingGeneration() ? generation.getWaitMillis() : 0);
+        try {
+            return future.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            throw new IOException("Timed out waiting for redis after " + timeoutMillis + "ms", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for redis", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) cause).getCause();
+            } else if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * Writes chunks in a single pipeline per node, on connections of their own. Used to flush the write-behind queue,
+     * to replay the journal and by bulk imports.
+     * <p>
+     * A chunk whose region is leased by another server, or whose lease was lost by the time it was written, is
+     * dropped and reported: retrying it would fail again, and hold back the other chunks of the batch.
+     */
+    public void writeBatch(List<ChunkData> batch) throws IOException {
+        long start = System.nanoTime();
+        long bytes = 0;
+        try {
+            Map<Object, List<ChunkData>> partitions = new LinkedHashMap<>();
+            for (ChunkData data : batch) {
+                partitions.computeIfAbsent(router.partition(chunkKey(data.getX(), data.getZ())),
+                        partition -> new ArrayList<>()).add(data);
+            }
+            for (List<ChunkData> partition : partitions.values()) {
+                ChunkData first = partition.get(0);
+                byte[] routingKey = chunkKey(first.getX(), first.getZ());
+                bytes += router.execute(config.getDatabaseIndex(), routingKey, redis -> {
+                    Pipeline pipeline = redis.pipelined();
+                    List<WriteCompletion> completions = new ArrayList<>(partition.size());
+                    for (ChunkData data : partition) {
+                        WriteCompletion completion = queueWrite(pipeline, data);
+                        if (completion == null) {
+                            drop(data, "its region is leased by another server");
+                        }
+                        completions.add(completion);
+                    }
+                    bumpVersion(pipeline);
+                    sync(pipeline);
+                    long written = 0;
+                    for (int i = 0; i < completions.size(); i++) {
+                        if (completions.get(i) == null) {
+                            continue;
+                        }
+                        try {
+                            written += completions.get(i).complete(redis);
+                        } catch (JedisDataException e) {
+                            if (!RegionLeases.isFenced(e)) {
+                                throw e;
+                            }
+                            drop(partition.get(i), "the lease of its region was lost");
+                        }
+                    }
+                    return written;
+                });
+            }
+        } catch (IOException | RuntimeException e) {
+            metrics.chunkBatches().recordError(start);
+            throw e;
+        }
+        metrics.chunkBatches().record(start, bytes);
+    }
+
+    /**
+     * Reports a chunk save that cannot be written. The chunk is written whole if it is saved again.
+     */
+    private void drop(ChunkData data, String reason) {
+        storedHashes.remove(ChunkWriteQueue.key(data.getX(), data.getZ()));
+        logger.severe("Dropped the save of chunk " + data.getX() + "," + data.getZ() + " of '" + worldName + "': "
+                + reason);
+    }
+
+    /**
+     * Records the hashes of a chunk read from or written to redis, if it is stored in the configured format.
+     */
+    private void track(ChunkData data, ChunkFormat format) {
+        if (config.isDeltaWrites() && format == config.getFormat()) {
+            storedHashes.put(ChunkWriteQueue.key(data.getX(), data.getZ()), data.getHashes());
+        }
+    }
+
+    /**
+     * Runs once the pipeline holding a chunk write was synced.
+     */
+    private interface WriteCompletion {
+        /**
+         * @return the bytes of chunk data sent
+         */
+        long complete(BinaryJedis redis);
     }
 
+    /**
+     * @return null if the chunk's region is leased by another server, nothing was queued then
+     */
+    private WriteCompletion queueWrite(Pipeline pipeline, ChunkData data) throws IOException {
+        byte[] lease = null;
+        if (leases != null) {
+            lease = leases.acquire(data.getX(), data.getZ());
+            if (lease == null) {
+                return null;
+            }
+        }
+        byte[] chunkKey = chunkKey(data.getX(), data.getZ());
+        if (claimed.remove(ChunkWriteQueue.key(data.getX(), data.getZ()))) {
+            // servers waiting for the chunk read it once the claim is gone
+            pipeline.del(ChunkKeys.claim(chunkKey));
+        }
+        if (config.getFormat() == ChunkFormat.LEGACY) {
+            return queueLegacy(pipeline, chunkKey, data);
+        }
+        return queueBlob(pipeline, chunkKey, data, lease);
+    }
+
+    /**
+     * @param lease the lease of the chunk's region to write under, or null without leases
+     */
+    private WriteCompletion queueBlob(Pipeline pipeline, byte[] chunkKey, ChunkData data, byte[] lease) {
+        int x = data.getX();
+        int z = data.getZ();
+        ChunkFormat format = blobFormat();
+        byte[] regionKey = regionKey(x, z);
+        if (config.isDeduplicate()) {
+            // the store's script is atomic on its own
+            SectionStore.PendingWrite write = format == ChunkFormat.REGION
+                    ? sectionStore.write(pipeline, codec, data, regionKey, regionRefsKey(regionKey),
+                    regionField(x, z), chunkKey, sectionListKey(chunkKey))
+                    : sectionStore.write(pipeline, codec, data, blobKey(chunkKey), refsKey(chunkKey),
+                    null, chunkKey, sectionListKey(chunkKey));
+            if (invalidationBus != null) {
+                invalidationBus.publish(pipeline, worldName, x, z);
+            }
+            return redis -> {
+                byte[] blob = write.complete(redis);
+                if (write.isRetried() && invalidationBus != null) {
+                    invalidationBus.publish(redis, worldName, x, z);
+                }
+                track(data, format);
+                if (cache != null) {
+                    cache.put(worldName, x, z, blob);
+                }
+                return blob.length;
+            };
+        }
+        byte[] blob = codec.encode(data);
+        if (lease != null) {
+            // the script is atomic, and other servers do not cache the chunks of regions they do not hold
+            Response<Object> written = format == ChunkFormat.REGION
+                    ? leases.write(pipeline, x, z, lease, regionKey, regionField(x, z), blob, chunkKey, sectionListKey(chunkKey))
+                    : leases.write(pipeline, x, z, lease, blobKey(chunkKey), null, blob, chunkKey, sectionListKey(chunkKey));
+            return redis -> {
+                try {
+                    written.get();
+                } catch (JedisDataException e) {
+                    leases.lost(x, z);
+                    throw e;
+                }
+                track(data, format);
+                if (cache != null) {
+                    cache.put(worldName, x, z, blob);
+                }
+                return blob.length;
+            };
+        }
+        if (config.isAtomicWrites()) {
+            pipeline.multi();
+        }
+        if (format == ChunkFormat.REGION) {
+            pipeline.hset(regionKey, regionField(x, z), blob);
+        } else {
+            pipeline.set(blobKey(chunkKey), blob);
+        }
+        pipeline.del(chunkKey, sectionListKey(chunkKey));
+        if (config.isAtomicWrites()) {
+            pipeline.exec();
+        }
+        if (invalidationBus != null) {
+            invalidationBus.publish(pipeline, worldName, x, z);
+        }
+        return redis -> {
+            track(data, format);
+            if (cache != null) {
+                cache.put(worldName, x, z, blob);
+            }
+            return blob.length;
+        };
+    }
+
+    private WriteCompletion queueLegacy(Pipeline pipeline, byte[] chunkKey, ChunkData data) throws IOException {
+        byte[] sectionSetKey = sectionListKey(chunkKey);
+        long[] stored = config.isDeltaWrites() ? storedHashes.get(ChunkWriteQueue.key(data.getX(), data.getZ())) : null;
+        long[] hashes = stored == null ? null : data.getHashes();
+        List<Response<String>> updates = new ArrayList<>();
+        long bytes = 0;
+
+        if (config.isAtomicWrites()) {
+            // readers on other servers never see a half-rebuilt section list
+            pipeline.multi();
+        }
+        if (stored == null) {
+            pipeline.del(blobKey(chunkKey), sectionSetKey);
+            byte[][] encoded = legacyCodec.encodeSections(data);
+            for (byte[] section : encoded) {
+                bytes += section.length;
+            }
+            pipeline.rpush(sectionSetKey, encoded);
+        } else {
+            // the list always holds 16 sections, only replace those that changed
+            SectionData[] sections = data.getSections();
+            for (int i = 0; i < sections.length; i++) {
+                if (hashes[i] != stored[i]) {
+                    byte[] encoded = legacyCodec.encodeSection(sections[i]);
+                    bytes += encoded.length;
+                    updates.add(pipeline.lset(sectionSetKey, i, encoded));
+                }
+            }
+        }
+        if (stored == null || hashes[ChunkHashes.METADATA] != stored[ChunkHashes.METADATA]) {
+            Map<byte[], byte[]> fields = new HashMap<>();
+            fields.put(TERRAIN_POPULATED, new byte[]{(byte) (data.isPopulated() ? 1 : 0)});
+            fields.put(BIOMES, data.getBiomes());
+            fields.put(HEIGHT_MAP, legacyCodec.encodeHeightMap(data.getHeightMap()));
+            for (byte[] value : fields.values()) {
+                bytes += value.length;
+            }
+            pipeline.hmset(chunkKey, fields);
+        }
+        if (config.isAtomicWrites()) {
+            pipeline.exec();
+        }
+        if (invalidationBus != null) {
+            invalidationBus.publish(pipeline, worldName, data.getX(), data.getZ());
+        }
+        long sent = bytes;
+        return redis -> {
+            try {
+                for (Response<String> update : updates) {
+                    update.get();
+                }
+            } catch (JedisDataException e) {
+                // e.g. the chunk was deleted since it was loaded, write it whole next time
+                storedHashes.remove(ChunkWriteQueue.key(data.getX(), data.getZ()));
+                throw e;
+            }
+            track(data, ChunkFormat.LEGACY);
+            // only blobs are cached
+            if (cache != null) {
+                cache.invalidate(worldName, data.getX(), data.getZ());
+            }
+            return sent;
+        };
+    }
+
+    /**
+     * Lists every chunk stored in the world, in any layout, scanning its keys page by page.
+     * Only the standalone keys are scanned, like for snapshots.
+     */
+    public List<ChunkPrefetcher.ChunkPosition> listChunks() throws IOException {
+        String chunksPrefix = namespace + ":worlds:" + worldName + ":chunks:";
+        String regionsPrefix = namespace + ":worlds:" + worldName + ":regions:";
+        Set<Long> seen = new HashSet<>();
+        List<ChunkPrefetcher.ChunkPosition> chunks = new ArrayList<>();
+        router.executeRead(config.getDatabaseIndex(), metaKey.getBytes(), redis -> {
+            for (String prefix : new String[]{chunksPrefix, regionsPrefix}) {
+                ScanParams params = new ScanParams().match(prefix + "*").count(1000);
+                String cursor = ScanParams.SCAN_POINTER_START;
+                do {
+                    ScanResult<String> scan = redis.scan(cursor, params);
+                    List<String> names = new ArrayList<>();
+                    Pipeline pipeline = redis.pipelined();
+                    List<Response<Set<String>>> regions = new ArrayList<>();
+                    for (String key : scan.getResult()) {
+                        String name = key.substring(prefix.length());
+                        if (name.endsWith(":blob")) {
+                            names.add(name.substring(0, name.length() - ":blob".length()));
+                        } else if (name.endsWith(":sections")) {
+                            names.add(name.substring(0, name.length() - ":sections".length()));
+                        } else if (prefix.equals(regionsPrefix) && !name.endsWith(":refs")) {
+                            regions.add(pipeline.hkeys(key));
+                        }
+                    }
+                    pipeline.sync();
+                    for (Response<Set<String>> region : regions) {
+                        names.addAll(region.get());
+                    }
+                    for (String name : names) {
+                        int[] chunk = parseChunk(name);
+                        if (seen.add(ChunkWriteQueue.key(chunk[0], chunk[1]))) {
+                            chunks.add(new ChunkPrefetcher.ChunkPosition(chunk[0], chunk[1]));
+                        }
+                    }
+                    cursor = scan.getStringCursor();
+                } while (!cursor.equals(ScanParams.SCAN_POINTER_START));
+            }
+            return null;
+        });
+        return chunks;
+    }
+
+    /**
+     * Reads chunks in a single pipeline per node, for bulk exports. Chunks that are not stored as blobs
+     * are then read one by one, and are not moved to the world's layout.
+     *
+     * @return the chunks that exist
+     */
+    public List<ChunkData> readBatch(List<ChunkPrefetcher.ChunkPosition> chunks) throws IOException {
+        Map<Object, List<ChunkPrefetcher.ChunkPosition>> partitions = new LinkedHashMap<>();
+        for (ChunkPrefetcher.ChunkPosition chunk : chunks) {
+            partitions.computeIfAbsent(router.partition(chunkKey(chunk.getX(), chunk.getZ())),
+                    partition -> new ArrayList<>()).add(chunk);
+        }
+        List<ChunkData> result = new ArrayList<>(chunks.size());
+        for (List<ChunkPrefetcher.ChunkPosition> partition : partitions.values()) {
+            ChunkPrefetcher.ChunkPosition first = partition.get(0);
+            result.addAll(router.executeRead(config.getDatabaseIndex(), chunkKey(first.getX(), first.getZ()),
+                    redis -> readBatch(redis, partition)));
+        }
+        return result;
+    }
+
+    private List<ChunkData> readBatch(Jedis redis, List<ChunkPrefetcher.ChunkPosition> chunks) throws IOException {
+        List<Response<byte[]>> regionResponses = new ArrayList<>(chunks.size());
+        List<Response<byte[]>> blobResponses = new ArrayList<>(chunks.size());
+        Pipeline pipeline = redis.pipelined();
+        for (ChunkPrefetcher.ChunkPosition chunk : chunks) {
+            regionResponses.add(pipeline.hget(regionKey(chunk.getX(), chunk.getZ()),
+                    regionField(chunk.getX(), chunk.getZ())));
+            blobResponses.add(pipeline.get(blobKey(chunkKey(chunk.getX(), chunk.getZ()))));
+        }
+        pipeline.sync();
+
+        List<ChunkData> result = new ArrayList<>(chunks.size());
+        List<RedisRouter.RedisOperation<Void>> migrations = new ArrayList<>(1);
+        for (int i = 0; i < chunks.size(); i++) {
+            int x = chunks.get(i).getX();
+            int z = chunks.get(i).getZ();
+            byte[] blob = regionResponses.get(i).get() != null ? regionResponses.get(i).get() : blobResponses.get(i).get();
+            if (blob != null) {
+                ByteBuffer buffer = ByteBuffer.wrap(blob);
+                result.add(codec.decode(x, z, buffer, sectionStore.resolve(redis, buffer)));
+                continue;
+            }
+            StoredChunk stored = readStored(redis, x, z, migrations);
+            if (stored != null) {
+                result.add(stored.data);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Whether a chunk can be read without a round-trip to redis.
+     */
+    boolean isStaged(int x, int z) {
+        return snapshot != null
+                || (cache != null && cache.contains(worldName, x, z))
+                || (writeQueue != null && writeQueue.get(x, z) != null)
+                || (journal != null && journal.containsChunk(x, z));
+    }
+
+    /**
+     * Fetches chunks in a single pipeline per node, on connections of its own, and stages them in the chunk cache
+     * so they are read from memory. Chunks that are not stored in the world's blob layout are skipped.
+     */
+    void prefetch(List<ChunkPrefetcher.ChunkPosition> chunks) throws IOException {
+        if (cache == null || chunks.isEmpty()) {
+            return;
+        }
+        if (leases != null) {
+            List<ChunkPrefetcher.ChunkPosition> cacheable = new ArrayList<>(chunks.size());
+            for (ChunkPrefetcher.ChunkPosition chunk : chunks) {
+                lease(chunk.getX(), chunk.getZ());
+                if (cacheable(chunk.getX(), chunk.getZ())) {
+                    cacheable.add(chunk);
+                }
+            }
+            chunks = cacheable;
+            if (chunks.isEmpty()) {
+                return;
+            }
+        }
+        long start = System.nanoTime();
+        long bytes = 0;
+        try {
+            Map<Object, List<ChunkPrefetcher.ChunkPosition>> partitions = new LinkedHashMap<>();
+            for (ChunkPrefetcher.ChunkPosition chunk : chunks) {
+                partitions.computeIfAbsent(router.partition(chunkKey(chunk.getX(), chunk.getZ())),
+                        partition -> new ArrayList<>()).add(chunk);
+            }
+            for (List<ChunkPrefetcher.ChunkPosition> partition : partitions.values()) {
+                ChunkPrefetcher.ChunkPosition first = partition.get(0);
+                bytes += router.executeRead(config.getDatabaseIndex(), chunkKey(first.getX(), first.getZ()),
+                        redis -> prefetch(redis, partition));
+            }
+        } catch (IOException | RuntimeException e) {
+            metrics.chunkPrefetches().recordError(start);
+            throw e;
+        }
+        metrics.chunkPrefetches().record(start, bytes);
+    }
+
+    /**
+     * @return the bytes fetched
+     */
+    private long prefetch(Jedis redis, List<ChunkPrefetcher.ChunkPosition> chunks) throws IOException {
+        long bytes = 0;
+        long[] stamps = new long[chunks.size()];
+        for (int i = 0; i < chunks.size(); i++) {
+            stamps[i] = cache.stamp(worldName, chunks.get(i).getX(), chunks.get(i).getZ());
+        }
+        byte[][] blobs = new byte[chunks.size()][];
+        Pipeline pipeline = redis.pipelined();
+        if (blobFormat() == ChunkFormat.REGION) {
+            // one HMGET per region
+            Map<ByteBuffer, List<Integer>> regions = new LinkedHashMap<>();
+            for (int i = 0; i < chunks.size(); i++) {
+                regions.computeIfAbsent(ByteBuffer.wrap(regionKey(chunks.get(i).getX(), chunks.get(i).getZ())),
+                        k -> new ArrayList<>()).add(i);
+            }
+            Map<List<Integer>, Response<List<byte[]>>> responses = new IdentityHashMap<>();
+            for (Map.Entry<ByteBuffer, List<Integer>> region : regions.entrySet()) {
+                byte[][] fields = new byte[region.getValue().size()][];
+                for (int i = 0; i < fields.length; i++) {
+                    ChunkPrefetcher.ChunkPosition chunk = chunks.get(region.getValue().get(i));
+                    fields[i] = regionField(chunk.getX(), chunk.getZ());
+                }
+                responses.put(region.getValue(), pipeline.hmget(region.getKey().array(), fields));
+            }
+            pipeline.sync();
+            responses.forEach((indices, response) -> {
+                List<byte[]> values = response.get();
+                for (int i = 0; i < indices.size(); i++) {
+                    blobs[indices.get(i)] = values.get(i);
+                }
+            });
+        } else {
+            List<Response<byte[]>> responses = new ArrayList<>(chunks.size());
+            for (ChunkPrefetcher.ChunkPosition chunk : chunks) {
+                responses.add(pipeline.get(blobKey(chunkKey(chunk.getX(), chunk.getZ()))));
+            }
+            pipeline.sync();
+            for (int i = 0; i < blobs.length; i++) {
+                blobs[i] = responses.get(i).get();
+            }
+        }
+        for (int i = 0; i < chunks.size(); i++) {
+            if (blobs[i] == null) {
+                continue;
+            }
+            if (config.isDeduplicate()) {
+                // loads the referenced sections into the section cache
+                sectionStore.resolve(redis, ByteBuffer.wrap(blobs[i]));
+            }
+            cache.stage(worldName, chunks.get(i).getX(), chunks.get(i).getZ(), blobs[i], stamps[i]);
+            bytes += blobs[i].length;
+        }
+        return bytes;
+    }
+
+    /**
+     * Called by Glowstone once the world's chunks were saved, when the world is unloaded or the server stops.
+     */
     @Override
     public void unload() throws IOException {
-        if (redis != null) {
-            redis.close();
+        try {
+            if (writeQueue != null) {
+                if (!writeQueue.shutdown(TimeUnit.SECONDS.toMillis(config.getWriteBehind().getDrainTimeoutSeconds()))) {
+                    logger.severe("Timed out flushing queued chunks of '" + worldName + "', "
+                            + writeQueue.size() + " chunk saves were lost");
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while flushing queued chunks of '" + worldName + "'", e);
+        } finally {
+            unloadListener.run();
         }
     }
 }
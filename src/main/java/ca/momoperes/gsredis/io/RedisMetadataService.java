@@ -1,48 +1,54 @@
 package ca.momoperes.gsredis.io;
 
 import ca.momoperes.gsredis.config.RedisChunkServiceConfiguration;
+import ca.momoperes.gsredis.metrics.RedisMetrics;
 import net.glowstone.GlowWorld;
 import net.glowstone.io.WorldMetadataService;
-import redis.clients.jedis.Jedis;
-import redis.clients.jedis.JedisPool;
+import ca.momoperes.gsredis.redis.RedisRouter;
 
 import java.io.IOException;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.UUID;
 
 public class RedisMetadataService implements WorldMetadataService {
     private final String namespace;
     private final GlowWorld world;
-    private final JedisPool redisPool;
+    private final RedisRouter router;
     private final RedisChunkServiceConfiguration config;
-    private Jedis redis;
+    private final RedisMetrics metrics;
 
     private final String worldKey;
+    // null if the world has no template
+    private final String templateKey;
 
-    public RedisMetadataService(String namespace, GlowWorld world, JedisPool redisPool, RedisChunkServiceConfiguration config) {
+    public RedisMetadataService(String namespace, GlowWorld world, RedisRouter router, RedisChunkServiceConfiguration config,
+                                String templateName, RedisMetrics metrics) {
         this.namespace = namespace;
         this.world = world;
-        this.redisPool = redisPool;
+        this.router = router;
         this.config = config;
+        this.metrics = metrics;
         this.worldKey = namespace + ":worlds:" + world.getName() + ":meta";
-    }
-
-    private void initRedis() {
-        if (this.redis == null) {
-            redis = redisPool.getResource();
-        }
-        redis.select(config.getDatabaseIndex());
+        this.templateKey = templateName == null ? null : namespace + ":worlds:" + templateName + ":meta";
     }
 
     @Override
-    public WorldFinalValues readWorldData() {
-        initRedis();
-        String uidString = null;
-        UUID uid;
-        if (redis.hexists(worldKey, "uid")) {
-            uidString = redis.hget(worldKey, "uid");
+    public WorldFinalValues readWorldData() throws IOException {
+        long start = System.nanoTime();
+        List<String> fields;
+        try {
+            fields = router.executeRead(config.getDatabaseIndex(), worldKey.getBytes(),
+                    redis -> redis.hmget(worldKey, "uid", "seed"));
+        } catch (IOException | RuntimeException e) {
+            metrics.worldReads().recordError(start);
+            throw e;
         }
+        metrics.worldReads().record(start, length(fields));
+        String uidString = fields.get(0);
+        UUID uid;
         if (uidString == null) {
             uid = UUID.randomUUID();
         } else {
@@ -50,9 +56,11 @@ public class RedisMetadataService implements WorldMetadataService {
         }
 
         long seed = 0;
-        String seedString = null;
-        if (redis.hexists(worldKey, "seed")) {
-            seedString = redis.hget(worldKey, "seed");
+        String seedString = fields.get(1);
+        if (seedString == null && templateKey != null) {
+            // a new instance of a template generates the chunks missing from it like the template does
+            seedString = router.executeRead(config.getDatabaseIndex(), templateKey.getBytes(),
+                    redis -> redis.hget(templateKey, "seed"));
         }
         if (seedString != null) {
             seed = Long.valueOf(seedString);
@@ -66,10 +74,26 @@ public class RedisMetadataService implements WorldMetadataService {
         if (config.isReadOnly()) {
             return;
         }
-        initRedis();
         Map<String, String> fields = new HashMap<>();
         fields.put("uid", world.getUID().toString());
         fields.put("seed", String.valueOf(world.getSeed()));
-        redis.hmset(worldKey, fields);
+        long start = System.nanoTime();
+        try {
+            router.execute(config.getDatabaseIndex(), worldKey.getBytes(), redis -> redis.hmset(worldKey, fields));
+        } catch (IOException | RuntimeException e) {
+            metrics.worldWrites().recordError(start);
+            throw e;
+        }
+        metrics.worldWrites().record(start, length(fields.values()));
+    }
+
+    static long length(Collection<String> values) {
+        long length = 0;
+        for (String value : values) {
+            if (value != null) {
+                length += value.length();
+            }
+        }
+        return length;
     }
 }
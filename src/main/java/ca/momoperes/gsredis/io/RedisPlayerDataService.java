@@ -1,64 +1,137 @@
 package ca.momoperes.gsredis.io;
 
 import ca.momoperes.gsredis.config.RedisPlayerDataServiceConfiguration;
+import ca.momoperes.gsredis.metrics.RedisMetrics;
+import ca.momoperes.gsredis.redis.RedisRouter;
 import net.glowstone.GlowOfflinePlayer;
 import net.glowstone.GlowWorld;
 import net.glowstone.entity.GlowPlayer;
+import net.glowstone.entity.meta.profile.GlowPlayerProfile;
 import net.glowstone.io.PlayerDataService;
 import net.glowstone.io.entity.EntityStorage;
 import net.glowstone.util.nbt.CompoundTag;
+import net.glowstone.util.nbt.NbtInputStream;
+import net.glowstone.util.nbt.NbtOutputStream;
+import net.glowstone.util.nbt.TagType;
 import org.bukkit.Bukkit;
 import org.bukkit.Location;
 import org.bukkit.OfflinePlayer;
 import org.bukkit.World;
 import redis.clients.jedis.Jedis;
-import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.ScanParams;
+import redis.clients.jedis.ScanResult;
+import redis.clients.jedis.exceptions.JedisConnectionException;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
-import java.util.stream.Collectors;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
+/**
+ * Stores the players of a world in redis, each in a {@code :players:<uuid>} hash whose {@code Data} field holds
+ * the player's whole compound as saved by Glowstone, in the format of a player {@code .dat} file.
+ * Players are read with a single HGETALL, which {@link #prefetch} can run before they join.
+ */
 public class RedisPlayerDataService implements PlayerDataService {
+    private static final String DATA_FIELD = "Data";
+    private static final byte[] DATA = DATA_FIELD.getBytes();
+    private static final byte[] FIRST_PLAYED = "FirstPlayed".getBytes();
+    private static final byte[] LAST_PLAYED = "LastPlayed".getBytes();
+    private static final byte[] LAST_KNOWN_NAME = "LastKnownName".getBytes();
+    private static final byte[][] SUMMARY_FIELDS = {FIRST_PLAYED, LAST_PLAYED, LAST_KNOWN_NAME};
+    private static final byte[][] LEGACY_FIELDS = {"Pos".getBytes(), "BedSpawnPos".getBytes()};
+    private static final int PAGE_SIZE = 500;
+    // summaries of the players being listed, read by their offline player without a round-trip
+    private static final ThreadLocal<Map<UUID, Map<byte[], byte[]>>> LISTED = ThreadLocal.withInitial(HashMap::new);
+    private static final long PREFETCH_EXPIRY_NANOS = TimeUnit.SECONDS.toNanos(30);
+
     private final String namespace;
     private final GlowWorld world;
-    private final JedisPool redisPool;
+    private final RedisRouter router;
     private final RedisPlayerDataServiceConfiguration config;
-    private Jedis redis;
+    private final SpillJournal journal;
+    private final RedisMetrics metrics;
 
     private final String worldKey;
+    private final String namesKey;
+    private final Map<UUID, PrefetchedData> prefetched = new ConcurrentHashMap<>();
 
-    public RedisPlayerDataService(String namespace, GlowWorld world, JedisPool redisPool, RedisPlayerDataServiceConfiguration config) {
+    public RedisPlayerDataService(String namespace, GlowWorld world, RedisRouter router, RedisPlayerDataServiceConfiguration config,
+                                  SpillJournal journal, RedisMetrics metrics) {
         this.namespace = namespace;
         this.world = world;
-        this.redisPool = redisPool;
+        this.router = router;
         this.config = config;
+        this.journal = journal;
+        this.metrics = metrics;
         this.worldKey = namespace + ":worlds:" + world.getName() + ":players";
-    }
-
-    private void initRedis() {
-        if (this.redis == null) {
-            redis = redisPool.getResource();
+        this.namesKey = worldKey + ":names";
+        if (journal != null) {
+            journal.setSink(SpillJournal.PLAYER, this::replay);
         }
-        redis.select(config.getDatabaseIndex());
     }
 
     private String playerKey(UUID uuid) {
         return worldKey + ":" + uuid.toString();
     }
 
+    /**
+     * Fetches a player's data ahead of its login, e.g. from the asynchronous pre-login event,
+     * so the server thread does not wait on redis when the player joins.
+     */
+    public void prefetch(UUID uuid) {
+        long now = System.nanoTime();
+        prefetched.values().removeIf(data -> now - data.fetchedAt > PREFETCH_EXPIRY_NANOS);
+        prefetched.put(uuid, new PrefetchedData(fetch(uuid), now));
+    }
+
+    private Map<byte[], byte[]> fetch(UUID uuid) {
+        byte[] journaled = journal == null ? null : journal.getPlayer(uuid);
+        if (journaled != null) {
+            // saved while redis was unreachable
+            return Collections.singletonMap(DATA, journaled);
+        }
+        byte[] key = playerKey(uuid).getBytes();
+        Map<byte[], byte[]> playerData;
+        long start = System.nanoTime();
+        try (Jedis redis = router.getReadResource(config.getDatabaseIndex(), key)) {
+            playerData = redis.hgetAll(key);
+        } catch (RuntimeException e) {
+            metrics.playerReads().recordError(start);
+            throw e;
+        }
+        long bytes = 0;
+        for (byte[] value : playerData.values()) {
+            bytes += value.length;
+        }
+        metrics.playerReads().record(start, bytes);
+        return playerData;
+    }
+
     @Override
     public PlayerReader beginReadingData(UUID uuid) {
-        return new RedisPlayerReader(uuid);
+        Map<byte[], byte[]> listed = LISTED.get().get(uuid);
+        if (listed != null) {
+            return new RedisPlayerReader(listed);
+        }
+        PrefetchedData data = prefetched.remove(uuid);
+        if (data != null && System.nanoTime() - data.fetchedAt <= PREFETCH_EXPIRY_NANOS) {
+            return new RedisPlayerReader(data.playerData);
+        }
+        return new RedisPlayerReader(fetch(uuid));
     }
 
     @Override
     public void readData(GlowPlayer player) {
-        initRedis();
-        CompoundTag tag = new CompoundTag();
-        EntityStorage.load(player, tag);
-        // note: certain information (position, last known name, etc.) are read in the PlayerReader impl.
-
-        // todo: inventory storage?
+        new RedisPlayerReader(fetch(player.getUniqueId())).readData(player);
     }
 
     @Override
@@ -66,55 +139,305 @@ public class RedisPlayerDataService implements PlayerDataService {
         if (config.isReadOnly()) {
             return;
         }
-        String key = playerKey(player.getUniqueId());
-        Map<String, String> playerData = new HashMap<>();
-        Location location = player.getLocation();
-        Location bedLocation = player.getLocation();
-
-        playerData.put("Pos", location.getX() + ";" + location.getY() + ";" + location.getZ() + ";" + location.getYaw() + ";" + location.getPitch());
+        CompoundTag tag = new CompoundTag();
+        EntityStorage.save(player, tag);
+        Location bedLocation = player.getBedSpawnLocation();
         if (bedLocation != null) {
-            playerData.put("BedSpawnPos", bedLocation.getWorld().getName() + ";" + bedLocation.getX() + ";" + bedLocation.getY() + ";" + bedLocation.getZ());
+            tag.putInt("SpawnX", bedLocation.getBlockX());
+            tag.putInt("SpawnY", bedLocation.getBlockY());
+            tag.putInt("SpawnZ", bedLocation.getBlockZ());
+            tag.putString("SpawnWorld", bedLocation.getWorld().getName());
+        }
+        CompoundTag bukkit = new CompoundTag();
+        bukkit.putLong("firstPlayed", player.getFirstPlayed() == 0 ? player.getJoinTime() : player.getFirstPlayed());
+        bukkit.putLong("lastPlayed", player.getJoinTime());
+        bukkit.putString("lastKnownName", player.getName());
+        tag.putCompound("bukkit", bukkit);
+        byte[] blob;
+        try {
+            blob = encodeTag(tag);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not encode the data of " + player.getName(), e);
         }
-        playerData.put("FirstPlayed", String.valueOf(player.getFirstPlayed() == 0 ? player.getJoinTime() : player.getFirstPlayed()));
-        playerData.put("LastPlayed", String.valueOf(player.getJoinTime()));
-        playerData.put("LastKnownName", player.getName());
-        redis.hmset(key, playerData);
-        redis.sadd(worldKey, player.getUniqueId().toString());
 
-        // todo: inventory storage?
+        if (journal != null && journal.shouldSpill()) {
+            spill(player.getUniqueId(), blob);
+            return;
+        }
+        long start = System.nanoTime();
+        try {
+            writeBlob(player.getUniqueId(), player.getName(), bukkit.getLong("firstPlayed"), player.getJoinTime(), blob);
+        } catch (JedisConnectionException e) {
+            if (journal == null) {
+                throw e;
+            }
+            journal.getBreaker().failure();
+            spill(player.getUniqueId(), blob);
+            return;
+        }
+        if (journal != null) {
+            journal.getBreaker().success(start);
+        }
     }
 
+    private void spill(UUID uuid, byte[] blob) {
+        try {
+            journal.appendPlayer(uuid, blob);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not journal the data of " + uuid, e);
+        }
+    }
+
+    /**
+     * Writes players replayed from the journal, their summary fields are read from their blob.
+     */
+    private void replay(List<SpillJournal.Record> records) throws IOException {
+        for (SpillJournal.Record record : records) {
+            CompoundTag bukkit = decodeTag(record.getBlob()).getCompound("bukkit");
+            writeBlob(record.getUniqueId(), bukkit.getString("lastKnownName"), bukkit.getLong("firstPlayed"),
+                    bukkit.getLong("lastPlayed"), record.getBlob());
+        }
+    }
+
+    private void writeBlob(UUID uuid, String name, long firstPlayed, long lastPlayed, byte[] blob) {
+        String key = playerKey(uuid);
+        Map<byte[], byte[]> fields = new HashMap<>();
+        fields.put(DATA, blob);
+        // read without the blob when listing players
+        fields.put(FIRST_PLAYED, String.valueOf(firstPlayed).getBytes());
+        fields.put(LAST_PLAYED, String.valueOf(lastPlayed).getBytes());
+        fields.put(LAST_KNOWN_NAME, name.getBytes(StandardCharsets.UTF_8));
+
+        // the player hash, the player set and the name index may be on different nodes
+        Map<Object, List<Consumer<Pipeline>>> partitions = new LinkedHashMap<>();
+        Map<Object, byte[]> routingKeys = new HashMap<>();
+        queue(partitions, routingKeys, key, pipeline -> {
+            pipeline.hmset(key.getBytes(), fields);
+            pipeline.hdel(key.getBytes(), LEGACY_FIELDS);
+        });
+        queue(partitions, routingKeys, worldKey, pipeline -> pipeline.sadd(worldKey, uuid.toString()));
+        queue(partitions, routingKeys, namesKey,
+                pipeline -> pipeline.hset(namesKey, name.toLowerCase(Locale.ROOT), uuid.toString()));
+        long start = System.nanoTime();
+        try {
+            for (Map.Entry<Object, List<Consumer<Pipeline>>> partition : partitions.entrySet()) {
+                try (Jedis redis = router.getResource(config.getDatabaseIndex(), routingKeys.get(partition.getKey()))) {
+                    Pipeline pipeline = redis.pipelined();
+                    partition.getValue().forEach(commands -> commands.accept(pipeline));
+                    pipeline.sync();
+                }
+            }
+        } catch (RuntimeException e) {
+            metrics.playerWrites().recordError(start);
+            throw e;
+        }
+        metrics.playerWrites().record(start, blob.length);
+    }
+
+    private void queue(Map<Object, List<Consumer<Pipeline>>> partitions, Map<Object, byte[]> routingKeys, String key,
+                       Consumer<Pipeline> commands) {
+        Object partition = router.partition(key.getBytes());
+        routingKeys.putIfAbsent(partition, key.getBytes());
+        partitions.computeIfAbsent(partition, p -> new ArrayList<>()).add(commands);
+    }
+
+    /**
+     * Encodes a player's compound like a player {@code .dat} file (gzipped NBT).
+     */
+    public static byte[] encodeTag(CompoundTag tag) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(4096);
+        try (NbtOutputStream out = new NbtOutputStream(bytes, true)) {
+            out.writeTag(tag);
+        }
+        return bytes.toByteArray();
+    }
+
+    public static CompoundTag decodeTag(byte[] blob) throws IOException {
+        try (NbtInputStream in = new NbtInputStream(new ByteArrayInputStream(blob), true)) {
+            return in.readCompound();
+        }
+    }
+
+    /**
+     * Lists the world's players lazily: iterating the collection scans the player set {@value #PAGE_SIZE} players
+     * at a time, and only fetches their name and play times, so memory use does not grow with the number of players.
+     * A player may be listed twice if the set is resized during the iteration.
+     */
     @Override
     public CompletableFuture<Collection<OfflinePlayer>> getOfflinePlayers() {
-        initRedis();
-        if (redis.exists(worldKey)) {
-            Set<String> playerIds = redis.smembers(worldKey);
-            List<CompletableFuture<GlowOfflinePlayer>> futures = new ArrayList<>(playerIds.size());
-            for (String playerId : playerIds) {
-                futures.add(GlowOfflinePlayer.getOfflinePlayer(world.getServer(), UUID.fromString(playerId)));
+        return CompletableFuture.supplyAsync(() -> {
+            try (Jedis redis = router.getReadResource(config.getDatabaseIndex(), worldKey.getBytes())) {
+                return new OfflinePlayers(redis.scard(worldKey));
             }
-            CompletableFuture<Void> gotAll = CompletableFuture.allOf((CompletableFuture[]) futures.toArray(new CompletableFuture[0]));
-            return gotAll.thenApplyAsync((v) -> futures.stream()
-                    .map(CompletableFuture::join)
-                    .collect(Collectors.toList())
-            );
+        });
+    }
+
+    /**
+     * Looks a player up by the name it was last saved with, ignoring case.
+     *
+     * @return null if no player of this world was saved with that name
+     */
+    public UUID getUniqueId(String name) {
+        String uuid;
+        try (Jedis redis = router.getReadResource(config.getDatabaseIndex(), namesKey.getBytes())) {
+            uuid = redis.hget(namesKey, name.toLowerCase(Locale.ROOT));
         }
-        return CompletableFuture.completedFuture(Collections.emptyList());
+        return uuid == null ? null : UUID.fromString(uuid);
+    }
+
+    /**
+     * Fetches the next page of the player set and creates its offline players.
+     *
+     * @return the cursor of the next page
+     */
+    private String listPage(String cursor, Deque<OfflinePlayer> players) {
+        long start = System.nanoTime();
+        long bytes = 0;
+        Map<UUID, Map<byte[], byte[]>> summaries = new LinkedHashMap<>();
+        try {
+            ScanResult<String> scan;
+            try (Jedis redis = router.getReadResource(config.getDatabaseIndex(), worldKey.getBytes())) {
+                scan = redis.sscan(worldKey, cursor, new ScanParams().count(PAGE_SIZE));
+            }
+            Map<Object, List<UUID>> partitions = new LinkedHashMap<>();
+            for (String playerId : scan.getResult()) {
+                UUID uuid = UUID.fromString(playerId);
+                partitions.computeIfAbsent(router.partition(playerKey(uuid).getBytes()), p -> new ArrayList<>()).add(uuid);
+            }
+            for (List<UUID> partition : partitions.values()) {
+                try (Jedis redis = router.getReadResource(config.getDatabaseIndex(), playerKey(partition.get(0)).getBytes())) {
+                    Pipeline pipeline = redis.pipelined();
+                    List<Response<List<byte[]>>> responses = new ArrayList<>(partition.size());
+                    for (UUID uuid : partition) {
+                        responses.add(pipeline.hmget(playerKey(uuid).getBytes(), SUMMARY_FIELDS));
+                    }
+                    pipeline.sync();
+                    for (int i = 0; i < partition.size(); i++) {
+                        Map<byte[], byte[]> summary = new HashMap<>();
+                        List<byte[]> values = responses.get(i).get();
+                        for (int field = 0; field < SUMMARY_FIELDS.length; field++) {
+                            if (values.get(field) != null) {
+                                summary.put(SUMMARY_FIELDS[field], values.get(field));
+                                bytes += values.get(field).length;
+                            }
+                        }
+                        summaries.put(partition.get(i), summary);
+                    }
+                }
+            }
+            cursor = scan.getStringCursor();
+        } catch (RuntimeException e) {
+            metrics.playerLists().recordError(start);
+            throw e;
+        }
+        metrics.playerLists().record(start, bytes);
+
+        for (Map.Entry<UUID, Map<byte[], byte[]>> summary : summaries.entrySet()) {
+            byte[] name = summary.getValue().get(LAST_KNOWN_NAME);
+            if (name == null) {
+                // saved before the summary fields, only the blob knows its name
+                continue;
+            }
+            // the offline player reads its data through beginReadingData, on this thread
+            LISTED.get().put(summary.getKey(), summary.getValue());
+            try {
+                players.add(new GlowOfflinePlayer(world.getServer(),
+                        new GlowPlayerProfile(new String(name, StandardCharsets.UTF_8), summary.getKey())));
+            } finally {
+                LISTED.get().clear();
+            }
+        }
+        return cursor;
+    }
+
+    private class OfflinePlayers extends AbstractCollection<OfflinePlayer> {
+        private final long size;
+
+        private OfflinePlayers(long size) {
+            this.size = size;
+        }
+
+        @Override
+        public Iterator<OfflinePlayer> iterator() {
+            return new Iterator<OfflinePlayer>() {
+                private final Deque<OfflinePlayer> page = new ArrayDeque<>();
+                private String cursor = ScanParams.SCAN_POINTER_START;
+                private boolean started;
+
+                @Override
+                public boolean hasNext() {
+                    while (page.isEmpty() && (!started || !cursor.equals(ScanParams.SCAN_POINTER_START))) {
+                        started = true;
+                        cursor = listPage(cursor, page);
+                    }
+                    return !page.isEmpty();
+                }
+
+                @Override
+                public OfflinePlayer next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    return page.poll();
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return (int) Math.min(size, Integer.MAX_VALUE);
+        }
+    }
+
+    /**
+     * Parses a position stored as {@code x;y;z[;yaw;pitch]}, starting at {@code offset} in the split value.
+     */
+    public static Location parseLocation(World world, String[] split, int offset) {
+        double posX = Double.parseDouble(split[offset]);
+        double posY = Double.parseDouble(split[offset + 1]);
+        double posZ = Double.parseDouble(split[offset + 2]);
+        float yaw = 0;
+        float pitch = 0;
+        if (split.length >= offset + 5) {
+            yaw = Float.parseFloat(split[offset + 3]);
+            pitch = Float.parseFloat(split[offset + 4]);
+        }
+        return new Location(world, posX, posY, posZ, yaw, pitch);
     }
 
     private class RedisPlayerReader implements PlayerReader {
 
         private final boolean hasPlayedBefore;
+        private final CompoundTag tag;
         private final Location location;
         private final Location bedSpawnLocation;
         private final long firstPlayed;
         private final long lastPlayed;
         private final String lastKnownName;
 
-        RedisPlayerReader(UUID uuid) {
-            initRedis();
-            String key = playerKey(uuid);
-            if (!redis.exists(key)) {
+        RedisPlayerReader(Map<byte[], byte[]> playerData) {
+            Map<String, byte[]> fields = new HashMap<>();
+            playerData.forEach((field, value) -> fields.put(new String(field, StandardCharsets.UTF_8), value));
+            if (fields.containsKey(DATA_FIELD)) {
+                try {
+                    tag = decodeTag(fields.get(DATA_FIELD));
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Could not decode player data", e);
+                }
+                hasPlayedBefore = true;
+                location = readLocation(tag);
+                bedSpawnLocation = readBedSpawnLocation(tag);
+                CompoundTag bukkit = tag.isCompound("bukkit") ? tag.getCompound("bukkit") : new CompoundTag();
+                firstPlayed = bukkit.isLong("firstPlayed") ? bukkit.getLong("firstPlayed") : 0;
+                lastPlayed = bukkit.isLong("lastPlayed") ? bukkit.getLong("lastPlayed") : 0;
+                lastKnownName = bukkit.isString("lastKnownName") ? bukkit.getString("lastKnownName") : null;
+                return;
+            }
+            // players saved before the data blob, moved to it on their next save
+            tag = null;
+            Map<String, String> legacy = new HashMap<>();
+            fields.forEach((field, value) -> legacy.put(field, new String(value, StandardCharsets.UTF_8)));
+            if (legacy.isEmpty()) {
                 hasPlayedBefore = false;
                 location = null;
                 bedSpawnLocation = null;
@@ -123,50 +446,57 @@ public class RedisPlayerDataService implements PlayerDataService {
                 lastKnownName = null;
                 return;
             }
-            Map<String, String> playerData = redis.hgetAll(playerKey(uuid));
-            if (playerData.containsKey("Pos")) {
-                String pos = playerData.get("Pos");
-                String[] split = pos.split(";");
-                double posX = Double.parseDouble(split[0]);
-                double posY = Double.parseDouble(split[1]);
-                double posZ = Double.parseDouble(split[2]);
-                float yaw = 0;
-                float pitch = 0;
-                if (split.length >= 5) {
-                    yaw = Float.parseFloat(split[3]);
-                    pitch = Float.parseFloat(split[4]);
-                }
-                location = new Location(world, posX, posY, posZ, yaw, pitch);
+            if (legacy.containsKey("Pos")) {
+                location = parseLocation(world, legacy.get("Pos").split(";"), 0);
             } else {
                 location = null;
             }
-            if (playerData.containsKey("BedSpawnPos")) {
-                String bedSpawnPos = playerData.get("BedSpawnPos");
-                String[] split = bedSpawnPos.split(";");
-                String worldName = split[0];
-                double posX = Double.parseDouble(split[1]);
-                double posY = Double.parseDouble(split[2]);
-                double posZ = Double.parseDouble(split[3]);
-                World bedWorld = Bukkit.getWorld(worldName);
+            if (legacy.containsKey("BedSpawnPos")) {
+                String[] split = legacy.get("BedSpawnPos").split(";");
+                World bedWorld = Bukkit.getWorld(split[0]);
                 if (bedWorld == null) bedWorld = world;
-                bedSpawnLocation = new Location(bedWorld, posX, posY, posZ);
+                bedSpawnLocation = parseLocation(bedWorld, split, 1);
             } else {
                 bedSpawnLocation = null;
             }
-            if (playerData.containsKey("FirstPlayed")) {
-                firstPlayed = Long.parseLong(playerData.get("FirstPlayed"));
+            if (legacy.containsKey("FirstPlayed")) {
+                firstPlayed = Long.parseLong(legacy.get("FirstPlayed"));
             } else {
                 firstPlayed = 0;
             }
-            if (playerData.containsKey("LastPlayed")) {
-                lastPlayed = Long.parseLong(playerData.get("LastPlayed"));
+            if (legacy.containsKey("LastPlayed")) {
+                lastPlayed = Long.parseLong(legacy.get("LastPlayed"));
             } else {
                 lastPlayed = 0;
             }
-            lastKnownName = playerData.getOrDefault("LastKnownName", null);
+            lastKnownName = legacy.getOrDefault("LastKnownName", null);
             hasPlayedBefore = true;
         }
 
+        private Location readLocation(CompoundTag tag) {
+            if (!tag.isList("Pos", TagType.DOUBLE)) {
+                return null;
+            }
+            List<Double> pos = tag.getList("Pos", TagType.DOUBLE);
+            float yaw = 0;
+            float pitch = 0;
+            if (tag.isList("Rotation", TagType.FLOAT)) {
+                List<Float> rotation = tag.getList("Rotation", TagType.FLOAT);
+                yaw = rotation.get(0);
+                pitch = rotation.get(1);
+            }
+            return new Location(world, pos.get(0), pos.get(1), pos.get(2), yaw, pitch);
+        }
+
+        private Location readBedSpawnLocation(CompoundTag tag) {
+            if (!tag.isInt("SpawnX")) {
+                return null;
+            }
+            World bedWorld = tag.isString("SpawnWorld") ? Bukkit.getWorld(tag.getString("SpawnWorld")) : null;
+            if (bedWorld == null) bedWorld = world;
+            return new Location(bedWorld, tag.getInt("SpawnX"), tag.getInt("SpawnY"), tag.getInt("SpawnZ"));
+        }
+
         @Override
         public boolean hasPlayedBefore() {
             return hasPlayedBefore;
@@ -199,11 +529,23 @@ public class RedisPlayerDataService implements PlayerDataService {
 
         @Override
         public void readData(GlowPlayer player) {
-            RedisPlayerDataService.this.readData(player);
+            if (tag != null) {
+                EntityStorage.load(player, tag);
+            }
         }
 
         @Override
         public void close() {
         }
     }
+
+    private static class PrefetchedData {
+        private final Map<byte[], byte[]> playerData;
+        private final long fetchedAt;
+
+        private PrefetchedData(Map<byte[], byte[]> playerData, long fetchedAt) {
+            this.playerData = playerData;
+            this.fetchedAt = fetchedAt;
+        }
+    }
 }
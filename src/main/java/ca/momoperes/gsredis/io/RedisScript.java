@@ -0,0 +1,50 @@
+package ca.momoperes.gsredis.io;
+
+import ca.momoperes.gsredis.codec.ChunkCodec;
+import redis.clients.jedis.BinaryJedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.exceptions.JedisDataException;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+
+/**
+ * A Lua script sent with EVALSHA, falling back to EVAL when the server does not have it cached.
+ */
+public class RedisScript {
+    private final byte[] script;
+    private final byte[] sha;
+
+    public RedisScript(String script) {
+        this.script = script.getBytes();
+        this.sha = sha1Hex(this.script).getBytes();
+    }
+
+    public Object eval(BinaryJedis redis, List<byte[]> keys, List<byte[]> args) {
+        try {
+            return redis.evalsha(sha, keys, args);
+        } catch (JedisDataException e) {
+            if (e.getMessage() == null || !e.getMessage().startsWith("NOSCRIPT")) {
+                throw e;
+            }
+            return redis.eval(script, keys, args);
+        }
+    }
+
+    /**
+     * Queues the script on a pipeline. The whole script is sent, as a missing script cannot be retried mid-pipeline.
+     */
+    public Response<Object> eval(Pipeline pipeline, List<byte[]> keys, List<byte[]> args) {
+        return pipeline.eval(script, keys, args);
+    }
+
+    private static String sha1Hex(byte[] bytes) {
+        try {
+            return ChunkCodec.toHex(MessageDigest.getInstance("SHA-1").digest(bytes));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
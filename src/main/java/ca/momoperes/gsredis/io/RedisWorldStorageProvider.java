@@ -1,35 +1,61 @@
 package ca.momoperes.gsredis.io;
 
+import ca.momoperes.gsredis.cache.ChunkCache;
+import ca.momoperes.gsredis.cache.ChunkInvalidationBus;
+import ca.momoperes.gsredis.config.ChunkFormat;
+import ca.momoperes.gsredis.config.RedisChunkServiceConfiguration;
 import ca.momoperes.gsredis.config.RedisPluginConfiguration;
+import ca.momoperes.gsredis.config.RedisSnapshotConfiguration;
+import ca.momoperes.gsredis.metrics.RedisMetrics;
+import ca.momoperes.gsredis.redis.RedisRouter;
 import net.glowstone.GlowWorld;
 import net.glowstone.io.*;
 import net.glowstone.io.data.WorldFunctionIoService;
 import net.glowstone.io.json.JsonPlayerStatisticIoService;
 import net.glowstone.io.nbt.NbtScoreboardIoService;
 import net.glowstone.io.nbt.NbtStructureDataService;
-import redis.clients.jedis.JedisPool;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
 
 public class RedisWorldStorageProvider implements WorldStorageProvider {
 
     private final String worldName;
-    private final JedisPool redisPool;
+    private final RedisRouter router;
     private final RedisPluginConfiguration config;
+    private final SectionStore sectionStore;
+    private final ChunkCache chunkCache;
+    private final ChunkInvalidationBus invalidationBus;
+    private final RedisMetrics metrics;
+    private final Logger logger;
     private GlowWorld world;
+    private SpillJournal journal;
+    private RegionLeases leases;
+    private volatile Consumer<RedisWorldStorageProvider> unloadListener = provider -> {
+    };
 
-    private ChunkIoService chunkIoService;
+    private RedisChunkIoService chunkIoService;
     private WorldMetadataService metadataService;
-    private PlayerDataService playerDataService;
+    private RedisPlayerDataService playerDataService;
     private StructureDataService structureDataService;
     private ScoreboardIoService scoreboardIoService;
     private PlayerStatisticIoService playerStatisticIoService;
     private FunctionIoService functionIoService;
 
-    public RedisWorldStorageProvider(String worldName, JedisPool redisPool, RedisPluginConfiguration config) {
+    public RedisWorldStorageProvider(String worldName, RedisRouter router, RedisPluginConfiguration config,
+                                     SectionStore sectionStore, ChunkCache chunkCache, ChunkInvalidationBus invalidationBus,
+                                     RedisMetrics metrics, Logger logger) {
         this.worldName = worldName;
-        this.redisPool = redisPool;
+        this.router = router;
         this.config = config;
+        this.sectionStore = sectionStore;
+        this.chunkCache = chunkCache;
+        this.invalidationBus = invalidationBus;
+        this.metrics = metrics;
+        this.logger = logger;
     }
 
     @Override
@@ -38,9 +64,47 @@ public class RedisWorldStorageProvider implements WorldStorageProvider {
             throw new IllegalArgumentException("World is already set.");
         }
         this.world = world;
-        chunkIoService = new RedisChunkIoService(config.getNamespace(), worldName, redisPool, config.getChunkService());
-        metadataService = new RedisMetadataService(config.getNamespace(), world, redisPool, config.getChunkService());
-        playerDataService = new RedisPlayerDataService(config.getNamespace(), world, redisPool, config.getPlayerData());
+        if (config.getJournal().isEnabled()) {
+            File file = journalFile(config, worldName);
+            try {
+                journal = new SpillJournal(worldName, file, config.getJournal(), metrics, logger);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not open journal " + file, e);
+            }
+        }
+        RedisChunkServiceConfiguration chunkService = config.getChunkService(worldName);
+        String templateName = config.getTemplate(worldName);
+        if (templateName != null && chunkService.isDeduplicate()) {
+            // dropping the instance deletes its keys without releasing its references to shared sections
+            logger.warning("Instances of templates cannot be deduplicated, '" + worldName
+                    + "' is written without deduplication");
+            chunkService = chunkService.copy();
+            chunkService.setDeduplicate(false);
+        }
+        if (config.getLeases().isEnabled()) {
+            if (chunkService.getFormat() == ChunkFormat.LEGACY || chunkService.isDeduplicate()) {
+                logger.warning("Region leases need the blob or region format without deduplication, '" + worldName
+                        + "' is written without leases");
+            } else {
+                leases = new RegionLeases(config.getNamespace(), worldName, router, chunkService.getDatabaseIndex(),
+                        config.getLeases(), metrics, logger);
+            }
+        }
+        RedisChunkIoService template = null;
+        if (templateName != null) {
+            logger.info("'" + worldName + "' reads the chunks it does not have from its template '" + templateName + "'");
+            template = new RedisChunkIoService(config.getNamespace(), templateName, router,
+                    templateService(config.getChunkService(templateName)), sectionStore, chunkCache, invalidationBus,
+                    null, null, null, null, metrics, logger);
+        }
+        chunkIoService = new RedisChunkIoService(config.getNamespace(), worldName, router, chunkService,
+                sectionStore, chunkCache, invalidationBus, journal, leases, config.getGeneration(), template, metrics,
+                logger);
+        chunkIoService.setUnloadListener(this::unloaded);
+        metadataService = new RedisMetadataService(config.getNamespace(), world, router, config.getChunkService(worldName),
+                templateName, metrics);
+        playerDataService = new RedisPlayerDataService(config.getNamespace(), world, router, config.getPlayerData(), journal,
+                metrics);
 
         // todo: redis-ify
         structureDataService = new NbtStructureDataService(world, new File(worldName + "_structures"));
@@ -49,14 +113,71 @@ public class RedisWorldStorageProvider implements WorldStorageProvider {
         functionIoService = new WorldFunctionIoService(world, new File(worldName + "_funcs"));
     }
 
+    /**
+     * The journal of a world's writes while redis is failing, whether it is enabled or not.
+     */
+    public static File journalFile(RedisPluginConfiguration config, String worldName) {
+        return new File(config.getJournal().getDirectory(), config.getNamespace() + "-" + worldName + ".journal");
+    }
+
+    /**
+     * Runs once the world was unloaded, after its chunks and players were saved: closes the journal, after a last
+     * replay, and releases the leases.
+     */
+    private void unloaded() {
+        if (journal != null) {
+            journal.close();
+        }
+        if (leases != null) {
+            leases.close();
+        }
+        unloadListener.accept(this);
+    }
+
+    /**
+     * Notified once the world was unloaded and its resources released.
+     */
+    public void setUnloadListener(Consumer<RedisWorldStorageProvider> unloadListener) {
+        this.unloadListener = unloadListener;
+    }
+
+    /**
+     * The chunk service configuration to read a template with: read-only, and without a snapshot, as the template
+     * may be loaded and edited elsewhere.
+     */
+    private static RedisChunkServiceConfiguration templateService(RedisChunkServiceConfiguration config) {
+        RedisChunkServiceConfiguration template = config.copy();
+        template.setReadOnly(true);
+        template.setSnapshot(new RedisSnapshotConfiguration(false, config.getSnapshot().getDirectory()));
+        return template;
+    }
+
     @Override
     public File getFolder() {
         // filesystem is not used
         return null;
     }
 
+    public String getWorldName() {
+        return worldName;
+    }
+
+    /**
+     * @return the world's journal, or null if it is disabled
+     */
+    public SpillJournal getJournal() {
+        return journal;
+    }
+
+    /**
+     * @return the world's region leases, or null if they are disabled
+     */
+    public RegionLeases getLeases() {
+        return leases;
+    }
+
     @Override
-    public ChunkIoService getChunkIoService() {
+    public RedisChunkIoService getChunkIoService() {
         return chunkIoService;
     }
 
@@ -66,7 +187,7 @@ public class RedisWorldStorageProvider implements WorldStorageProvider {
     }
 
     @Override
-    public PlayerDataService getPlayerDataService() {
+    public RedisPlayerDataService getPlayerDataService() {
         return playerDataService;
     }
 
@@ -0,0 +1,170 @@
+package ca.momoperes.gsredis.io;
+
+import ca.momoperes.gsredis.codec.*;
+import ca.momoperes.gsredis.metrics.CompressionMetrics;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.ScanParams;
+import redis.clients.jedis.ScanResult;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Moves every chunk of a world from the per-chunk layouts ({@code blob} and {@code legacy}) to the region layout.
+ * <p>
+ * Blobs are moved as they are, with their section references. Legacy chunks are re-encoded with LZ4.
+ * Each chunk is moved in its own MULTI/EXEC, so the conversion can be interrupted and resumed;
+ * servers using the world should still be stopped, or set to the region format, while it runs.
+ * Servers also move chunks to their configured layout when they read them, this only saves doing it lazily.
+ * Only the standalone keys are converted, worlds in the sharded and cluster modes are converted lazily.
+ * <p>
+ * Usage: {@code RegionLayoutConverter <host> <port> <database> <namespace> <world> [password]}
+ */
+public class RegionLayoutConverter {
+    private static final byte[] TERRAIN_POPULATED = "TerrainPopulated".getBytes();
+    private static final byte[] BIOMES = "Biomes".getBytes();
+    private static final byte[] HEIGHT_MAP = "HeightMap".getBytes();
+
+    private final String worldPrefix;
+    private final ChunkCodec codec = new ChunkCodec(new Lz4SectionCompression(), null, new CompressionMetrics());
+    private final LegacyChunkCodec legacyCodec = new LegacyChunkCodec();
+
+    public RegionLayoutConverter(String namespace, String worldName) {
+        this.worldPrefix = namespace + ":worlds:" + worldName;
+    }
+
+    private String chunkKey(int[] chunk) {
+        return worldPrefix + ":chunks:" + chunk[0] + "_" + chunk[1];
+    }
+
+    private String regionKey(int[] chunk) {
+        return worldPrefix + ":regions:" + (chunk[0] >> 5) + "_" + (chunk[1] >> 5);
+    }
+
+    private static byte[] regionField(int[] chunk) {
+        return (chunk[0] + "_" + chunk[1]).getBytes();
+    }
+
+    /**
+     * @return the number of chunks moved
+     */
+    public int convert(Jedis redis) throws IOException {
+        String chunksPrefix = worldPrefix + ":chunks:";
+        ScanParams params = new ScanParams().match(chunksPrefix + "*").count(1000);
+        String cursor = ScanParams.SCAN_POINTER_START;
+        int converted = 0;
+        do {
+            ScanResult<String> scan = redis.scan(cursor, params);
+            Set<String> blobs = new LinkedHashSet<>();
+            Set<String> legacy = new LinkedHashSet<>();
+            for (String key : scan.getResult()) {
+                String name = key.substring(chunksPrefix.length());
+                if (name.endsWith(":blob")) {
+                    blobs.add(name.substring(0, name.length() - ":blob".length()));
+                } else if (name.endsWith(":sections")) {
+                    legacy.add(name.substring(0, name.length() - ":sections".length()));
+                }
+            }
+            converted += moveBlobs(redis, parse(blobs));
+            converted += convertLegacy(redis, parse(legacy));
+            cursor = scan.getStringCursor();
+        } while (!cursor.equals(ScanParams.SCAN_POINTER_START));
+        return converted;
+    }
+
+    private static List<int[]> parse(Set<String> names) {
+        List<int[]> chunks = new ArrayList<>(names.size());
+        for (String name : names) {
+            String[] coordinates = name.split("_");
+            chunks.add(new int[]{Integer.parseInt(coordinates[0]), Integer.parseInt(coordinates[1])});
+        }
+        return chunks;
+    }
+
+    private int moveBlobs(Jedis redis, List<int[]> chunks) {
+        if (chunks.isEmpty()) {
+            return 0;
+        }
+        List<Response<byte[]>> blobs = new ArrayList<>(chunks.size());
+        List<Response<byte[]>> refs = new ArrayList<>(chunks.size());
+        Pipeline pipeline = redis.pipelined();
+        for (int[] chunk : chunks) {
+            blobs.add(pipeline.get((chunkKey(chunk) + ":blob").getBytes()));
+            refs.add(pipeline.get((chunkKey(chunk) + ":refs").getBytes()));
+        }
+        pipeline.sync();
+
+        int moved = 0;
+        pipeline = redis.pipelined();
+        for (int i = 0; i < chunks.size(); i++) {
+            int[] chunk = chunks.get(i);
+            byte[] blob = blobs.get(i).get();
+            if (blob == null) {
+                continue;
+            }
+            pipeline.multi();
+            pipeline.hset(regionKey(chunk).getBytes(), regionField(chunk), blob);
+            if (refs.get(i).get() != null) {
+                pipeline.hset((regionKey(chunk) + ":refs").getBytes(), regionField(chunk), refs.get(i).get());
+            }
+            pipeline.del((chunkKey(chunk) + ":blob").getBytes(), (chunkKey(chunk) + ":refs").getBytes());
+            pipeline.exec();
+            moved++;
+        }
+        pipeline.sync();
+        return moved;
+    }
+
+    private int convertLegacy(Jedis redis, List<int[]> chunks) throws IOException {
+        if (chunks.isEmpty()) {
+            return 0;
+        }
+        List<Response<List<byte[]>>> sections = new ArrayList<>(chunks.size());
+        List<Response<List<byte[]>>> fields = new ArrayList<>(chunks.size());
+        Pipeline pipeline = redis.pipelined();
+        for (int[] chunk : chunks) {
+            sections.add(pipeline.lrange((chunkKey(chunk) + ":sections").getBytes(), 0, 15));
+            fields.add(pipeline.hmget(chunkKey(chunk).getBytes(), TERRAIN_POPULATED, BIOMES, HEIGHT_MAP));
+        }
+        pipeline.sync();
+
+        int converted = 0;
+        pipeline = redis.pipelined();
+        for (int i = 0; i < chunks.size(); i++) {
+            int[] chunk = chunks.get(i);
+            if (sections.get(i).get().isEmpty()) {
+                continue;
+            }
+            List<byte[]> values = fields.get(i).get();
+            ChunkData data = legacyCodec.decode(chunk[0], chunk[1], sections.get(i).get(),
+                    values.get(0), values.get(1), values.get(2));
+            pipeline.multi();
+            pipeline.hset(regionKey(chunk).getBytes(), regionField(chunk), codec.encode(data));
+            pipeline.del(chunkKey(chunk).getBytes(), (chunkKey(chunk) + ":sections").getBytes());
+            pipeline.exec();
+            converted++;
+        }
+        pipeline.sync();
+        return converted;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 5) {
+            System.err.println("Usage: RegionLayoutConverter <host> <port> <database> <namespace> <world> [password]");
+            System.exit(1);
+        }
+        try (Jedis redis = new Jedis(args[0], Integer.parseInt(args[1]))) {
+            if (args.length > 5) {
+                redis.auth(args[5]);
+            }
+            redis.select(Integer.parseInt(args[2]));
+            int converted = new RegionLayoutConverter(args[3], args[4]).convert(redis);
+            System.out.println("Moved " + converted + " chunks of '" + args[4] + "' to the region layout");
+        }
+    }
+}
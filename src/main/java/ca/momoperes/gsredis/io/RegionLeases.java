@@ -0,0 +1,317 @@
+package ca.momoperes.gsredis.io;
+
+import ca.momoperes.gsredis.config.RedisLeaseConfiguration;
+import ca.momoperes.gsredis.metrics.RedisMetrics;
+import ca.momoperes.gsredis.redis.RedisRouter;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.exceptions.JedisDataException;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Leases of a world's regions, so each region is written by a single server at a time.
+ * <p>
+ * A lease is a {@code <world>:leases:<region>} key holding {@code <holder>:<token>}, set with a TTL by the first
+ * server reading or writing the region while it is free. Tokens come from the region's {@code :fence} counter and
+ * only ever grow, so a lease taken again after it expired is a different lease. Chunk writes go through a script
+ * checking the lease they were made under is still the region's: a server that stalled past its lease cannot
+ * overwrite the writes of the next holder.
+ * <p>
+ * Held leases are renewed every third of the TTL. A lease is kept while any chunk of its region is loaded, and
+ * released once none is and the region was not read or written for the idle delay, so ownership follows the
+ * players between servers. A lease is considered lost locally half a TTL
+ * after its last renewal, well before it expires in redis.
+ */
+public class RegionLeases implements AutoCloseable {
+    // KEYS: lease, fence counter
+    // ARGV: holder, TTL in milliseconds
+    // Returns the lease value if this holder has the lease, or the remaining TTL of another holder's lease.
+    private static final RedisScript ACQUIRE_SCRIPT = new RedisScript(
+            "local lease = redis.call('GET', KEYS[1])\n" +
+            "if lease then\n" +
+            "  if string.sub(lease, 1, #ARGV[1] + 1) == ARGV[1] .. ':' then\n" +
+            "    redis.call('PEXPIRE', KEYS[1], ARGV[2])\n" +
+            "    return lease\n" +
+            "  end\n" +
+            "  return redis.call('PTTL', KEYS[1])\n" +
+            "end\n" +
+            "lease = ARGV[1] .. ':' .. redis.call('INCR', KEYS[2])\n" +
+            "redis.call('SET', KEYS[1], lease, 'PX', ARGV[2])\n" +
+            "return lease\n");
+
+    // KEYS: lease
+    // ARGV: lease value, TTL in milliseconds
+    private static final RedisScript RENEW_SCRIPT = new RedisScript(
+            "if redis.call('GET', KEYS[1]) == ARGV[1] then return redis.call('PEXPIRE', KEYS[1], ARGV[2]) end\n" +
+            "return 0\n");
+
+    // KEYS: lease
+    // ARGV: lease value
+    private static final RedisScript RELEASE_SCRIPT = new RedisScript(
+            "if redis.call('GET', KEYS[1]) == ARGV[1] then return redis.call('DEL', KEYS[1]) end\n" +
+            "return 0\n");
+
+    // KEYS: lease, chunk blob (or region hash), keys to delete (legacy layout)
+    // ARGV: lease value, chunk blob, hash field of the chunk (empty if the blob is a plain key)
+    private static final RedisScript WRITE_SCRIPT = new RedisScript(
+            "if redis.call('GET', KEYS[1]) ~= ARGV[1] then\n" +
+            "  return redis.error_reply('FENCED the lease of the region was lost')\n" +
+            "end\n" +
+            "if ARGV[3] == '' then\n" +
+            "  redis.call('SET', KEYS[2], ARGV[2])\n" +
+            "else\n" +
+            "  redis.call('HSET', KEYS[2], ARGV[3], ARGV[2])\n" +
+            "end\n" +
+            "for i = 3, #KEYS do redis.call('DEL', KEYS[i]) end\n" +
+            "return 1\n");
+    private static final byte[] NO_FIELD = new byte[0];
+
+    private final String worldName;
+    private final RedisRouter router;
+    private final int databaseIndex;
+    private final ChunkKeys keys;
+    private final byte[] holder = UUID.randomUUID().toString().getBytes(StandardCharsets.UTF_8);
+    private final byte[] ttl;
+    private final long validityNanos;
+    private final long idleNanos;
+    private final RedisMetrics metrics;
+    private final Logger logger;
+    private final Map<Long, Lease> leases = new ConcurrentHashMap<>();
+    // loaded chunks, by region
+    private final Map<Long, Set<Long>> loaded = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService renewer;
+    private volatile RegionListener listener = (regionX, regionZ) -> {
+    };
+
+    /**
+     * A region's lease as last seen by this server.
+     */
+    private static class Lease {
+        // null if the region is leased by another server
+        private final byte[] value;
+        private volatile long validUntil;
+        private volatile long lastUsed;
+
+        private Lease(byte[] value, long validUntil, long lastUsed) {
+            this.value = value;
+            this.validUntil = validUntil;
+            this.lastUsed = lastUsed;
+        }
+    }
+
+    /**
+     * Notified when this server stops holding a region's lease.
+     */
+    public interface RegionListener {
+        void released(int regionX, int regionZ);
+    }
+
+    public RegionLeases(String namespace, String worldName, RedisRouter router, int databaseIndex,
+                        RedisLeaseConfiguration config, RedisMetrics metrics, Logger logger) {
+        this.worldName = worldName;
+        this.router = router;
+        this.databaseIndex = databaseIndex;
+        this.keys = new ChunkKeys(namespace, worldName, router.isMultiNode());
+        this.ttl = String.valueOf(config.getTtlMillis()).getBytes();
+        this.validityNanos = TimeUnit.MILLISECONDS.toNanos(config.getTtlMillis()) / 2;
+        this.idleNanos = TimeUnit.MILLISECONDS.toNanos(config.getIdleReleaseMillis());
+        this.metrics = metrics;
+        this.logger = logger;
+        this.renewer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "gsredis-leases-" + worldName);
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = config.getTtlMillis() / 3;
+        renewer.scheduleWithFixedDelay(this::renew, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    public void setListener(RegionListener listener) {
+        this.listener = listener;
+    }
+
+    private static long region(int x, int z) {
+        return ChunkWriteQueue.key(x >> 5, z >> 5);
+    }
+
+    /**
+     * Takes or renews the lease of a chunk's region, unless another server holds it. Leases are remembered, so
+     * this only takes a round-trip for the first chunk of a region, and while another server holds it, once
+     * every half TTL.
+     *
+     * @return the lease to write the chunk under, or null if another server holds it
+     */
+    public byte[] acquire(int x, int z) throws IOException {
+        long region = region(x, z);
+        long start = System.nanoTime();
+        Lease lease = leases.get(region);
+        if (lease != null && start < lease.validUntil) {
+            lease.lastUsed = start;
+            return lease.value;
+        }
+        byte[] key = keys.lease(x, z);
+        Object reply;
+        try {
+            reply = router.execute(databaseIndex, key,
+                    redis -> ACQUIRE_SCRIPT.eval(redis, Arrays.asList(key, ChunkKeys.fence(key)), Arrays.asList(holder, ttl)));
+        } catch (IOException | RuntimeException e) {
+            metrics.leaseAcquires().recordError(start);
+            throw e;
+        }
+        metrics.leaseAcquires().record(start, 0);
+        if (reply instanceof byte[]) {
+            lease = new Lease((byte[]) reply, start + validityNanos, start);
+        } else {
+            // asked again once the other server's lease may have expired
+            long remaining = TimeUnit.MILLISECONDS.toNanos(Math.max(0, (Long) reply));
+            lease = new Lease(null, start + Math.min(remaining, validityNanos), start);
+        }
+        leases.put(region, lease);
+        return lease.value;
+    }
+
+    /**
+     * Whether this server holds the lease of a chunk's region, without a round-trip.
+     */
+    public boolean holds(int x, int z) {
+        Lease lease = leases.get(region(x, z));
+        return lease != null && lease.value != null && System.nanoTime() < lease.validUntil;
+    }
+
+    /**
+     * Keeps the lease of a chunk's region from being released while the chunk is loaded.
+     */
+    public void pin(int x, int z) {
+        loaded.computeIfAbsent(region(x, z), region -> ConcurrentHashMap.newKeySet()).add(ChunkWriteQueue.key(x, z));
+    }
+
+    /**
+     * Lets the lease of a chunk's region be released once the chunk was unloaded, after the idle delay if no other
+     * chunk of the region is loaded.
+     */
+    public void unpin(int x, int z) {
+        long region = region(x, z);
+        loaded.computeIfPresent(region, (key, chunks) -> {
+            chunks.remove(ChunkWriteQueue.key(x, z));
+            return chunks.isEmpty() ? null : chunks;
+        });
+        Lease lease = leases.get(region);
+        if (lease != null) {
+            lease.lastUsed = System.nanoTime();
+        }
+    }
+
+    /**
+     * Forgets the lease of a chunk's region after a write was fenced off.
+     */
+    public void lost(int x, int z) {
+        long region = region(x, z);
+        Lease lease = leases.get(region);
+        if (lease != null && lease.value != null) {
+            logger.warning("Lost the lease of region " + (x >> 5) + "," + (z >> 5) + " of '" + worldName + "'");
+            drop(region, lease);
+        }
+    }
+
+    private void drop(long region, Lease lease) {
+        if (leases.remove(region, lease) && lease.value != null) {
+            listener.released((int) (region >> 32), (int) region);
+        }
+    }
+
+    /**
+     * Queues a chunk write that only applies if {@code lease} is still the lease of its region. The response fails
+     * with a {@code FENCED} error otherwise.
+     *
+     * @param field the chunk's field if {@code key} is its region hash, or null
+     */
+    Response<Object> write(Pipeline pipeline, int x, int z, byte[] lease, byte[] key, byte[] field, byte[] blob,
+                           byte[]... deletedKeys) {
+        byte[][] scriptKeys = new byte[2 + deletedKeys.length][];
+        scriptKeys[0] = keys.lease(x, z);
+        scriptKeys[1] = key;
+        System.arraycopy(deletedKeys, 0, scriptKeys, 2, deletedKeys.length);
+        return WRITE_SCRIPT.eval(pipeline, Arrays.asList(scriptKeys),
+                Arrays.asList(lease, blob, field == null ? NO_FIELD : field));
+    }
+
+    /**
+     * Whether a write failed because the lease it was made under is no longer the region's.
+     */
+    static boolean isFenced(JedisDataException e) {
+        return e.getMessage() != null && e.getMessage().startsWith("FENCED");
+    }
+
+    private void renew() {
+        for (Map.Entry<Long, Lease> entry : leases.entrySet()) {
+            long region = entry.getKey();
+            Lease lease = entry.getValue();
+            long start = System.nanoTime();
+            if (lease.value == null) {
+                if (start >= lease.validUntil) {
+                    leases.remove(region, lease);
+                }
+                continue;
+            }
+            byte[] key = keys.lease((int) (region >> 32) << 5, (int) region << 5);
+            try {
+                if (start - lease.lastUsed > idleNanos && !loaded.containsKey(region)) {
+                    drop(region, lease);
+                    router.execute(databaseIndex, key,
+                            redis -> RELEASE_SCRIPT.eval(redis, Arrays.asList(key), Arrays.asList(lease.value)));
+                    continue;
+                }
+                Object renewed = router.execute(databaseIndex, key,
+                        redis -> RENEW_SCRIPT.eval(redis, Arrays.asList(key), Arrays.asList(lease.value, ttl)));
+                metrics.leaseRenewals().record(start, 0);
+                if (Long.valueOf(1).equals(renewed)) {
+                    lease.validUntil = start + validityNanos;
+                } else {
+                    logger.warning("The lease of region " + (region >> 32) + "," + (int) region + " of '" + worldName
+                            + "' expired before it was renewed");
+                    drop(region, lease);
+                }
+            } catch (IOException | RuntimeException e) {
+                // the lease expires locally if redis stays unreachable
+                metrics.leaseRenewals().recordError(start);
+                logger.log(Level.FINE, "Could not renew the lease of a region of '" + worldName + "'", e);
+            }
+        }
+    }
+
+    /**
+     * Stops renewing leases and releases every lease held, so other servers can take the regions right away.
+     */
+    @Override
+    public void close() {
+        renewer.shutdownNow();
+        for (Map.Entry<Long, Lease> entry : leases.entrySet()) {
+            Lease lease = entry.getValue();
+            if (lease.value == null) {
+                continue;
+            }
+            long region = entry.getKey();
+            byte[] key = keys.lease((int) (region >> 32) << 5, (int) region << 5);
+            try {
+                router.execute(databaseIndex, key,
+                        redis -> RELEASE_SCRIPT.eval(redis, Arrays.asList(key), Arrays.asList(lease.value)));
+            } catch (IOException | RuntimeException e) {
+                logger.log(Level.FINE, "Could not release the lease of a region of '" + worldName + "'", e);
+            }
+        }
+        leases.clear();
+        loaded.clear();
+    }
+}
@@ -0,0 +1,249 @@
+package ca.momoperes.gsredis.io;
+
+import ca.momoperes.gsredis.codec.ChunkCodec;
+import ca.momoperes.gsredis.codec.ChunkData;
+import redis.clients.jedis.BinaryJedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * Content-addressed storage of chunk sections, shared by every world and namespace of a database.
+ * <p>
+ * Section entries are stored once under {@code gsredis:sections:<sha256>}, addressed by their raw payload (and the
+ * deflate dictionary they were compressed with, see {@link ChunkCodec}), with a reference count in
+ * the {@code gsredis:sections:refs} hash. Chunks only hold the hashes of their sections, and list them
+ * under {@code <chunk key>:refs} (or in their region's refs hash) so a rewrite can release the sections
+ * it no longer uses.
+ * Entries seen by this server are kept in a bounded in-memory cache and are never fetched twice.
+ */
+public class SectionStore {
+    private static final String KEY_PREFIX = "gsredis:sections:";
+    private static final byte[] REFCOUNT_KEY = (KEY_PREFIX + "refs").getBytes();
+
+    // KEYS: chunk blob, chunk refs, refcount hash, keys to delete (legacy layout)
+    // ARGV: chunk blob, concatenated section hashes, section key prefix, hash field of the chunk
+    //       (empty if the blob and refs are plain keys), then (hash, entry) pairs
+    // Returns the hashes missing both from the arguments and redis, without writing anything, or 0.
+    private static final RedisScript WRITE_SCRIPT = new RedisScript(
+            "local prefix = ARGV[3]\n" +
+            "local field = ARGV[4]\n" +
+            "local new = ARGV[2]\n" +
+            "local entries = {}\n" +
+            "for i = 5, #ARGV, 2 do entries[ARGV[i]] = ARGV[i + 1] end\n" +
+            "local missing = {}\n" +
+            "for i = 1, #new, 64 do\n" +
+            "  local hash = string.sub(new, i, i + 63)\n" +
+            "  if not entries[hash] and redis.call('EXISTS', prefix .. hash) == 0 then\n" +
+            "    table.insert(missing, hash)\n" +
+            "  end\n" +
+            "end\n" +
+            "if #missing > 0 then return missing end\n" +
+            "for hash, entry in pairs(entries) do redis.call('SET', prefix .. hash, entry, 'NX') end\n" +
+            "for i = 1, #new, 64 do redis.call('HINCRBY', KEYS[3], string.sub(new, i, i + 63), 1) end\n" +
+            "local old\n" +
+            "if field == '' then old = redis.call('GET', KEYS[2]) else old = redis.call('HGET', KEYS[2], field) end\n" +
+            "if old then\n" +
+            "  for i = 1, #old, 64 do\n" +
+            "    local hash = string.sub(old, i, i + 63)\n" +
+            "    if redis.call('HINCRBY', KEYS[3], hash, -1) <= 0 then\n" +
+            "      redis.call('HDEL', KEYS[3], hash)\n" +
+            "      redis.call('DEL', prefix .. hash)\n" +
+            "    end\n" +
+            "  end\n" +
+            "end\n" +
+            "if field == '' then\n" +
+            "  redis.call('SET', KEYS[1], ARGV[1])\n" +
+            "  redis.call('SET', KEYS[2], new)\n" +
+            "else\n" +
+            "  redis.call('HSET', KEYS[1], field, ARGV[1])\n" +
+            "  redis.call('HSET', KEYS[2], field, new)\n" +
+            "end\n" +
+            "for i = 4, #KEYS do redis.call('DEL', KEYS[i]) end\n" +
+            "return 0\n");
+
+    private final Map<String, byte[]> cache;
+
+    public SectionStore(int cacheSize) {
+        this.cache = Collections.synchronizedMap(new LinkedHashMap<String, byte[]>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, byte[]> eldest) {
+                return size() > cacheSize;
+            }
+        });
+    }
+
+    private static byte[] sectionKey(String hash) {
+        return (KEY_PREFIX + hash).getBytes();
+    }
+
+    /**
+     * Fetches the sections referenced by an encoded chunk that are not cached yet, in a single MGET.
+     */
+    public ChunkCodec.SectionSource resolve(BinaryJedis redis, ByteBuffer blob) throws IOException {
+        List<String> references = ChunkCodec.references(blob);
+        if (references.isEmpty()) {
+            return hash -> null;
+        }
+        Map<String, byte[]> resolved = new HashMap<>();
+        List<String> missing = new ArrayList<>();
+        for (String hash : references) {
+            byte[] entry = cache.get(hash);
+            if (entry != null) {
+                resolved.put(hash, entry);
+            } else if (!missing.contains(hash)) {
+                missing.add(hash);
+            }
+        }
+        if (!missing.isEmpty()) {
+            byte[][] keys = new byte[missing.size()][];
+            for (int i = 0; i < keys.length; i++) {
+                keys[i] = sectionKey(missing.get(i));
+            }
+            List<byte[]> entries = redis.mget(keys);
+            for (int i = 0; i < keys.length; i++) {
+                byte[] entry = entries.get(i);
+                if (entry == null) {
+                    throw new IOException("Referenced section " + missing.get(i) + " is missing from redis");
+                }
+                resolved.put(missing.get(i), entry);
+                cache.put(missing.get(i), entry);
+            }
+        }
+        return resolved::get;
+    }
+
+    /**
+     * Atomically stores a chunk as references, its new sections and the updated reference counts.
+     *
+     * @param field      the chunk's field if {@code blobKey} and {@code refsKey} are hashes, or null
+     * @param deleteKeys keys replaced by this chunk, e.g. its legacy layout
+     * @return the stored chunk blob
+     */
+    public byte[] write(BinaryJedis redis, ChunkCodec codec, ChunkData data,
+                      byte[] blobKey, byte[] refsKey, byte[] field, byte[]... deleteKeys) {
+        // sections known to this server are assumed to still be stored, the script reports them otherwise
+        WriteRequest request = new WriteRequest(codec, data, false, blobKey, refsKey, field, deleteKeys);
+        if (request.succeeded(WRITE_SCRIPT.eval(redis, request.keys, request.args))) {
+            return request.blob;
+        }
+        return retry(redis, codec, data, blobKey, refsKey, field, deleteKeys);
+    }
+
+    /**
+     * Queues {@link #write} on a pipeline. The returned write must be completed once the pipeline is synced.
+     */
+    public PendingWrite write(Pipeline pipeline, ChunkCodec codec, ChunkData data,
+                              byte[] blobKey, byte[] refsKey, byte[] field, byte[]... deleteKeys) {
+        WriteRequest request = new WriteRequest(codec, data, false, blobKey, refsKey, field, deleteKeys);
+        Response<Object> response = WRITE_SCRIPT.eval(pipeline, request.keys, request.args);
+        return new PendingWrite(request, response, codec, data, blobKey, refsKey, field, deleteKeys);
+    }
+
+    private byte[] retry(BinaryJedis redis, ChunkCodec codec, ChunkData data,
+                         byte[] blobKey, byte[] refsKey, byte[] field, byte[][] deleteKeys) {
+        // sections were released by other chunks since they were cached, send everything
+        WriteRequest request = new WriteRequest(codec, data, true, blobKey, refsKey, field, deleteKeys);
+        if (!request.succeeded(WRITE_SCRIPT.eval(redis, request.keys, request.args))) {
+            throw new IllegalStateException("Redis reported missing sections that were just sent");
+        }
+        return request.blob;
+    }
+
+    public class PendingWrite {
+        private final WriteRequest request;
+        private final Response<Object> response;
+        private final ChunkCodec codec;
+        private final ChunkData data;
+        private final byte[] blobKey;
+        private final byte[] refsKey;
+        private final byte[] field;
+        private final byte[][] deleteKeys;
+        private boolean retried;
+
+        private PendingWrite(WriteRequest request, Response<Object> response, ChunkCodec codec, ChunkData data,
+                             byte[] blobKey, byte[] refsKey, byte[] field, byte[][] deleteKeys) {
+            this.request = request;
+            this.response = response;
+            this.codec = codec;
+            this.data = data;
+            this.blobKey = blobKey;
+            this.refsKey = refsKey;
+            this.field = field;
+            this.deleteKeys = deleteKeys;
+        }
+
+        /**
+         * Checks the pipelined write, and writes the chunk again with all its sections if some were missing.
+         *
+         * @return the stored chunk blob
+         */
+        public byte[] complete(BinaryJedis redis) {
+            if (request.succeeded(response.get())) {
+                return request.blob;
+            }
+            retried = true;
+            return retry(redis, codec, data, blobKey, refsKey, field, deleteKeys);
+        }
+
+        /**
+         * Whether the chunk was only stored by {@link #complete}, after the rest of the pipeline.
+         */
+        public boolean isRetried() {
+            return retried;
+        }
+    }
+
+    private class WriteRequest {
+        private final List<byte[]> keys = new ArrayList<>();
+        private final List<byte[]> args = new ArrayList<>();
+        private final Map<String, byte[]> entries = new LinkedHashMap<>();
+        private final byte[] blob;
+
+        private WriteRequest(ChunkCodec codec, ChunkData data, boolean includeKnown,
+                             byte[] blobKey, byte[] refsKey, byte[] field, byte[][] deleteKeys) {
+            keys.add(blobKey);
+            keys.add(refsKey);
+            keys.add(REFCOUNT_KEY);
+            keys.addAll(Arrays.asList(deleteKeys));
+
+            StringBuilder hashes = new StringBuilder();
+            blob = codec.encode(data, new ChunkCodec.SectionSink() {
+                @Override
+                public boolean needsEntry(String hash) {
+                    hashes.append(hash);
+                    return includeKnown || !cache.containsKey(hash);
+                }
+
+                @Override
+                public void accept(String hash, byte[] entry) {
+                    entries.put(hash, entry);
+                }
+            });
+
+            args.add(blob);
+            args.add(hashes.toString().getBytes());
+            args.add(KEY_PREFIX.getBytes());
+            args.add(field == null ? new byte[0] : field);
+            for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+                args.add(entry.getKey().getBytes());
+                args.add(entry.getValue());
+            }
+        }
+
+        private boolean succeeded(Object result) {
+            if (result instanceof List) {
+                return false;
+            }
+            cache.putAll(entries);
+            return true;
+        }
+    }
+
+    public int getCachedSections() {
+        return cache.size();
+    }
+}
@@ -0,0 +1,336 @@
+package ca.momoperes.gsredis.io;
+
+import ca.momoperes.gsredis.config.RedisJournalConfiguration;
+import ca.momoperes.gsredis.metrics.RedisMetrics;
+import ca.momoperes.gsredis.redis.CircuitBreaker;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A local append-only journal of a world's chunk and player writes, taken while redis is failing or slow and
+ * replayed in order once it recovers.
+ * <p>
+ * Writes are spilled when they fail, and every write is spilled while the {@link CircuitBreaker} is open or the
+ * journal is not empty, so a write never lands in redis before an older one of the same chunk or player.
+ * Reads of this server are served from the journal until it was replayed. Every retry interval, the journal is
+ * replayed through the sinks of the chunk and player services; it is emptied (and the breaker closed) once every
+ * record was written to redis.
+ * <p>
+ * The file is a header (magic, format, end offset) followed by {@code (type, key, key, length, blob)} records,
+ * mapped in memory. The end offset is updated after each record, so a journal left by a crashed server is
+ * replayed when the world is loaded again. Mapped pages are flushed by the operating system: records survive
+ * a crash of the server, not of the machine.
+ */
+public class SpillJournal implements AutoCloseable {
+    public static final byte CHUNK = 1;
+    public static final byte PLAYER = 2;
+
+    private static final int MAGIC = 0x4753524A; // GSRJ
+    private static final int FORMAT = 1;
+    private static final int HEADER_SIZE = 4 + 4 + 8;
+    private static final int RECORD_HEADER_SIZE = 1 + 8 + 8 + 4;
+    private static final int REPLAY_BATCH_SIZE = 64;
+
+    private final String worldName;
+    private final File file;
+    private final RandomAccessFile raf;
+    private final MappedByteBuffer buffer;
+    private final CircuitBreaker breaker;
+    private final RedisMetrics metrics;
+    private final Logger logger;
+    private final ScheduledExecutorService replayer;
+    // offsets of the latest record of each chunk and player
+    private final Map<Long, Integer> chunks = new HashMap<>();
+    private final Map<UUID, Integer> players = new HashMap<>();
+    private final Map<Byte, RecordSink> sinks = new HashMap<>();
+    private int end = HEADER_SIZE;
+    private int replayed = HEADER_SIZE;
+
+    /**
+     * A journaled write.
+     */
+    public static class Record {
+        private final long high;
+        private final long low;
+        private final byte[] blob;
+
+        private Record(long high, long low, byte[] blob) {
+            this.high = high;
+            this.low = low;
+            this.blob = blob;
+        }
+
+        public int getX() {
+            return (int) high;
+        }
+
+        public int getZ() {
+            return (int) low;
+        }
+
+        public UUID getUniqueId() {
+            return new UUID(high, low);
+        }
+
+        public byte[] getBlob() {
+            return blob;
+        }
+    }
+
+    /**
+     * Writes replayed records of one type to redis, in order.
+     */
+    public interface RecordSink {
+        void replay(List<Record> records) throws IOException;
+    }
+
+    public SpillJournal(String worldName, File file, RedisJournalConfiguration config, RedisMetrics metrics,
+                        Logger logger) throws IOException {
+        this.worldName = worldName;
+        this.file = file;
+        this.breaker = new CircuitBreaker(config.getSlowWriteMillis(), config.getFailureThreshold(),
+                config.getRetryIntervalMillis());
+        this.metrics = metrics;
+        this.logger = logger;
+        Files.createDirectories(file.getParentFile().toPath());
+        this.raf = new RandomAccessFile(file, "rw");
+        this.buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0,
+                Math.min(config.getMaxBytes(), Integer.MAX_VALUE));
+        if (buffer.getInt(0) == MAGIC && buffer.getInt(4) == FORMAT) {
+            recover((int) buffer.getLong(8));
+        } else {
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, FORMAT);
+            buffer.putLong(8, end);
+        }
+
+        this.replayer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "gsredis-journal-" + worldName);
+            thread.setDaemon(true);
+            return thread;
+        });
+        replayer.scheduleWithFixedDelay(this::replay, config.getRetryIntervalMillis(), config.getRetryIntervalMillis(),
+                TimeUnit.MILLISECONDS);
+    }
+
+    private void recover(int recoveredEnd) {
+        int records = 0;
+        int position = HEADER_SIZE;
+        while (position < recoveredEnd) {
+            index(buffer.get(position), buffer.getLong(position + 1), buffer.getLong(position + 9), position);
+            position += RECORD_HEADER_SIZE + buffer.getInt(position + 17);
+            records++;
+        }
+        end = recoveredEnd;
+        if (records > 0) {
+            logger.warning(records + " writes of '" + worldName + "' left in " + file + " by a previous run"
+                    + " will be replayed to redis");
+        }
+    }
+
+    private void index(byte type, long high, long low, int position) {
+        if (type == CHUNK) {
+            chunks.put(ChunkWriteQueue.key((int) high, (int) low), position);
+        } else {
+            players.put(new UUID(high, low), position);
+        }
+    }
+
+    public CircuitBreaker getBreaker() {
+        return breaker;
+    }
+
+    public synchronized void setSink(byte type, RecordSink sink) {
+        sinks.put(type, sink);
+    }
+
+    /**
+     * Whether writes should go to the journal instead of redis.
+     */
+    public synchronized boolean shouldSpill() {
+        return breaker.isOpen() || end > HEADER_SIZE;
+    }
+
+    public void appendChunk(int x, int z, byte[] blob) throws IOException {
+        append(CHUNK, x, z, blob);
+    }
+
+    public void appendPlayer(UUID uuid, byte[] blob) throws IOException {
+        append(PLAYER, uuid.getMostSignificantBits(), uuid.getLeastSignificantBits(), blob);
+    }
+
+    private synchronized void append(byte type, long high, long low, byte[] blob) throws IOException {
+        long start = System.nanoTime();
+        if (RECORD_HEADER_SIZE + (long) blob.length > buffer.capacity() - end) {
+            metrics.journalAppends().recordError(start);
+            throw new IOException("The journal of '" + worldName + "' is full (" + buffer.capacity() + " bytes)");
+        }
+        if (end == HEADER_SIZE) {
+            logger.warning("Redis is failing or slow, writes of '" + worldName + "' go to " + file
+                    + " until it recovers");
+        }
+        buffer.put(end, type);
+        buffer.putLong(end + 1, high);
+        buffer.putLong(end + 9, low);
+        buffer.putInt(end + 17, blob.length);
+        ByteBuffer record = buffer.duplicate();
+        record.position(end + RECORD_HEADER_SIZE);
+        record.put(blob);
+        index(type, high, low, end);
+        end += RECORD_HEADER_SIZE + blob.length;
+        // only once the record is complete
+        buffer.putLong(8, end);
+        metrics.journalAppends().record(start, blob.length);
+    }
+
+    /**
+     * @return the latest journaled blob of a chunk, or null if it was not journaled
+     */
+    public synchronized byte[] getChunk(int x, int z) {
+        Integer position = chunks.get(ChunkWriteQueue.key(x, z));
+        return position == null ? null : read(position).blob;
+    }
+
+    public synchronized boolean containsChunk(int x, int z) {
+        return chunks.containsKey(ChunkWriteQueue.key(x, z));
+    }
+
+    /**
+     * @return the latest journaled blob of a player, or null if it was not journaled
+     */
+    public synchronized byte[] getPlayer(UUID uuid) {
+        Integer position = players.get(uuid);
+        return position == null ? null : read(position).blob;
+    }
+
+    private Record read(int position) {
+        byte[] blob = new byte[buffer.getInt(position + 17)];
+        ByteBuffer record = buffer.duplicate();
+        record.position(position + RECORD_HEADER_SIZE);
+        record.get(blob);
+        return new Record(buffer.getLong(position + 1), buffer.getLong(position + 9), blob);
+    }
+
+    /**
+     * Replays the journal if redis may be tried again, and empties it once every record was written.
+     *
+     * @return whether the journal is empty
+     */
+    public boolean replay() {
+        synchronized (this) {
+            if (end == HEADER_SIZE || !breaker.allowsAttempt()) {
+                return end == HEADER_SIZE;
+            }
+        }
+        long start = System.nanoTime();
+        int records = 0;
+        long bytes = 0;
+        while (true) {
+            byte type;
+            RecordSink sink;
+            List<Record> batch = new ArrayList<>(REPLAY_BATCH_SIZE);
+            int next;
+            synchronized (this) {
+                if (replayed >= end) {
+                    end = HEADER_SIZE;
+                    replayed = HEADER_SIZE;
+                    buffer.putLong(8, end);
+                    chunks.clear();
+                    players.clear();
+                    breaker.close();
+                    metrics.journalReplays().record(start, bytes);
+                    logger.info("Replayed " + records + " journaled writes of '" + worldName + "' to redis");
+                    return true;
+                }
+                type = buffer.get(replayed);
+                sink = sinks.get(type);
+                if (sink == null) {
+                    // the services of the world are not created yet
+                    return false;
+                }
+                next = replayed;
+                while (next < end && batch.size() < REPLAY_BATCH_SIZE && buffer.get(next) == type) {
+                    Record record = read(next);
+                    batch.add(record);
+                    next += RECORD_HEADER_SIZE + record.blob.length;
+                }
+            }
+            try {
+                sink.replay(batch);
+            } catch (IOException | RuntimeException e) {
+                breaker.failure();
+                metrics.journalReplays().recordError(start);
+                logger.log(Level.FINE, "Could not replay the journal of '" + worldName + "'", e);
+                return false;
+            }
+            for (Record record : batch) {
+                bytes += record.blob.length;
+            }
+            records += batch.size();
+            synchronized (this) {
+                replayed = next;
+            }
+        }
+    }
+
+    /**
+     * Stops replaying in the background, after a last attempt. Records left are replayed on the next start.
+     */
+    @Override
+    public void close() {
+        replayer.shutdownNow();
+        try {
+            replayer.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (!replay()) {
+            synchronized (this) {
+                logger.severe("Redis is still unreachable, " + (chunks.size() + players.size()) + " writes of '"
+                        + worldName + "' stay in " + file + " until the next start");
+            }
+        }
+        synchronized (this) {
+            buffer.force();
+            try {
+                raf.close();
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Could not close " + file, e);
+            }
+        }
+    }
+
+    /**
+     * Stops replaying and deletes the journal with the records left in it, e.g. when the world is dropped.
+     */
+    public void discard() {
+        replayer.shutdownNow();
+        try {
+            replayer.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            try {
+                raf.close();
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Could not close " + file, e);
+            }
+            if (!file.delete()) {
+                logger.warning("Could not delete " + file);
+            }
+        }
+    }
+}
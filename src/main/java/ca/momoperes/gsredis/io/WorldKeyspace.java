@@ -0,0 +1,71 @@
+package ca.momoperes.gsredis.io;
+
+import ca.momoperes.gsredis.redis.RedisRouter;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.ScanParams;
+import redis.clients.jedis.ScanResult;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.function.Supplier;
+
+/**
+ * Every key of a world, {@code <namespace>:worlds:<world>:*}: its chunks, regions, metadata and players.
+ * Hash tags come after that prefix, so a single pattern matches the world's keys on every node.
+ */
+public class WorldKeyspace {
+    private static final int PAGE_SIZE = 1000;
+
+    private final RedisRouter router;
+    private final byte[] pattern;
+
+    public WorldKeyspace(String namespace, String worldName, RedisRouter router) {
+        this.router = router;
+        this.pattern = (escape(namespace + ":worlds:" + worldName) + ":*").getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String escape(String prefix) {
+        return prefix.replaceAll("([*?\\[\\]\\\\])", "\\\\$1");
+    }
+
+    /**
+     * Deletes the world's keys from databases of every primary node, scanning them page by page. Keys are
+     * deleted one by one in a pipeline per page, as the keys of a page may belong to different cluster slots.
+     *
+     * @return the number of keys deleted
+     */
+    public long delete(Collection<Integer> databaseIndexes) {
+        Set<Integer> databases = new LinkedHashSet<>(databaseIndexes);
+        long deleted = 0;
+        for (int databaseIndex : databases) {
+            for (Supplier<Jedis> node : router.getPrimaryNodes(databaseIndex)) {
+                try (Jedis redis = node.get()) {
+                    deleted += delete(redis);
+                }
+            }
+        }
+        return deleted;
+    }
+
+    private long delete(Jedis redis) {
+        ScanParams params = new ScanParams().match(pattern).count(PAGE_SIZE);
+        String cursor = ScanParams.SCAN_POINTER_START;
+        long deleted = 0;
+        do {
+            ScanResult<byte[]> scan = redis.scan(cursor.getBytes(), params);
+            if (!scan.getResult().isEmpty()) {
+                Pipeline pipeline = redis.pipelined();
+                for (byte[] key : scan.getResult()) {
+                    pipeline.del(key);
+                }
+                pipeline.sync();
+                deleted += scan.getResult().size();
+            }
+            cursor = scan.getStringCursor();
+        } while (!cursor.equals(ScanParams.SCAN_POINTER_START));
+        return deleted;
+    }
+}
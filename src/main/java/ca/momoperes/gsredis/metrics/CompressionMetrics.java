@@ -0,0 +1,68 @@
+package ca.momoperes.gsredis.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters for the section compression stage.
+ */
+public class CompressionMetrics {
+    private final LongAdder encodedSections = new LongAdder();
+    private final LongAdder rawBytes = new LongAdder();
+    private final LongAdder compressedBytes = new LongAdder();
+    private final LongAdder encodeNanos = new LongAdder();
+    private final LongAdder decodedSections = new LongAdder();
+    private final LongAdder decodeNanos = new LongAdder();
+
+    public void recordEncode(int rawLength, int storedLength, long nanos) {
+        encodedSections.increment();
+        rawBytes.add(rawLength);
+        compressedBytes.add(storedLength);
+        encodeNanos.add(nanos);
+    }
+
+    public void recordDecode(long nanos) {
+        decodedSections.increment();
+        decodeNanos.add(nanos);
+    }
+
+    public long getEncodedSections() {
+        return encodedSections.sum();
+    }
+
+    public long getRawBytes() {
+        return rawBytes.sum();
+    }
+
+    public long getCompressedBytes() {
+        return compressedBytes.sum();
+    }
+
+    /**
+     * Raw size divided by stored size, 1 when nothing was encoded yet.
+     */
+    public double getRatio() {
+        long compressed = getCompressedBytes();
+        return compressed == 0 ? 1 : (double) getRawBytes() / compressed;
+    }
+
+    public double getAverageEncodeMicros() {
+        long count = getEncodedSections();
+        return count == 0 ? 0 : encodeNanos.sum() / 1000.0 / count;
+    }
+
+    public long getDecodedSections() {
+        return decodedSections.sum();
+    }
+
+    public double getAverageDecodeMicros() {
+        long count = getDecodedSections();
+        return count == 0 ? 0 : decodeNanos.sum() / 1000.0 / count;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d sections encoded, ratio %.2f, %.1f us/encode, %d decoded, %.1f us/decode",
+                getEncodedSections(), getRatio(), getAverageEncodeMicros(),
+                getDecodedSections(), getAverageDecodeMicros());
+    }
+}
@@ -0,0 +1,119 @@
+package ca.momoperes.gsredis.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency, payload size and error counts of one kind of redis operation.
+ * <p>
+ * Callers take {@link System#nanoTime()} before the operation, and pass it to {@link #record} or {@link #recordError}.
+ */
+public class OperationMetrics implements OperationMetricsMXBean {
+    private final String name;
+    private final RedisMetrics registry;
+    private final Histogram latencyMicros = new Histogram();
+    private final Histogram payloadBytes = new Histogram();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder serverThreadNanos = new LongAdder();
+
+    OperationMetrics(String name, RedisMetrics registry) {
+        this.name = name;
+        this.registry = registry;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Records a completed operation.
+     *
+     * @param bytes the payload sent or received, 0 if not applicable
+     */
+    public void record(long startNanos, long bytes) {
+        long nanos = System.nanoTime() - startNanos;
+        latencyMicros.record(nanos / 1000);
+        if (bytes > 0) {
+            payloadBytes.record(bytes);
+        }
+        if (registry.isServerThread()) {
+            serverThreadNanos.add(nanos);
+        }
+    }
+
+    public void recordError(long startNanos) {
+        errors.increment();
+        if (registry.isServerThread()) {
+            serverThreadNanos.add(System.nanoTime() - startNanos);
+        }
+    }
+
+    @Override
+    public long getCount() {
+        return latencyMicros.getCount();
+    }
+
+    @Override
+    public long getErrors() {
+        return errors.sum();
+    }
+
+    @Override
+    public long getBytes() {
+        return payloadBytes.getSum();
+    }
+
+    @Override
+    public double getMeanMicros() {
+        return latencyMicros.getMean();
+    }
+
+    @Override
+    public long getP50Micros() {
+        return latencyMicros.getPercentile(50);
+    }
+
+    @Override
+    public long getP99Micros() {
+        return latencyMicros.getPercentile(99);
+    }
+
+    @Override
+    public long getP999Micros() {
+        return latencyMicros.getPercentile(99.9);
+    }
+
+    @Override
+    public long getMaxMicros() {
+        return latencyMicros.getMax();
+    }
+
+    @Override
+    public double getMeanPayloadBytes() {
+        return payloadBytes.getMean();
+    }
+
+    @Override
+    public long getP99PayloadBytes() {
+        return payloadBytes.getPercentile(99);
+    }
+
+    @Override
+    public long getServerThreadMillis() {
+        return serverThreadNanos.sum() / 1_000_000;
+    }
+
+    @Override
+    public void reset() {
+        latencyMicros.reset();
+        payloadBytes.reset();
+        errors.reset();
+        serverThreadNanos.reset();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: %d ops, %d errors, p50 %dus, p99 %dus, p99.9 %dus, max %dus, %.0f B/op, %d ms on server thread",
+                name, getCount(), getErrors(), getP50Micros(), getP99Micros(), getP999Micros(), getMaxMicros(),
+                getMeanPayloadBytes(), getServerThreadMillis());
+    }
+}
@@ -0,0 +1,30 @@
+package ca.momoperes.gsredis.metrics;
+
+public interface OperationMetricsMXBean {
+    long getCount();
+
+    long getErrors();
+
+    long getBytes();
+
+    double getMeanMicros();
+
+    long getP50Micros();
+
+    long getP99Micros();
+
+    long getP999Micros();
+
+    long getMaxMicros();
+
+    double getMeanPayloadBytes();
+
+    long getP99PayloadBytes();
+
+    /**
+     * Time spent in this operation on the server thread, where it delays ticks.
+     */
+    long getServerThreadMillis();
+
+    void reset();
+}
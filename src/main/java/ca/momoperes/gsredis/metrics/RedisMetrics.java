@@ -0,0 +1,161 @@
+package ca.momoperes.gsredis.metrics;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The metrics of every redis operation made by the plugin, exposed through JMX under
+ * {@code ca.momoperes.gsredis:type=Operation,name=<operation>}.
+ */
+public class RedisMetrics {
+    private static final String DOMAIN = "ca.momoperes.gsredis";
+
+    private final List<OperationMetrics> operations = new ArrayList<>();
+    private final List<ObjectName> registered = new ArrayList<>();
+    private volatile Thread serverThread;
+
+    private final OperationMetrics chunkReads = operation("chunk.read");
+    private final OperationMetrics chunkWrites = operation("chunk.write");
+    private final OperationMetrics chunkBatches = operation("chunk.writeBatch");
+    private final OperationMetrics chunkPrefetches = operation("chunk.prefetch");
+    private final OperationMetrics worldReads = operation("world.read");
+    private final OperationMetrics worldWrites = operation("world.write");
+    private final OperationMetrics playerReads = operation("player.read");
+    private final OperationMetrics playerWrites = operation("player.write");
+    private final OperationMetrics playerLists = operation("player.list");
+    private final OperationMetrics poolBorrows = operation("pool.borrow");
+    private final OperationMetrics journalAppends = operation("journal.append");
+    private final OperationMetrics journalReplays = operation("journal.replay");
+    private final OperationMetrics leaseAcquires = operation("lease.acquire");
+    private final OperationMetrics leaseRenewals = operation("lease.renew");
+    private final OperationMetrics generationClaims = operation("generation.claim");
+    private final OperationMetrics generationWaits = operation("generation.wait");
+
+    private OperationMetrics operation(String name) {
+        OperationMetrics operation = new OperationMetrics(name, this);
+        operations.add(operation);
+        return operation;
+    }
+
+    /**
+     * Marks the current thread as the server thread, whose time spent in redis operations delays ticks.
+     */
+    public void setServerThread(Thread serverThread) {
+        this.serverThread = serverThread;
+    }
+
+    public boolean isServerThread() {
+        return Thread.currentThread() == serverThread;
+    }
+
+    public void register(Logger logger) {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (OperationMetrics operation : operations) {
+            try {
+                ObjectName name = new ObjectName(DOMAIN + ":type=Operation,name=" + operation.getName());
+                if (server.isRegistered(name)) {
+                    // left behind by a reload
+                    server.unregisterMBean(name);
+                }
+                server.registerMBean(operation, name);
+                registered.add(name);
+            } catch (JMException e) {
+                logger.log(Level.WARNING, "Could not register the metrics of " + operation.getName() + " with JMX", e);
+            }
+        }
+    }
+
+    public void unregister() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (ObjectName name : registered) {
+            try {
+                server.unregisterMBean(name);
+            } catch (JMException ignored) {
+                // already gone
+            }
+        }
+        registered.clear();
+    }
+
+    public List<OperationMetrics> getOperations() {
+        return Collections.unmodifiableList(operations);
+    }
+
+    public void reset() {
+        operations.forEach(OperationMetrics::reset);
+    }
+
+    public OperationMetrics chunkReads() {
+        return chunkReads;
+    }
+
+    public OperationMetrics chunkWrites() {
+        return chunkWrites;
+    }
+
+    public OperationMetrics chunkBatches() {
+        return chunkBatches;
+    }
+
+    public OperationMetrics chunkPrefetches() {
+        return chunkPrefetches;
+    }
+
+    public OperationMetrics worldReads() {
+        return worldReads;
+    }
+
+    public OperationMetrics worldWrites() {
+        return worldWrites;
+    }
+
+    public OperationMetrics playerReads() {
+        return playerReads;
+    }
+
+    public OperationMetrics playerWrites() {
+        return playerWrites;
+    }
+
+    public OperationMetrics playerLists() {
+        return playerLists;
+    }
+
+    /**
+     * Time spent waiting for a pooled connection, errors are exhausted pools and failed connections.
+     */
+    public OperationMetrics poolBorrows() {
+        return poolBorrows;
+    }
+
+    public OperationMetrics journalAppends() {
+        return journalAppends;
+    }
+
+    public OperationMetrics journalReplays() {
+        return journalReplays;
+    }
+
+    public OperationMetrics leaseAcquires() {
+        return leaseAcquires;
+    }
+
+    public OperationMetrics leaseRenewals() {
+        return leaseRenewals;
+    }
+
+    public OperationMetrics generationClaims() {
+        return generationClaims;
+    }
+
+    public OperationMetrics generationWaits() {
+        return generationWaits;
+    }
+}
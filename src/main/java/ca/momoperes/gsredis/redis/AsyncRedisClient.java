@@ -0,0 +1,446 @@
+package ca.momoperes.gsredis.redis;
+
+import redis.clients.jedis.exceptions.JedisConnectionException;
+import redis.clients.jedis.exceptions.JedisDataException;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A non-blocking client to one database of a standalone redis server, multiplexing the commands of every thread
+ * over a few connections.
+ * <p>
+ * Commands are encoded by the calling thread and written by a single I/O thread, which sends everything queued
+ * on a connection since its last write at once, so concurrent commands are pipelined automatically. The commands of
+ * a key always go to the same connection, so redis runs them in the order they were sent. Their futures are
+ * completed on the client's thread pool and never on the I/O thread: the callbacks of commands sent one after the
+ * other may run concurrently and in any order, so a command depending on another's reply must be sent from that
+ * reply's callback.
+ * <p>
+ * Replies are those of Jedis' binary commands: status replies are Strings, integers Longs, bulk strings byte arrays
+ * (null when missing) and arrays Lists. An error reply fails its future with a {@link JedisDataException}.
+ * Commands in flight on a broken connection fail with a {@link JedisConnectionException}, and the connection is
+ * opened again for the next commands.
+ */
+public class AsyncRedisClient implements AutoCloseable {
+    private static final Object INCOMPLETE = new Object();
+    private static final long CHECK_INTERVAL_MILLIS = 100;
+
+    private final InetSocketAddress address;
+    private final List<byte[][]> handshake = new ArrayList<>();
+    private final long connectTimeoutNanos;
+    private final long readTimeoutNanos;
+    private final long timeoutMillis;
+    private final Connection[] connections;
+    private final Selector selector;
+    private final AtomicBoolean wakeup = new AtomicBoolean();
+    private final ExecutorService executor;
+    private final Thread ioThread;
+    private volatile boolean closed;
+
+    /**
+     * @param threads the size of the executor completing the futures, which also runs blocking work
+     */
+    public AsyncRedisClient(String host, int port, String password, int databaseIndex, int connections, int threads,
+                            int connectTimeoutMillis, int readTimeoutMillis) throws IOException {
+        this.address = new InetSocketAddress(host, port);
+        if (password != null) {
+            handshake.add(command("AUTH", password.getBytes(StandardCharsets.UTF_8)));
+        }
+        if (databaseIndex != 0) {
+            handshake.add(command("SELECT", Integer.toString(databaseIndex).getBytes(StandardCharsets.US_ASCII)));
+        }
+        this.connectTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(connectTimeoutMillis);
+        this.readTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(readTimeoutMillis);
+        this.timeoutMillis = connectTimeoutMillis + readTimeoutMillis;
+        this.connections = new Connection[connections];
+        for (int i = 0; i < connections; i++) {
+            this.connections[i] = new Connection();
+        }
+        this.selector = Selector.open();
+        AtomicInteger created = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), runnable -> {
+            Thread thread = new Thread(runnable, "gsredis-async-" + databaseIndex + "-" + created.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.allowCoreThreadTimeOut(true);
+        this.executor = executor;
+        this.ioThread = new Thread(this::run, "gsredis-async-io-" + databaseIndex);
+        ioThread.setDaemon(true);
+        ioThread.start();
+    }
+
+    /**
+     * Builds the arguments of a command.
+     */
+    public static byte[][] command(String name, byte[]... arguments) {
+        byte[][] command = new byte[arguments.length + 1][];
+        command[0] = name.getBytes(StandardCharsets.US_ASCII);
+        System.arraycopy(arguments, 0, command, 1, arguments.length);
+        return command;
+    }
+
+    /**
+     * The executor completing the futures of this client, which may also run blocking work.
+     */
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    /**
+     * How long a command may take before its future fails, when the connection has to be opened again.
+     */
+    public long getTimeoutMillis() {
+        return timeoutMillis;
+    }
+
+    /**
+     * Sends a command on the connection of its key, its first argument.
+     */
+    public CompletableFuture<Object> send(byte[]... command) {
+        return pipeline(command[1], Collections.singletonList(command)).thenApply(replies -> replies.get(0));
+    }
+
+    /**
+     * Sends commands back to back on the connection of {@code routingKey}, e.g. a MULTI/EXEC transaction.
+     * The future fails with the first error reply, once every reply was received.
+     */
+    public CompletableFuture<List<Object>> pipeline(byte[] routingKey, List<byte[][]> commands) {
+        Pending pending = new Pending(encode(commands), commands.size());
+        if (closed) {
+            pending.future.completeExceptionally(new JedisConnectionException("The client is closed"));
+            return pending.future;
+        }
+        Connection connection = connections[Math.floorMod(Arrays.hashCode(routingKey), connections.length)];
+        connection.queued.add(pending);
+        if (closed && connection.queued.remove(pending)) {
+            // closed since the check above, the I/O thread may have failed the queued commands already
+            pending.future.completeExceptionally(new JedisConnectionException("The client is closed"));
+            return pending.future;
+        }
+        if (wakeup.compareAndSet(false, true)) {
+            selector.wakeup();
+        }
+        return pending.future;
+    }
+
+    private static ByteBuffer encode(List<byte[][]> commands) {
+        int size = 0;
+        for (byte[][] command : commands) {
+            size += 13;
+            for (byte[] argument : command) {
+                size += 15 + argument.length;
+            }
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        for (byte[][] command : commands) {
+            buffer.put((byte) '*').put(Integer.toString(command.length).getBytes(StandardCharsets.US_ASCII))
+                    .put((byte) '\r').put((byte) '\n');
+            for (byte[] argument : command) {
+                buffer.put((byte) '$').put(Integer.toString(argument.length).getBytes(StandardCharsets.US_ASCII))
+                        .put((byte) '\r').put((byte) '\n').put(argument).put((byte) '\r').put((byte) '\n');
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private void run() {
+        while (!closed) {
+            try {
+                selector.select(CHECK_INTERVAL_MILLIS);
+                wakeup.set(false);
+                Iterator<SelectionKey> selected = selector.selectedKeys().iterator();
+                while (selected.hasNext()) {
+                    SelectionKey key = selected.next();
+                    selected.remove();
+                    Connection connection = (Connection) key.attachment();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    try {
+                        if (key.isConnectable() && connection.channel.finishConnect()) {
+                            connection.connecting = false;
+                            connection.lastProgress = System.nanoTime();
+                        }
+                        if (key.isValid() && key.isReadable()) {
+                            connection.read();
+                        }
+                    } catch (IOException | RuntimeException e) {
+                        connection.fail(e);
+                    }
+                }
+                long now = System.nanoTime();
+                for (Connection connection : connections) {
+                    try {
+                        connection.dispatch(now);
+                    } catch (IOException | RuntimeException e) {
+                        connection.fail(e);
+                    }
+                }
+            } catch (IOException e) {
+                for (Connection connection : connections) {
+                    connection.fail(e);
+                }
+            }
+        }
+        JedisConnectionException closing = new JedisConnectionException("The client is closed");
+        for (Connection connection : connections) {
+            connection.fail(closing);
+            for (Pending pending; (pending = connection.queued.poll()) != null; ) {
+                pending.future.completeExceptionally(closing);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        selector.wakeup();
+        try {
+            ioThread.join(TimeUnit.SECONDS.toMillis(5));
+            selector.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            // nothing left to release
+        }
+        executor.shutdown();
+    }
+
+    /**
+     * Commands sent together, with their replies as they arrive.
+     */
+    private class Pending {
+        private final ByteBuffer command;
+        private final Object[] replies;
+        private final CompletableFuture<List<Object>> future = new CompletableFuture<>();
+        private int received;
+
+        private Pending(ByteBuffer command, int replies) {
+            this.command = command;
+            this.replies = new Object[replies];
+        }
+
+        /**
+         * Completes the future on the executor once every reply was received, independently of other commands.
+         *
+         * @return whether every reply was received
+         */
+        private boolean receive(Object reply) {
+            replies[received++] = reply;
+            if (received < replies.length) {
+                return false;
+            }
+            executor.execute(() -> {
+                for (Object received : replies) {
+                    if (received instanceof JedisDataException) {
+                        future.completeExceptionally((JedisDataException) received);
+                        return;
+                    }
+                }
+                future.complete(Arrays.asList(replies));
+            });
+            return true;
+        }
+    }
+
+    /**
+     * A connection, only used by the I/O thread once commands are queued.
+     */
+    private class Connection {
+        private final Queue<Pending> queued = new ConcurrentLinkedQueue<>();
+        private final Deque<Pending> inFlight = new ArrayDeque<>();
+        private final Deque<ByteBuffer> output = new ArrayDeque<>();
+        private ByteBuffer input = ByteBuffer.allocate(65536);
+        private SocketChannel channel;
+        private SelectionKey key;
+        private boolean connecting;
+        private long lastProgress;
+
+        private void connect() throws IOException {
+            channel = SocketChannel.open();
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            connecting = !channel.connect(address);
+            lastProgress = System.nanoTime();
+            key = channel.register(selector, connecting ? SelectionKey.OP_CONNECT : SelectionKey.OP_READ, this);
+            // a failed AUTH or SELECT makes the following commands fail on their own
+            for (byte[][] command : handshake) {
+                Pending pending = new Pending(encode(Collections.singletonList(command)), 1);
+                inFlight.add(pending);
+                output.add(pending.command);
+            }
+        }
+
+        /**
+         * Moves the queued commands to the connection and writes as much as the socket accepts.
+         */
+        private void dispatch(long now) throws IOException {
+            if (channel == null) {
+                if (queued.isEmpty()) {
+                    return;
+                }
+                connect();
+            }
+            if (connecting) {
+                if (now - lastProgress > connectTimeoutNanos) {
+                    throw new IOException("Timed out connecting to " + address);
+                }
+                return;
+            }
+            for (Pending pending; (pending = queued.poll()) != null; ) {
+                if (inFlight.isEmpty()) {
+                    lastProgress = now;
+                }
+                inFlight.add(pending);
+                output.add(pending.command);
+            }
+            if (!output.isEmpty()) {
+                channel.write(output.toArray(new ByteBuffer[0]));
+                while (!output.isEmpty() && !output.peek().hasRemaining()) {
+                    output.poll();
+                }
+            }
+            key.interestOps(output.isEmpty() ? SelectionKey.OP_READ : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            if (!inFlight.isEmpty() && now - lastProgress > readTimeoutNanos) {
+                throw new IOException("Timed out waiting for a reply from " + address);
+            }
+        }
+
+        private void read() throws IOException {
+            int read = channel.read(input);
+            if (read == -1) {
+                throw new IOException("Connection closed by " + address);
+            }
+            lastProgress = System.nanoTime();
+            input.flip();
+            while (input.hasRemaining()) {
+                int start = input.position();
+                Object reply = parse(input);
+                if (reply == INCOMPLETE) {
+                    input.position(start);
+                    break;
+                }
+                Pending pending = inFlight.peek();
+                if (pending == null) {
+                    throw new IOException("Unexpected reply from " + address);
+                }
+                if (pending.receive(reply)) {
+                    inFlight.poll();
+                }
+            }
+            input.compact();
+            if (!input.hasRemaining()) {
+                // a reply larger than the buffer
+                ByteBuffer larger = ByteBuffer.allocate(input.capacity() * 2);
+                input.flip();
+                larger.put(input);
+                input = larger;
+            }
+        }
+
+        private void fail(Exception cause) {
+            JedisConnectionException exception = cause instanceof JedisConnectionException
+                    ? (JedisConnectionException) cause
+                    : new JedisConnectionException("Lost the connection to " + address, cause);
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    // already broken
+                }
+            }
+            if (connecting) {
+                // the server is unreachable, queued commands would wait for it forever
+                for (Pending pending; (pending = queued.poll()) != null; ) {
+                    inFlight.add(pending);
+                }
+            }
+            for (Pending pending : inFlight) {
+                pending.future.completeExceptionally(exception);
+            }
+            inFlight.clear();
+            output.clear();
+            input.clear();
+            channel = null;
+            key = null;
+            connecting = false;
+        }
+    }
+
+    /**
+     * @return the next reply, or {@link #INCOMPLETE} if it was not fully received yet
+     */
+    private static Object parse(ByteBuffer buffer) {
+        if (!buffer.hasRemaining()) {
+            return INCOMPLETE;
+        }
+        byte type = buffer.get();
+        String line = readLine(buffer);
+        if (line == null) {
+            return INCOMPLETE;
+        }
+        switch (type) {
+            case '+':
+                return line;
+            case '-':
+                return new JedisDataException(line);
+            case ':':
+                return Long.parseLong(line);
+            case '$': {
+                int length = Integer.parseInt(line);
+                if (length < 0) {
+                    return null;
+                }
+                if (buffer.remaining() < length + 2) {
+                    return INCOMPLETE;
+                }
+                byte[] bulk = new byte[length];
+                buffer.get(bulk);
+                buffer.position(buffer.position() + 2);
+                return bulk;
+            }
+            case '*': {
+                int length = Integer.parseInt(line);
+                if (length < 0) {
+                    return null;
+                }
+                List<Object> array = new ArrayList<>(length);
+                for (int i = 0; i < length; i++) {
+                    Object element = parse(buffer);
+                    if (element == INCOMPLETE) {
+                        return INCOMPLETE;
+                    }
+                    array.add(element);
+                }
+                return array;
+            }
+            default:
+                throw new JedisConnectionException("Unknown reply type '" + (char) type + "'");
+        }
+    }
+
+    private static String readLine(ByteBuffer buffer) {
+        int start = buffer.position();
+        for (int i = start; i + 1 < buffer.limit(); i++) {
+            if (buffer.get(i) == '\r' && buffer.get(i + 1) == '\n') {
+                String line = new String(buffer.array(), buffer.arrayOffset() + start, i - start, StandardCharsets.US_ASCII);
+                buffer.position(i + 2);
+                return line;
+            }
+        }
+        return null;
+    }
+}
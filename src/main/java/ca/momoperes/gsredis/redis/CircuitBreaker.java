@@ -0,0 +1,63 @@
+package ca.momoperes.gsredis.redis;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Opens after {@code failureThreshold} consecutive failed or slow redis operations, after which callers stop
+ * waiting on redis. Once open for {@code retryIntervalMillis}, an attempt is allowed again; a failed attempt
+ * keeps it open for another interval, and it is closed by {@link #close} once redis works again.
+ */
+public class CircuitBreaker {
+    private final long slowNanos;
+    private final int failureThreshold;
+    private final long retryNanos;
+    private int failures;
+    private boolean open;
+    private long openedAt;
+
+    public CircuitBreaker(long slowMillis, int failureThreshold, long retryIntervalMillis) {
+        this.slowNanos = TimeUnit.MILLISECONDS.toNanos(slowMillis);
+        this.failureThreshold = failureThreshold;
+        this.retryNanos = TimeUnit.MILLISECONDS.toNanos(retryIntervalMillis);
+    }
+
+    /**
+     * Records an operation that succeeded, which counts as a failure if it was slow.
+     */
+    public synchronized void success(long startNanos) {
+        if (System.nanoTime() - startNanos > slowNanos) {
+            failure();
+        } else {
+            failures = 0;
+        }
+    }
+
+    public synchronized void failure() {
+        failures++;
+        if (failures >= failureThreshold) {
+            open = true;
+            openedAt = System.nanoTime();
+        }
+    }
+
+    public synchronized boolean isOpen() {
+        return open;
+    }
+
+    /**
+     * Whether redis may be tried: the breaker is closed, or was opened at least an interval ago.
+     */
+    public synchronized boolean allowsAttempt() {
+        return !open || System.nanoTime() - openedAt >= retryNanos;
+    }
+
+    public synchronized void close() {
+        open = false;
+        failures = 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return open ? "open" : "closed (" + failures + " recent failures)";
+    }
+}
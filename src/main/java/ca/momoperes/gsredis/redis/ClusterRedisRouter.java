@@ -0,0 +1,115 @@
+package ca.momoperes.gsredis.redis;
+
+import ca.momoperes.gsredis.config.RedisPoolConfiguration;
+import ca.momoperes.gsredis.metrics.RedisMetrics;
+import redis.clients.jedis.HostAndPort;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisSlotBasedConnectionHandler;
+import redis.clients.jedis.exceptions.JedisException;
+import redis.clients.jedis.exceptions.JedisRedirectionException;
+import redis.clients.util.JedisClusterCRC16;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Supplier;
+
+/**
+ * Routes keys to the master of their Redis Cluster slot, using a slot map refreshed when the cluster
+ * redirects a command. Redis Cluster only has database 0, database indexes are ignored.
+ */
+public class ClusterRedisRouter implements RedisRouter {
+    private static final int MAX_REDIRECTIONS = 5;
+
+    private final JedisSlotBasedConnectionHandler handler;
+    private final RedisMetrics metrics;
+
+    public ClusterRedisRouter(Set<HostAndPort> nodes, String password, RedisPoolConfiguration config,
+                              RedisMetrics metrics) {
+        this.metrics = metrics;
+        this.handler = new JedisSlotBasedConnectionHandler(nodes, RedisConnections.poolConfig(config),
+                config.getConnectTimeoutMillis(), config.getReadTimeoutMillis(), password);
+    }
+
+    @Override
+    public Jedis getResource(int databaseIndex, byte[] key) {
+        long start = System.nanoTime();
+        try {
+            Jedis redis = handler.getConnectionFromSlot(JedisClusterCRC16.getSlot(key));
+            metrics.poolBorrows().record(start, 0);
+            return redis;
+        } catch (JedisException e) {
+            metrics.poolBorrows().recordError(start);
+            throw e;
+        }
+    }
+
+    /**
+     * Borrows a connection to any node, PUBLISH is propagated to the whole cluster.
+     */
+    @Override
+    public Jedis getResource() {
+        return handler.getConnection();
+    }
+
+    @Override
+    public Object partition(byte[] key) {
+        return JedisClusterCRC16.getSlot(key);
+    }
+
+    @Override
+    public boolean isMultiNode() {
+        return true;
+    }
+
+    @Override
+    public List<Supplier<Jedis>> getSubscriptionNodes() {
+        return Collections.singletonList(handler::getConnection);
+    }
+
+    /**
+     * Every master known to the slot map, replicas are skipped.
+     */
+    @Override
+    public List<Supplier<Jedis>> getPrimaryNodes(int databaseIndex) {
+        List<Supplier<Jedis>> primaries = new ArrayList<>();
+        for (JedisPool pool : handler.getNodes().values()) {
+            try (Jedis redis = pool.getResource()) {
+                if (redis.info("replication").contains("role:master")) {
+                    primaries.add(pool::getResource);
+                }
+            }
+        }
+        return primaries;
+    }
+
+    /**
+     * Runs an operation on the node of a key, refreshing the slot map and retrying when the slot has moved.
+     */
+    @Override
+    public <T> T execute(int databaseIndex, byte[] key, RedisOperation<T> operation) throws IOException {
+        for (int attempt = 1; ; attempt++) {
+            try (Jedis redis = getResource(databaseIndex, key)) {
+                return operation.run(redis);
+            } catch (JedisRedirectionException e) {
+                if (attempt >= MAX_REDIRECTIONS) {
+                    throw e;
+                }
+                handler.renewSlotCache();
+            }
+        }
+    }
+
+    @Override
+    public <T> T executeRead(int databaseIndex, byte[] key, RedisOperation<T> operation) throws IOException {
+        return execute(databaseIndex, key, operation);
+    }
+
+    @Override
+    public void close() {
+        handler.close();
+    }
+}
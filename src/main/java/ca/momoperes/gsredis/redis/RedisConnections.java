@@ -0,0 +1,134 @@
+package ca.momoperes.gsredis.redis;
+
+import ca.momoperes.gsredis.config.RedisPoolConfiguration;
+import ca.momoperes.gsredis.metrics.RedisMetrics;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPoolConfig;
+import redis.clients.jedis.exceptions.JedisException;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Connection pools to a standalone redis server, one per database index so connections never need to SELECT.
+ * <p>
+ * A connection is not thread-safe: borrow one per operation and return it with try-with-resources.
+ */
+public class RedisConnections implements RedisRouter {
+    private final String host;
+    private final int port;
+    private final String password;
+    private final int defaultDatabaseIndex;
+    private final RedisPoolConfiguration config;
+    private final RedisMetrics metrics;
+    private final Map<Integer, JedisPool> pools = new ConcurrentHashMap<>();
+    private final Map<Integer, AsyncRedisClient> asyncClients = new ConcurrentHashMap<>();
+
+    public RedisConnections(String host, int port, String password, int defaultDatabaseIndex, RedisPoolConfiguration config,
+                            RedisMetrics metrics) {
+        this.host = host;
+        this.port = port;
+        this.password = password;
+        this.defaultDatabaseIndex = defaultDatabaseIndex;
+        this.config = config;
+        this.metrics = metrics;
+    }
+
+    static JedisPoolConfig poolConfig(RedisPoolConfiguration config) {
+        JedisPoolConfig poolConfig = new JedisPoolConfig();
+        poolConfig.setMaxTotal(config.getMaxTotal());
+        poolConfig.setMaxIdle(config.getMaxIdle());
+        poolConfig.setMinIdle(config.getMinIdle());
+        poolConfig.setMaxWaitMillis(config.getMaxWaitMillis());
+        poolConfig.setMinEvictableIdleTimeMillis(config.getIdleTimeoutMillis());
+        poolConfig.setTestWhileIdle(config.isTestWhileIdle());
+        return poolConfig;
+    }
+
+    private JedisPool createPool(int databaseIndex) {
+        return new JedisPool(poolConfig(config), host, port, config.getConnectTimeoutMillis(), config.getReadTimeoutMillis(),
+                password, databaseIndex, null, false, null, null, null);
+    }
+
+    /**
+     * Borrows a connection to a database, blocking up to {@code maxWaitMillis} when its pool is exhausted.
+     */
+    public Jedis getResource(int databaseIndex) {
+        JedisPool pool = pools.computeIfAbsent(databaseIndex, this::createPool);
+        long start = System.nanoTime();
+        try {
+            Jedis redis = pool.getResource();
+            metrics.poolBorrows().record(start, 0);
+            return redis;
+        } catch (JedisException e) {
+            metrics.poolBorrows().recordError(start);
+            throw e;
+        }
+    }
+
+    @Override
+    public Jedis getResource(int databaseIndex, byte[] key) {
+        return getResource(databaseIndex);
+    }
+
+    /**
+     * Borrows a connection to the default database, for commands that are not bound to a database (e.g. pub/sub).
+     */
+    @Override
+    public Jedis getResource() {
+        return getResource(defaultDatabaseIndex);
+    }
+
+    @Override
+    public Object partition(byte[] key) {
+        return this;
+    }
+
+    /**
+     * @return null unless {@code asyncConnections} is set
+     */
+    @Override
+    public AsyncRedisClient getAsyncClient(int databaseIndex) {
+        if (config.getAsyncConnections() <= 0) {
+            return null;
+        }
+        return asyncClients.computeIfAbsent(databaseIndex, index -> {
+            try {
+                // the blocking work run on its executor borrows pooled connections
+                return new AsyncRedisClient(host, port, password, index, config.getAsyncConnections(),
+                        config.getMaxTotal(), config.getConnectTimeoutMillis(), config.getReadTimeoutMillis());
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not open a selector for redis", e);
+            }
+        });
+    }
+
+    @Override
+    public boolean isMultiNode() {
+        return false;
+    }
+
+    @Override
+    public List<Supplier<Jedis>> getSubscriptionNodes() {
+        return Collections.singletonList(this::getResource);
+    }
+
+    @Override
+    public String toString() {
+        return host + ":" + port;
+    }
+
+    @Override
+    public void close() {
+        pools.values().forEach(JedisPool::close);
+        pools.clear();
+        asyncClients.values().forEach(AsyncRedisClient::close);
+        asyncClients.clear();
+    }
+}
@@ -0,0 +1,90 @@
+package ca.momoperes.gsredis.redis;
+
+import redis.clients.jedis.Jedis;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Routes each key to the redis node holding it.
+ * <p>
+ * When keys are spread over several nodes, the keys used together in a pipeline, transaction or script
+ * must share a hash tag ({@code {...}}), which decides the node for every implementation.
+ */
+public interface RedisRouter extends AutoCloseable {
+
+    /**
+     * Borrows a connection to the node holding a key.
+     */
+    Jedis getResource(int databaseIndex, byte[] key);
+
+    /**
+     * Borrows a connection for reads only, which may be served by a replica and be slightly stale.
+     */
+    default Jedis getReadResource(int databaseIndex, byte[] key) {
+        return getResource(databaseIndex, key);
+    }
+
+    /**
+     * Borrows a connection for commands that are not bound to a key.
+     */
+    Jedis getResource();
+
+    /**
+     * Identifies the node (or cluster slot) holding a key. Keys of the same partition can share a pipeline.
+     */
+    Object partition(byte[] key);
+
+    /**
+     * Whether keys are spread over several nodes, in which case keys must be hash-tagged.
+     */
+    boolean isMultiNode();
+
+    /**
+     * Connections to subscribe to in order to receive every message published through this router.
+     */
+    List<Supplier<Jedis>> getSubscriptionNodes();
+
+    /**
+     * Connections to a database of every primary node, e.g. to scan keys, which each node only lists for its own.
+     */
+    default List<Supplier<Jedis>> getPrimaryNodes(int databaseIndex) {
+        return Collections.singletonList(() -> getResource(databaseIndex, new byte[0]));
+    }
+
+    /**
+     * Runs an operation on a connection to the node holding a key.
+     */
+    default <T> T execute(int databaseIndex, byte[] key, RedisOperation<T> operation) throws IOException {
+        try (Jedis redis = getResource(databaseIndex, key)) {
+            return operation.run(redis);
+        }
+    }
+
+    /**
+     * Runs a read-only operation, which may be served by a replica and be slightly stale.
+     */
+    default <T> T executeRead(int databaseIndex, byte[] key, RedisOperation<T> operation) throws IOException {
+        try (Jedis redis = getReadResource(databaseIndex, key)) {
+            return operation.run(redis);
+        }
+    }
+
+    /**
+     * A non-blocking client to a database, through which chunk I/O does not hold a pooled connection per operation.
+     *
+     * @return null if the router has none, which is the case when keys are spread over several nodes
+     */
+    default AsyncRedisClient getAsyncClient(int databaseIndex) {
+        return null;
+    }
+
+    @Override
+    void close();
+
+    interface RedisOperation<T> {
+        T run(Jedis redis) throws IOException;
+    }
+}
@@ -0,0 +1,205 @@
+package ca.momoperes.gsredis.redis;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+import redis.clients.jedis.exceptions.JedisException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+
+/**
+ * Sends reads to the replica of a standalone server with the lowest latency, and everything else to the primary.
+ * <p>
+ * Replicas are probed in the background: a replica is used once it answers a PING and its link to the primary
+ * is up, and is dropped as soon as it fails. Without any usable replica, reads go to the primary.
+ * With read-your-writes, keys borrowed for writing are read from the primary for {@code readYourWritesMillis},
+ * so this server never reads an older version of what it just wrote from a lagging replica.
+ */
+public class ReplicaRedisRouter implements RedisRouter {
+    // weight of the latest probe in the latency average
+    private static final double SMOOTHING = 0.3;
+    private static final int MAX_TRACKED_WRITES = 4096;
+
+    private final RedisConnections primary;
+    private final List<Replica> replicas = new ArrayList<>();
+    private final long readYourWritesNanos;
+    private final Map<ByteBuffer, Long> recentWrites = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService prober;
+    private final Logger logger;
+    private volatile Replica fastest;
+
+    public ReplicaRedisRouter(RedisConnections primary, List<RedisConnections> replicas, long readYourWritesMillis,
+                              long probeIntervalMillis, Logger logger) {
+        this.primary = primary;
+        for (RedisConnections replica : replicas) {
+            this.replicas.add(new Replica(replica));
+        }
+        this.readYourWritesNanos = TimeUnit.MILLISECONDS.toNanos(readYourWritesMillis);
+        this.logger = logger;
+        this.prober = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "gsredis-replica-probe");
+            thread.setDaemon(true);
+            return thread;
+        });
+        prober.scheduleWithFixedDelay(this::probe, 0, probeIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void probe() {
+        for (Replica replica : replicas) {
+            try (Jedis redis = replica.connections.getResource()) {
+                long start = System.nanoTime();
+                redis.ping();
+                long latency = System.nanoTime() - start;
+                if (!redis.info("replication").contains("master_link_status:up")) {
+                    replica.markDown("its link to the primary is down");
+                    continue;
+                }
+                replica.latencyNanos = replica.latencyNanos < 0
+                        ? latency
+                        : (long) (SMOOTHING * latency + (1 - SMOOTHING) * replica.latencyNanos);
+                replica.up = true;
+            } catch (JedisException e) {
+                replica.markDown(e.getMessage());
+            }
+        }
+        selectFastest();
+    }
+
+    private void selectFastest() {
+        Replica selected = null;
+        for (Replica replica : replicas) {
+            if (replica.up && (selected == null || replica.latencyNanos < selected.latencyNanos)) {
+                selected = replica;
+            }
+        }
+        fastest = selected;
+    }
+
+    private boolean recentlyWritten(byte[] key) {
+        if (readYourWritesNanos <= 0) {
+            return false;
+        }
+        Long written = recentWrites.get(ByteBuffer.wrap(key));
+        return written != null && System.nanoTime() - written < readYourWritesNanos;
+    }
+
+    /**
+     * Borrows a connection to the primary, which is assumed to write the key.
+     */
+    @Override
+    public Jedis getResource(int databaseIndex, byte[] key) {
+        if (readYourWritesNanos > 0) {
+            long now = System.nanoTime();
+            if (recentWrites.size() >= MAX_TRACKED_WRITES) {
+                recentWrites.values().removeIf(written -> now - written >= readYourWritesNanos);
+            }
+            recentWrites.put(ByteBuffer.wrap(key.clone()), now);
+        }
+        return primary.getResource(databaseIndex);
+    }
+
+    @Override
+    public Jedis getReadResource(int databaseIndex, byte[] key) {
+        Replica replica = fastest;
+        if (replica == null || recentlyWritten(key)) {
+            return primary.getResource(databaseIndex);
+        }
+        try {
+            return replica.connections.getResource(databaseIndex);
+        } catch (JedisConnectionException e) {
+            replica.markDown(e.getMessage());
+            selectFastest();
+            return primary.getResource(databaseIndex);
+        }
+    }
+
+    /**
+     * Runs a read on the fastest replica, falling back to the primary if the replica fails.
+     */
+    @Override
+    public <T> T executeRead(int databaseIndex, byte[] key, RedisOperation<T> operation) throws IOException {
+        Replica replica = fastest;
+        if (replica == null || recentlyWritten(key)) {
+            try (Jedis redis = primary.getResource(databaseIndex)) {
+                return operation.run(redis);
+            }
+        }
+        try (Jedis redis = replica.connections.getResource(databaseIndex)) {
+            return operation.run(redis);
+        } catch (JedisConnectionException e) {
+            replica.markDown(e.getMessage());
+            selectFastest();
+            try (Jedis redis = primary.getResource(databaseIndex)) {
+                return operation.run(redis);
+            }
+        }
+    }
+
+    @Override
+    public Jedis getResource() {
+        return primary.getResource();
+    }
+
+    @Override
+    public Object partition(byte[] key) {
+        return primary;
+    }
+
+    @Override
+    public boolean isMultiNode() {
+        return false;
+    }
+
+    /**
+     * The primary and every replica. Invalidations are replicated in order with the writes, so a chunk
+     * read from a lagging replica is invalidated again once that replica has applied the write.
+     */
+    @Override
+    public List<Supplier<Jedis>> getSubscriptionNodes() {
+        List<Supplier<Jedis>> subscriptions = new ArrayList<>(primary.getSubscriptionNodes());
+        for (Replica replica : replicas) {
+            subscriptions.add(replica.connections::getResource);
+        }
+        return subscriptions;
+    }
+
+    @Override
+    public List<Supplier<Jedis>> getPrimaryNodes(int databaseIndex) {
+        return primary.getPrimaryNodes(databaseIndex);
+    }
+
+    @Override
+    public void close() {
+        prober.shutdownNow();
+        primary.close();
+        for (Replica replica : replicas) {
+            replica.connections.close();
+        }
+    }
+
+    private class Replica {
+        private final RedisConnections connections;
+        private volatile boolean up;
+        private volatile long latencyNanos = -1;
+
+        private Replica(RedisConnections connections) {
+            this.connections = connections;
+        }
+
+        private void markDown(String reason) {
+            if (up) {
+                logger.warning("Not reading from replica " + connections + ": " + reason);
+            }
+            up = false;
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package ca.momoperes.gsredis.redis;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.util.Hashing;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.function.Supplier;
+
+/**
+ * Spreads keys over standalone redis nodes with a consistent hash ring, so adding a node only moves
+ * about {@code 1/n} of the keys (which must then be moved by hand, nodes do not rebalance).
+ * <p>
+ * Only the hash tag of a key is hashed when it has one, like Redis Cluster does.
+ */
+public class ShardedRedisRouter implements RedisRouter {
+    private static final int VIRTUAL_NODES = 160;
+
+    private final List<RedisConnections> nodes;
+    private final TreeMap<Long, RedisConnections> ring = new TreeMap<>();
+
+    public ShardedRedisRouter(List<RedisConnections> nodes) {
+        if (nodes.isEmpty()) {
+            throw new IllegalArgumentException("At least one node is required");
+        }
+        this.nodes = new ArrayList<>(nodes);
+        for (RedisConnections node : nodes) {
+            for (int i = 0; i < VIRTUAL_NODES; i++) {
+                ring.put(Hashing.MURMUR_HASH.hash(node + "-" + i), node);
+            }
+        }
+    }
+
+    /**
+     * The part of a key that decides its node: the content of its first non-empty {@code {...}}, or the whole key.
+     */
+    static byte[] hashTag(byte[] key) {
+        for (int start = 0; start < key.length; start++) {
+            if (key[start] == '{') {
+                for (int end = start + 1; end < key.length; end++) {
+                    if (key[end] == '}') {
+                        if (end == start + 1) {
+                            return key;
+                        }
+                        byte[] tag = new byte[end - start - 1];
+                        System.arraycopy(key, start + 1, tag, 0, tag.length);
+                        return tag;
+                    }
+                }
+                return key;
+            }
+        }
+        return key;
+    }
+
+    private RedisConnections node(byte[] key) {
+        SortedMap<Long, RedisConnections> tail = ring.tailMap(Hashing.MURMUR_HASH.hash(hashTag(key)));
+        return tail.isEmpty() ? ring.firstEntry().getValue() : tail.get(tail.firstKey());
+    }
+
+    @Override
+    public Jedis getResource(int databaseIndex, byte[] key) {
+        return node(key).getResource(databaseIndex);
+    }
+
+    /**
+     * Borrows a connection to the first node.
+     */
+    @Override
+    public Jedis getResource() {
+        return nodes.get(0).getResource();
+    }
+
+    @Override
+    public Object partition(byte[] key) {
+        return node(key);
+    }
+
+    @Override
+    public boolean isMultiNode() {
+        return true;
+    }
+
+    /**
+     * Every node, messages are published on the node of the keys they are pipelined with.
+     */
+    @Override
+    public List<Supplier<Jedis>> getSubscriptionNodes() {
+        List<Supplier<Jedis>> subscriptions = new ArrayList<>(nodes.size());
+        for (RedisConnections node : nodes) {
+            subscriptions.add(node::getResource);
+        }
+        return subscriptions;
+    }
+
+    @Override
+    public List<Supplier<Jedis>> getPrimaryNodes(int databaseIndex) {
+        List<Supplier<Jedis>> primaries = new ArrayList<>(nodes.size());
+        for (RedisConnections node : nodes) {
+            primaries.add(() -> node.getResource(databaseIndex));
+        }
+        return primaries;
+    }
+
+    @Override
+    public void close() {
+        nodes.forEach(RedisConnections::close);
+    }
+}